@@ -0,0 +1,122 @@
+package com.dynamolite;
+
+/**
+ * AdaptiveLimiter bounds the number of requests of one traffic class a node
+ * processes at once, and moves that bound with observed latency.
+ *
+ * The limit follows a gradient rule: a short-term average of request latency is
+ * compared with a long-term one. While latency holds steady the limit grows by
+ * about its square root; once requests start queueing and latency rises, the
+ * limit shrinks in proportion. Requests over the limit wait in a small bounded
+ * queue for a short while, and are rejected once it is full or the wait expires,
+ * so an overloaded node sheds excess work instead of slowing everything down.
+ */
+public class AdaptiveLimiter {
+    private static final double SHORT_RTT_WEIGHT = 0.1;
+    private static final double LONG_RTT_WEIGHT = 0.01;
+    private static final double SMOOTHING = 0.2;
+    // Latency may grow this much over the long-term average before the limit backs off
+    private static final double TOLERANCE = 1.5;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final int queueCapacity;
+    private final long maxQueueWaitMs;
+
+    private double limit;
+    private double shortRttNanos;
+    private double longRttNanos;
+    private int inFlight;
+    private int queued;
+    private long rejected;
+
+    public AdaptiveLimiter(int initialLimit, int minLimit, int maxLimit, int queueCapacity, long maxQueueWaitMs) {
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.queueCapacity = queueCapacity;
+        this.maxQueueWaitMs = maxQueueWaitMs;
+    }
+
+    /**
+     * Takes a slot for one request, waiting up to the queue timeout if the limit
+     * is reached. Returns false if the request must be rejected. Every successful
+     * acquire must be followed by {@link #release(long)}.
+     */
+    public synchronized boolean acquire() {
+        if (inFlight < (int) limit) {
+            inFlight++;
+            return true;
+        }
+        if (queued >= queueCapacity) {
+            rejected++;
+            return false;
+        }
+        queued++;
+        try {
+            long deadline = System.currentTimeMillis() + maxQueueWaitMs;
+            long remaining = maxQueueWaitMs;
+            while (inFlight >= (int) limit && remaining > 0) {
+                wait(remaining);
+                remaining = deadline - System.currentTimeMillis();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            queued--;
+        }
+        if (inFlight < (int) limit) {
+            inFlight++;
+            return true;
+        }
+        rejected++;
+        return false;
+    }
+
+    /**
+     * Frees the request's slot and feeds its processing time into the limit.
+     */
+    public synchronized void release(long rttNanos) {
+        inFlight--;
+        if (longRttNanos == 0) {
+            shortRttNanos = rttNanos;
+            longRttNanos = rttNanos;
+        } else {
+            shortRttNanos += SHORT_RTT_WEIGHT * (rttNanos - shortRttNanos);
+            longRttNanos += LONG_RTT_WEIGHT * (rttNanos - longRttNanos);
+        }
+        // An overload drags the long-term average up with it; once latency falls
+        // back, decay it faster so it again stands for unloaded latency
+        if (longRttNanos > 2 * shortRttNanos) {
+            longRttNanos *= 0.95;
+        }
+
+        double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longRttNanos / shortRttNanos));
+        // Only grow while the limit is actually being used
+        boolean saturated = inFlight + 1 >= limit / 2;
+        double newLimit = limit * gradient + (saturated ? Math.sqrt(limit) : 0);
+        limit = limit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+        limit = Math.max(minLimit, Math.min(maxLimit, limit));
+        // The limit may have grown by more than the slot just freed
+        notifyAll();
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized int getQueued() {
+        return queued;
+    }
+
+    /**
+     * Returns the number of requests rejected since startup
+     */
+    public synchronized long getRejected() {
+        return rejected;
+    }
+}
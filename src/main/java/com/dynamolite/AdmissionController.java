@@ -0,0 +1,87 @@
+package com.dynamolite;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * AdmissionController decides whether a node takes on a request, with a
+ * separate adaptive limit per traffic class.
+ *
+ * Client requests and replica requests are limited independently: a coordinator
+ * holds its client slot while it waits on replicas, so if both shared one limit,
+ * nodes busy coordinating could refuse each other's replica writes. Control
+ * traffic (heartbeats, stats) is cheap and always admitted, so a busy node is
+ * not mistaken for a dead one. Streams (change feed reads, which are long
+ * polls that mostly wait, snapshots and bulk loads) are not limited either:
+ * they would otherwise hold a slot for long stretches and skew the limiter's
+ * latency samples.
+ */
+public class AdmissionController {
+    static final int DEFAULT_INITIAL_LIMIT = 32;
+    static final int DEFAULT_MIN_LIMIT = 16;
+    static final int DEFAULT_MAX_LIMIT = 512;
+    static final int DEFAULT_QUEUE_CAPACITY = 64;
+    static final long DEFAULT_MAX_QUEUE_WAIT_MS = 100;
+
+    public enum TrafficClass {
+        CONTROL,
+        REPLICA,
+        CLIENT,
+        STREAM
+    }
+
+    private final Map<TrafficClass, AdaptiveLimiter> limiters = new EnumMap<>(TrafficClass.class);
+
+    public AdmissionController() {
+        this(DEFAULT_INITIAL_LIMIT, DEFAULT_MIN_LIMIT, DEFAULT_MAX_LIMIT,
+            DEFAULT_QUEUE_CAPACITY, DEFAULT_MAX_QUEUE_WAIT_MS);
+    }
+
+    public AdmissionController(int initialLimit, int minLimit, int maxLimit, int queueCapacity, long maxQueueWaitMs) {
+        for (TrafficClass trafficClass : new TrafficClass[] {TrafficClass.REPLICA, TrafficClass.CLIENT}) {
+            limiters.put(trafficClass,
+                new AdaptiveLimiter(initialLimit, minLimit, maxLimit, queueCapacity, maxQueueWaitMs));
+        }
+    }
+
+    /**
+     * Sorts a request into its traffic class. Control traffic is health checks,
+     * membership gossip, stats (top keys included) and cache invalidations.
+     * Replica traffic is whatever another node sends while coordinating:
+     * versioned writes, replica reads, hints, CRDT merges and forwarded
+     * requests. Change feed reads, snapshots and bulk loads are streams.
+     */
+    public static TrafficClass classify(Request request) {
+        switch (request.getType()) {
+            case HEARTBEAT:
+            case PING_REQ:
+            case GOSSIP:
+            case STATS:
+            case TOP_KEYS:
+            case INVALIDATE:
+                return TrafficClass.CONTROL;
+            case CRDT_MERGE:
+            case REPLICA_BATCH:
+                return TrafficClass.REPLICA;
+            case CHANGES:
+            case SNAPSHOT:
+            case BULK_LOAD:
+                return TrafficClass.STREAM;
+            default:
+                boolean replica = request.getVersion() != null || request.isReplicaRead()
+                    || request.getHintedFor() != null || request.isForwarded();
+                return replica ? TrafficClass.REPLICA : TrafficClass.CLIENT;
+        }
+    }
+
+    /**
+     * Returns the limiter for the request's class, or null if the class is not limited.
+     */
+    public AdaptiveLimiter limiterFor(Request request) {
+        return limiters.get(classify(request));
+    }
+
+    public AdaptiveLimiter getLimiter(TrafficClass trafficClass) {
+        return limiters.get(trafficClass);
+    }
+}
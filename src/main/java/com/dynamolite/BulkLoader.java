@@ -0,0 +1,646 @@
+package com.dynamolite;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * BulkLoader is an offline tool for initial loads and re-seeds: instead of one
+ * PUT per key, it builds each node's storage file directly and hands it over
+ * whole.
+ *
+ * Input is CSV (with a header row naming the columns) or JSON Lines, one
+ * record per line; the key and value are taken from the named fields. The
+ * input is streamed, so it can be far larger than memory: every runRecords
+ * records are partitioned by the preference lists of a ring built from the
+ * cluster's node ids, in parallel with fork/join, and each node's share is
+ * spilled to disk as a key-sorted run. Each node's runs are then merged, in
+ * parallel across nodes, into its storage file, which is written as a stream
+ * of entries under a temporary name and renamed into place, so a file is
+ * either complete or absent. A file can seed a node that is not running (as
+ * its storage.dat) or be attached to a running node, which merges it into
+ * its data like replica writes. Nodes only attach files from their bulk
+ * import directory (see {@link Node#setBulkImportDir(String)}).
+ *
+ * Every loaded value gets the same version, from a "bulk-load" clock set to
+ * the load time, so the replicas of a key agree and any later write through a
+ * coordinator supersedes it.
+ */
+public class BulkLoader {
+    private static final Logger logger = LoggerFactory.getLogger(BulkLoader.class);
+    static final String VERSION_NODE = "bulk-load";
+    // Records per fork/join leaf when partitioning
+    static final int SPLIT_THRESHOLD = 10_000;
+    static final int DEFAULT_RUN_RECORDS = 200_000;
+    // Entries written between resets of an object stream, which otherwise keeps every object it wrote
+    private static final int RESET_INTERVAL = 1000;
+
+    private final ConsistentHashRing ring = new ConsistentHashRing();
+    private final int replicationFactor;
+    private final String keyField;
+    private final String valueField;
+    private final ForkJoinPool pool = ForkJoinPool.commonPool();
+    private int runRecords = DEFAULT_RUN_RECORDS;
+    private long recordsRead;
+
+    public BulkLoader(Collection<String> nodeIds, int replicationFactor, String keyField, String valueField) {
+        this.replicationFactor = replicationFactor;
+        this.keyField = keyField;
+        this.valueField = valueField;
+        for (String nodeId : nodeIds) {
+            ring.addNode(nodeId);
+        }
+    }
+
+    /**
+     * Sets how many input records are held in memory before they are spilled
+     * to disk as sorted runs
+     */
+    public void setRunRecords(int runRecords) {
+        if (runRecords < 1) {
+            throw new IllegalArgumentException("Run size must be at least 1 record");
+        }
+        this.runRecords = runRecords;
+    }
+
+    /**
+     * Returns the number of records read by the last build
+     */
+    public long getRecordsRead() {
+        return recordsRead;
+    }
+
+    /**
+     * Streams the records of a .csv or .jsonl file, partitions them by
+     * ownership and writes one storage file per node into
+     * {@code outDir/<nodeId>/}. Returns the file of each node that owns any
+     * of the records. A key that appears twice keeps its last value. Records
+     * missing the key or value field are skipped.
+     */
+    public Map<String, Path> build(Path input, Path outDir) throws IOException {
+        VersionVector version = new VersionVector(VERSION_NODE);
+        version.advance(System.currentTimeMillis());
+        String fileName = "bulk-" + System.currentTimeMillis() + ".dat";
+        Map<String, List<Path>> runs = new TreeMap<>();
+        recordsRead = 0;
+        try {
+            try (RecordReader records = new RecordReader(input)) {
+                List<String[]> chunk = new ArrayList<>();
+                String[] record;
+                while ((record = records.next()) != null) {
+                    chunk.add(record);
+                    if (chunk.size() >= runRecords) {
+                        spill(chunk, version, outDir, fileName, runs);
+                        chunk = new ArrayList<>();
+                    }
+                }
+                if (!chunk.isEmpty()) {
+                    spill(chunk, version, outDir, fileName, runs);
+                }
+                recordsRead = records.read;
+                if (records.skipped > 0) {
+                    logger.warn("Skipped {} records without a {} or {}", records.skipped, keyField, valueField);
+                }
+            }
+
+            Map<String, Path> files = new LinkedHashMap<>();
+            List<ForkJoinTask<?>> merges = new ArrayList<>();
+            for (Map.Entry<String, List<Path>> nodeRuns : runs.entrySet()) {
+                Path file = outDir.resolve(nodeRuns.getKey()).resolve(fileName);
+                files.put(nodeRuns.getKey(), file);
+                merges.add(task(() -> mergeRuns(nodeRuns.getValue(), file)));
+            }
+            invokeAll(merges);
+            return files;
+        } finally {
+            for (List<Path> nodeRuns : runs.values()) {
+                for (Path run : nodeRuns) {
+                    Files.deleteIfExists(run);
+                }
+            }
+        }
+    }
+
+    /**
+     * Partitions a chunk of records and writes each node's share as a sorted
+     * run next to the node's file
+     */
+    private void spill(List<String[]> chunk, VersionVector version, Path outDir, String fileName,
+                       Map<String, List<Path>> runs) throws IOException {
+        Map<String, TreeMap<String, Storage.Value>> partitions =
+            pool.invoke(new PartitionTask(chunk, 0, chunk.size(), version));
+        List<ForkJoinTask<?>> writes = new ArrayList<>();
+        for (Map.Entry<String, TreeMap<String, Storage.Value>> partition : partitions.entrySet()) {
+            List<Path> nodeRuns = runs.computeIfAbsent(partition.getKey(), n -> new ArrayList<>());
+            Path run = outDir.resolve(partition.getKey()).resolve(fileName + ".run" + nodeRuns.size());
+            nodeRuns.add(run);
+            writes.add(task(() -> writeStorageFile(partition.getValue(), run)));
+        }
+        invokeAll(writes);
+    }
+
+    private interface IoAction {
+        void run() throws IOException;
+    }
+
+    private static ForkJoinTask<?> task(IoAction action) {
+        return ForkJoinTask.adapt(() -> {
+            try {
+                action.run();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private void invokeAll(List<ForkJoinTask<?>> tasks) throws IOException {
+        try {
+            pool.invoke(ForkJoinTask.adapt(() -> {
+                ForkJoinTask.invokeAll(tasks);
+            }));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Writes the entries as a stream in the storage file format, under a
+     * temporary name first so the file only appears once it is complete.
+     */
+    static void writeStorageFile(Map<String, Storage.Value> entries, Path file) throws IOException {
+        try (EntryWriter out = new EntryWriter(file)) {
+            for (Map.Entry<String, Storage.Value> entry : entries.entrySet()) {
+                out.write(entry.getKey(), entry.getValue());
+            }
+            out.finish();
+        }
+    }
+
+    /**
+     * Merges key-sorted runs into one storage file, holding one entry per run
+     * in memory. Where runs share a key, the latest run wins.
+     */
+    static void mergeRuns(List<Path> runs, Path file) throws IOException {
+        List<RunReader> readers = new ArrayList<>();
+        PriorityQueue<RunReader> heads = new PriorityQueue<>(
+            Comparator.comparing((RunReader run) -> run.key).thenComparing(run -> -run.index));
+        try (EntryWriter out = new EntryWriter(file)) {
+            for (int i = 0; i < runs.size(); i++) {
+                RunReader run = new RunReader(runs.get(i), i);
+                readers.add(run);
+                requeue(run, heads);
+            }
+            while (!heads.isEmpty()) {
+                RunReader latest = heads.poll();
+                String key = latest.key;
+                out.write(key, latest.value);
+                requeue(latest, heads);
+                // Older copies of the key are dropped
+                while (!heads.isEmpty() && heads.peek().key.equals(key)) {
+                    requeue(heads.poll(), heads);
+                }
+            }
+            out.finish();
+        } finally {
+            for (RunReader run : readers) {
+                run.close();
+            }
+        }
+    }
+
+    private static void requeue(RunReader run, PriorityQueue<RunReader> heads) throws IOException {
+        if (run.advance()) {
+            heads.add(run);
+        }
+    }
+
+    /**
+     * Writes entries as key and value pairs ended by null (the streamed form
+     * {@link Storage#readEntries} reads), to a temporary file that
+     * {@link #finish()} moves into place. Closing without finishing discards it.
+     */
+    private static class EntryWriter implements Closeable {
+        private final Path file;
+        private final Path tmp;
+        private final ObjectOutputStream out;
+        private long written;
+        private boolean finished;
+
+        EntryWriter(Path file) throws IOException {
+            Files.createDirectories(file.getParent());
+            this.file = file;
+            this.tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            this.out = new ObjectOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16));
+        }
+
+        void write(String key, Storage.Value value) throws IOException {
+            out.writeObject(key);
+            out.writeObject(value);
+            if (++written % RESET_INTERVAL == 0) {
+                out.reset();
+            }
+        }
+
+        void finish() throws IOException {
+            out.writeObject(null);
+            out.close();
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+            finished = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!finished) {
+                out.close();
+                Files.deleteIfExists(tmp);
+            }
+        }
+    }
+
+    /**
+     * Reads a run written by an EntryWriter one entry at a time
+     */
+    private static class RunReader implements Closeable {
+        private final ObjectInputStream in;
+        private final int index;
+        private String key;
+        private Storage.Value value;
+
+        RunReader(Path run, int index) throws IOException {
+            this.in = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(run), 1 << 16));
+            this.index = index;
+        }
+
+        /**
+         * Moves to the next entry; returns false at the end of the run
+         */
+        boolean advance() throws IOException {
+            try {
+                key = (String) in.readObject();
+                value = key != null ? (Storage.Value) in.readObject() : null;
+                return key != null;
+            } catch (ClassNotFoundException | ClassCastException e) {
+                throw new IOException("Damaged run file", e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads the key and value of the records of a .csv or .jsonl file, one
+     * line at a time.
+     */
+    private class RecordReader implements Closeable {
+        private final BufferedReader reader;
+        private final boolean csv;
+        private int keyColumn = -1;
+        private int valueColumn = -1;
+        private long read;
+        private long skipped;
+
+        RecordReader(Path input) throws IOException {
+            String name = input.getFileName().toString().toLowerCase();
+            this.csv = name.endsWith(".csv");
+            if (!csv && !name.endsWith(".jsonl") && !name.endsWith(".json")) {
+                throw new IOException("Unsupported input format: " + input + " (expected .csv or .jsonl)");
+            }
+            this.reader = Files.newBufferedReader(input, StandardCharsets.UTF_8);
+            if (csv) {
+                String headerLine = reader.readLine();
+                List<String> header = headerLine != null ? csvFields(headerLine) : new ArrayList<>();
+                keyColumn = header.indexOf(keyField);
+                valueColumn = header.indexOf(valueField);
+                if (keyColumn < 0 || valueColumn < 0) {
+                    reader.close();
+                    throw new IOException("CSV header must name the columns " + keyField + " and " + valueField);
+                }
+            }
+        }
+
+        /**
+         * Returns the next record's key and value, or null at the end of the input
+         */
+        String[] next() throws IOException {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                String key;
+                String value;
+                if (csv) {
+                    List<String> fields = csvFields(line);
+                    key = keyColumn < fields.size() ? fields.get(keyColumn) : null;
+                    value = valueColumn < fields.size() ? fields.get(valueColumn) : null;
+                } else {
+                    Map<String, String> fields = jsonFields(line);
+                    key = fields.get(keyField);
+                    value = fields.get(valueField);
+                }
+                if (key == null || key.isEmpty() || value == null) {
+                    skipped++;
+                    continue;
+                }
+                read++;
+                return new String[] {key, value};
+            }
+            return null;
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    /**
+     * Asks the node at the given port to merge a storage file into its data.
+     * The file must be in the node's bulk import directory. Returns the
+     * node's answer.
+     */
+    public static Response attach(String host, int port, Path file) throws IOException {
+        try (Client client = new Client(host, port)) {
+            client.connect();
+            return client.sendRequest(Request.bulkLoad(file.toAbsolutePath().toString()));
+        }
+    }
+
+    /**
+     * Asks the node at the given port for its id.
+     */
+    static String nodeIdAt(String host, int port) throws IOException {
+        try (Client client = new Client(host, port)) {
+            client.connect();
+            Response response = client.sendRequest(new Request(Request.Type.GOSSIP, null, null));
+            if (response.getMembers() != null) {
+                for (Membership.Member member : response.getMembers()) {
+                    if (member.getPort() == port) {
+                        return member.getNodeId();
+                    }
+                }
+            }
+            throw new IOException("Node at port " + port + " did not report its id");
+        }
+    }
+
+    /**
+     * Splits the records in half until a piece is small enough, partitions
+     * each piece, and merges the pieces' partitions on the way back up.
+     */
+    @SuppressWarnings("serial") // never serialized: fork/join tasks only run in this process
+    private class PartitionTask extends RecursiveTask<Map<String, TreeMap<String, Storage.Value>>> {
+        private final List<String[]> records;
+        private final int from;
+        private final int to;
+        private final VersionVector version;
+
+        PartitionTask(List<String[]> records, int from, int to, VersionVector version) {
+            this.records = records;
+            this.from = from;
+            this.to = to;
+            this.version = version;
+        }
+
+        @Override
+        protected Map<String, TreeMap<String, Storage.Value>> compute() {
+            if (to - from <= SPLIT_THRESHOLD) {
+                Map<String, TreeMap<String, Storage.Value>> partitions = new HashMap<>();
+                for (int i = from; i < to; i++) {
+                    String[] record = records.get(i);
+                    Storage.Value value = new Storage.Value(record[1], version);
+                    for (String node : ring.getNodes(record[0], replicationFactor)) {
+                        partitions.computeIfAbsent(node, n -> new TreeMap<>()).put(record[0], value);
+                    }
+                }
+                return partitions;
+            }
+            int mid = (from + to) >>> 1;
+            PartitionTask left = new PartitionTask(records, from, mid, version);
+            left.fork();
+            Map<String, TreeMap<String, Storage.Value>> later =
+                new PartitionTask(records, mid, to, version).compute();
+            Map<String, TreeMap<String, Storage.Value>> earlier = left.join();
+            // Later records win; copy the smaller map into the larger
+            for (Map.Entry<String, TreeMap<String, Storage.Value>> entry : earlier.entrySet()) {
+                TreeMap<String, Storage.Value> mine = entry.getValue();
+                TreeMap<String, Storage.Value> theirs = later.get(entry.getKey());
+                if (theirs == null) {
+                    later.put(entry.getKey(), mine);
+                } else if (mine.size() > theirs.size()) {
+                    mine.putAll(theirs);
+                    later.put(entry.getKey(), mine);
+                } else {
+                    mine.forEach(theirs::putIfAbsent);
+                }
+            }
+            return later;
+        }
+    }
+
+    /**
+     * Splits a CSV line into fields. Fields may be quoted, with "" for a quote.
+     */
+    static List<String> csvFields(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    /**
+     * Reads the top-level fields of a JSON object on one line. String values
+     * are unescaped; other values (numbers, booleans, nested objects and
+     * arrays) are kept as their JSON text.
+     */
+    static Map<String, String> jsonFields(String line) {
+        Map<String, String> fields = new HashMap<>();
+        JsonCursor cursor = new JsonCursor(line);
+        cursor.expect('{');
+        while (cursor.skipSpace() != '}') {
+            String name = cursor.string();
+            cursor.expect(':');
+            char start = cursor.skipSpace();
+            fields.put(name, start == '"' ? cursor.string() : cursor.raw());
+            if (cursor.skipSpace() == ',') {
+                cursor.pos++;
+            }
+        }
+        return fields;
+    }
+
+    private static class JsonCursor {
+        private final String text;
+        private int pos;
+
+        JsonCursor(String text) {
+            this.text = text;
+        }
+
+        char skipSpace() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+            if (pos >= text.length()) {
+                throw new IllegalArgumentException("Truncated JSON: " + text);
+            }
+            return text.charAt(pos);
+        }
+
+        void expect(char c) {
+            if (skipSpace() != c) {
+                throw new IllegalArgumentException("Expected '" + c + "' at " + pos + ": " + text);
+            }
+            pos++;
+        }
+
+        String string() {
+            expect('"');
+            StringBuilder out = new StringBuilder();
+            while (true) {
+                char c = text.charAt(pos++);
+                if (c == '"') {
+                    return out.toString();
+                }
+                if (c != '\\') {
+                    out.append(c);
+                    continue;
+                }
+                char escaped = text.charAt(pos++);
+                switch (escaped) {
+                    case 'n': out.append('\n'); break;
+                    case 't': out.append('\t'); break;
+                    case 'r': out.append('\r'); break;
+                    case 'b': out.append('\b'); break;
+                    case 'f': out.append('\f'); break;
+                    case 'u':
+                        out.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                        pos += 4;
+                        break;
+                    default: out.append(escaped); break;
+                }
+            }
+        }
+
+        /**
+         * Reads a non-string value as text, up to the next top-level ',' or '}'.
+         */
+        String raw() {
+            int start = pos;
+            int depth = 0;
+            boolean inString = false;
+            for (; pos < text.length(); pos++) {
+                char c = text.charAt(pos);
+                if (inString) {
+                    if (c == '\\') {
+                        pos++;
+                    } else if (c == '"') {
+                        inString = false;
+                    }
+                } else if (c == '"') {
+                    inString = true;
+                } else if (c == '{' || c == '[') {
+                    depth++;
+                } else if ((c == '}' || c == ']') && depth > 0) {
+                    depth--;
+                } else if ((c == ',' || c == '}') && depth == 0) {
+                    break;
+                }
+            }
+            return text.substring(start, pos).trim();
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 3) {
+            System.out.println("Usage: java BulkLoader <input.csv|input.jsonl> <outDir> <nodeId=port|port>[,...]"
+                + " [--replication=N] [--key-field=F] [--value-field=F] [--attach]");
+            return;
+        }
+        int replication = 2;
+        String keyField = "key";
+        String valueField = "value";
+        boolean attach = false;
+        for (int i = 3; i < args.length; i++) {
+            if (args[i].startsWith("--replication=")) {
+                replication = Integer.parseInt(args[i].substring("--replication=".length()));
+            } else if (args[i].startsWith("--key-field=")) {
+                keyField = args[i].substring("--key-field=".length());
+            } else if (args[i].startsWith("--value-field=")) {
+                valueField = args[i].substring("--value-field=".length());
+            } else if (args[i].equals("--attach")) {
+                attach = true;
+            }
+        }
+
+        try {
+            // A node given by port alone is asked for its id
+            Map<String, Integer> ports = new LinkedHashMap<>();
+            for (String node : args[2].split(",")) {
+                int eq = node.indexOf('=');
+                int port = Integer.parseInt(node.substring(eq + 1).trim());
+                ports.put(eq > 0 ? node.substring(0, eq).trim() : nodeIdAt("localhost", port), port);
+            }
+
+            long start = System.nanoTime();
+            BulkLoader loader = new BulkLoader(ports.keySet(), replication, keyField, valueField);
+            Map<String, Path> files = loader.build(Paths.get(args[0]), Paths.get(args[1]));
+            System.out.printf("Built %d files from %d records in %d ms%n",
+                files.size(), loader.getRecordsRead(), (System.nanoTime() - start) / 1_000_000);
+            for (Map.Entry<String, Path> file : files.entrySet()) {
+                if (attach) {
+                    Response response = attach("localhost", ports.get(file.getKey()), file.getValue());
+                    System.out.println(file.getKey() + ": " + response.getMessage());
+                    if (response.isSuccess()) {
+                        Files.delete(file.getValue());
+                    }
+                } else {
+                    System.out.println(file.getKey() + ": " + file.getValue());
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Bulk load failed: " + e.getMessage());
+        }
+    }
+}
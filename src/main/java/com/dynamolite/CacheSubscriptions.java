@@ -0,0 +1,65 @@
+package com.dynamolite;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * CacheSubscriptions is the replica side of coordinator read caching: it
+ * remembers which coordinators read a key into their ReadCache, so they can be
+ * told when the key changes.
+ *
+ * A subscription is used at most once (a write hands the subscribers over and
+ * forgets them; the coordinators subscribe again on their next read) and lapses
+ * after SUBSCRIPTION_TTL_MS, by which time the cached entry has passed its
+ * staleness bound anyway.
+ */
+public class CacheSubscriptions {
+    static final long SUBSCRIPTION_TTL_MS = 60_000;
+
+    // Key -> subscribed node -> time of subscription
+    private final Map<String, Map<String, Long>> subscribers = new ConcurrentHashMap<>();
+
+    /**
+     * Records that the node cached the key.
+     */
+    public void subscribe(String key, String nodeId) {
+        subscribers.computeIfAbsent(key, k -> new ConcurrentHashMap<>()).put(nodeId, System.currentTimeMillis());
+    }
+
+    /**
+     * Removes and returns the nodes to tell about a change to the key.
+     */
+    public Set<String> take(String key) {
+        Map<String, Long> nodes = subscribers.remove(key);
+        if (nodes == null) {
+            return Collections.emptySet();
+        }
+        long cutoff = System.currentTimeMillis() - SUBSCRIPTION_TTL_MS;
+        nodes.values().removeIf(subscribedAt -> subscribedAt < cutoff);
+        return nodes.keySet();
+    }
+
+    /**
+     * Forgets lapsed subscriptions. Returns the number of keys dropped.
+     */
+    public int purgeExpired() {
+        long cutoff = System.currentTimeMillis() - SUBSCRIPTION_TTL_MS;
+        int purged = 0;
+        for (Map.Entry<String, Map<String, Long>> entry : subscribers.entrySet()) {
+            entry.getValue().values().removeIf(subscribedAt -> subscribedAt < cutoff);
+            if (entry.getValue().isEmpty() && subscribers.remove(entry.getKey(), entry.getValue())) {
+                purged++;
+            }
+        }
+        return purged;
+    }
+
+    /**
+     * Returns the number of keys with subscribers
+     */
+    public int size() {
+        return subscribers.size();
+    }
+}
@@ -0,0 +1,278 @@
+package com.dynamolite;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.LongConsumer;
+
+/**
+ * ChangeLog records every change to a node's storage, in order, for the change
+ * feed: consumers read it from an offset of their choosing and resume from the
+ * offset after the last change they processed.
+ *
+ * The log keeps the most recent {@code capacity} changes in a ring. Appending
+ * never waits for consumers: a consumer that falls further behind than that
+ * finds its offset gone (see {@link #getFirstOffset()}) and has to re-read the
+ * data before following the feed again.
+ *
+ * Offsets only ever grow, across restarts and crashes too. Before handing out
+ * an offset past the last reservation, the log has the reserver durably
+ * record a new limit RESERVE_BLOCK offsets further on, and a restarted log
+ * starts from the recorded limit. A crash can therefore skip offsets but
+ * never reuse one, so a consumer can not mistake a new change for one it
+ * has already processed. {@link #release()} records the exact next offset
+ * on a clean shutdown, so consumers that were caught up resume seamlessly.
+ *
+ * Reserving writes to disk, which writers must not wait for: they append
+ * while their key is locked. Once half of the reserved block is used, the log
+ * asks for the next block to be reserved ahead of time, and the owner
+ * (Storage, on an I/O thread) calls {@link #reserveAhead()}. An append only
+ * reserves by itself, and waits for the disk, if the disk has fallen a whole
+ * block behind.
+ *
+ * Changes are appended while their key is locked, so the changes to one key
+ * appear in the order they were applied. Appending takes no lock shared
+ * between keys: the offset comes from a counter and the change is published into
+ * its ring slot, so writers to different storage shards do not serialize
+ * here. A reader stops at the first offset whose change is not published
+ * yet, and readers waiting for changes are only woken when there are some.
+ */
+public class ChangeLog {
+    static final int DEFAULT_CAPACITY = 65_536;
+    static final long RESERVE_BLOCK = 4096;
+
+    private final AtomicReferenceArray<Change> ring;
+    // Offset of the first change of this run; earlier ones were never held here
+    private final long startOffset;
+    private final AtomicLong nextOffset;
+    private final LongConsumer reserver;
+    // Offsets below this one are covered by the last reservation
+    private volatile long reservedUpTo;
+    private final Object reserveLock = new Object();
+    // Asks for reserveAhead() to be called; null to reserve only when needed
+    private final Runnable reservationRequester;
+    private final AtomicBoolean reservationRequested = new AtomicBoolean();
+    // Readers waiting in read() for a change to be published
+    private final AtomicInteger waiters = new AtomicInteger();
+
+    /**
+     * Creates a log that keeps its offsets in memory only
+     */
+    public ChangeLog(int capacity, long startOffset) {
+        this(capacity, startOffset, null, null);
+    }
+
+    /**
+     * Creates a log that has the reserver durably record the limit below which
+     * offsets may have been handed out, before handing out any offset at or
+     * past the previous limit. The requester, if any, is run when the next
+     * block should be reserved ahead of time; it must arrange for
+     * {@link #reserveAhead()} to be called, off the appending thread.
+     */
+    public ChangeLog(int capacity, long startOffset, LongConsumer reserver, Runnable reservationRequester) {
+        this.ring = new AtomicReferenceArray<>(capacity);
+        this.startOffset = startOffset;
+        this.nextOffset = new AtomicLong(startOffset);
+        this.reserver = reserver;
+        this.reservedUpTo = reserver == null ? Long.MAX_VALUE : startOffset;
+        this.reservationRequester = reservationRequester;
+    }
+
+    /**
+     * Records the new state of the key (null if it was removed outright) and
+     * returns the change's offset.
+     */
+    public long append(String key, Storage.Value value) {
+        long offset = nextOffset.getAndIncrement();
+        long reserved = reservedUpTo;
+        if (offset >= reserved - RESERVE_BLOCK / 2 && reservationRequester != null
+                && reservationRequested.compareAndSet(false, true)) {
+            reservationRequester.run();
+        }
+        if (offset >= reserved) {
+            reserve(offset); // the reservation ahead did not keep up
+        }
+        Change change = new Change(offset, key, value, System.currentTimeMillis());
+        int slot = slot(offset);
+        // Never replace a newer change, should a writer a whole ring behind publish late
+        Change held = ring.get(slot);
+        while ((held == null || held.offset < offset) && !ring.compareAndSet(slot, held, change)) {
+            held = ring.get(slot);
+        }
+        if (waiters.get() > 0) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+        return offset;
+    }
+
+    private void reserve(long offset) {
+        synchronized (reserveLock) {
+            if (offset >= reservedUpTo) {
+                long limit = offset + RESERVE_BLOCK;
+                reserver.accept(limit);
+                reservedUpTo = limit;
+            }
+        }
+    }
+
+    /**
+     * Reserves the block after the offsets handed out or reserved so far.
+     * Called ahead of need, so appends do not wait for the disk.
+     */
+    public void reserveAhead() {
+        if (reserver == null) {
+            return;
+        }
+        synchronized (reserveLock) {
+            reservationRequested.set(false);
+            long limit = Math.max(reservedUpTo, nextOffset.get()) + RESERVE_BLOCK;
+            reserver.accept(limit);
+            reservedUpTo = limit;
+        }
+    }
+
+    /**
+     * Has the reserver record the exact next offset, for a clean shutdown.
+     * Offsets handed out later are reserved again.
+     */
+    public void release() {
+        if (reserver != null) {
+            synchronized (reserveLock) {
+                long next = nextOffset.get();
+                reserver.accept(next);
+                reservedUpTo = next;
+            }
+        }
+    }
+
+    /**
+     * Returns up to {@code max} changes from {@code fromOffset} on, waiting up
+     * to {@code waitMs} for one if there are none yet. Returns null if the log
+     * no longer holds {@code fromOffset}.
+     */
+    public List<Change> read(long fromOffset, int max, long waitMs) throws InterruptedException {
+        if (waitMs > 0 && !ready(fromOffset)) {
+            await(fromOffset, waitMs);
+        }
+        if (fromOffset < getFirstOffset()) {
+            return null;
+        }
+        List<Change> changes = new ArrayList<>();
+        for (long offset = fromOffset; changes.size() < max; offset++) {
+            Change change = ring.get(slot(offset));
+            if (change == null || change.offset != offset) {
+                break; // not published yet, or overwritten meanwhile
+            }
+            changes.add(change);
+        }
+        if (changes.isEmpty() && fromOffset < getFirstOffset()) {
+            return null;
+        }
+        return changes;
+    }
+
+    private void await(long offset, long waitMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + waitMs;
+        synchronized (this) {
+            // Counted before checking again, so an append either sees the count or is seen here
+            waiters.incrementAndGet();
+            try {
+                long remaining = waitMs;
+                while (!ready(offset) && remaining > 0) {
+                    wait(remaining);
+                    remaining = deadline - System.currentTimeMillis();
+                }
+            } finally {
+                waiters.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Returns true if a read from the offset need not wait: the change at the
+     * offset, or a later one in its slot, has been published, or the offset
+     * is already gone
+     */
+    private boolean ready(long offset) {
+        if (offset < getFirstOffset()) {
+            return true;
+        }
+        Change change = ring.get(slot(offset));
+        return change != null && change.offset >= offset;
+    }
+
+    private int slot(long offset) {
+        return (int) (offset % ring.length());
+    }
+
+    /**
+     * Returns the oldest offset still held
+     */
+    public long getFirstOffset() {
+        return Math.max(startOffset, nextOffset.get() - ring.length());
+    }
+
+    /**
+     * Returns the offset the next change will get
+     */
+    public long getNextOffset() {
+        return nextOffset.get();
+    }
+
+    /**
+     * One change to a key: its new value with its version, a tombstone for a
+     * delete, or no value at all when the key was removed outright (purged or
+     * expired).
+     */
+    public static class Change implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final long offset;
+        private final String key;
+        private final Storage.Value value;
+        private final long timestamp;
+
+        Change(long offset, String key, Storage.Value value, long timestamp) {
+            this.offset = offset;
+            this.key = key;
+            this.value = value;
+            this.timestamp = timestamp;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * Returns the key's new value, or null if it was removed outright
+         */
+        public Storage.Value getValue() {
+            return value;
+        }
+
+        /**
+         * Returns true if the change deleted the key
+         */
+        public boolean isDelete() {
+            return value == null || value.isTombstone();
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        @Override
+        public String toString() {
+            return offset + ":" + (isDelete() ? "DELETE " : "PUT ") + key;
+        }
+    }
+}
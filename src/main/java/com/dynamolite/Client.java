@@ -3,33 +3,77 @@ package com.dynamolite;
 import java.io.*;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Scanner;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Client provides a command-line interface to interact with the distributed system.
+ *
+ * A client can keep a near cache of the values it reads (see
+ * {@link #withNearCache}): repeated GETs of a key are then answered locally
+ * until the node pushes an invalidation for it, or the staleness bound passes.
+ * With the near cache on, a reader thread takes everything the node sends and
+ * sorts the pushed invalidations from the responses.
  */
 public class Client implements AutoCloseable {
     private static final Logger logger = LoggerFactory.getLogger(Client.class);
+    private static final long REQUEST_TIMEOUT_MS = 15000;
+    // Handed to a waiting request when the reader thread loses the connection
+    private static final Response CONNECTION_LOST = new Response(Response.Status.ERROR, "Connection lost");
     private final String host;
     private final int port;
     private Socket socket;
     private ObjectOutputStream out;
     private ObjectInputStream in;
+    private ReadCache nearCache;
+    private final BlockingQueue<Response> responses = new LinkedBlockingQueue<>();
+    private final AtomicLong invalidationsReceived = new AtomicLong();
 
     public Client(String host, int port) {
         this.host = host;
         this.port = port;
     }
 
+    /**
+     * Turns on the near cache, bounded to about {@code maxBytes} of cached
+     * values, serving no value older than {@code maxStalenessMs} (at most
+     * 60 seconds). Must be called before {@link #connect()}.
+     */
+    public Client withNearCache(long maxBytes, long maxStalenessMs) {
+        if (maxStalenessMs <= 0 || maxStalenessMs > CacheSubscriptions.SUBSCRIPTION_TTL_MS) {
+            throw new IllegalArgumentException(
+                "Staleness bound must be in (0, " + CacheSubscriptions.SUBSCRIPTION_TTL_MS + "] ms");
+        }
+        this.nearCache = new ReadCache(maxBytes, maxStalenessMs);
+        return this;
+    }
+
     public void connect() throws IOException {
         try {
             socket = new Socket(host, port);
-            socket.setSoTimeout(15000);
+            // With a near cache the reader thread waits for pushes indefinitely;
+            // requests time out on the response queue instead
+            socket.setSoTimeout(nearCache == null ? (int) REQUEST_TIMEOUT_MS : 0);
+            socket.setTcpNoDelay(true);
             out = new ObjectOutputStream(socket.getOutputStream());
             out.flush();
             in = new ObjectInputStream(socket.getInputStream());
+            if (nearCache != null) {
+                Thread reader = new Thread(this::readResponses, "near-cache-reader-" + host + ":" + port);
+                reader.setDaemon(true);
+                reader.start();
+            }
             logger.info("Connected to server at {}:{}", host, port);
         } catch (IOException e) {
             logger.error("Error connecting to server: {}", e.getMessage());
@@ -38,15 +82,196 @@ public class Client implements AutoCloseable {
     }
 
     public Response sendRequest(Request request) throws IOException {
+        ReadCache cache = nearCache;
+        if (cache == null) {
+            return exchange(request);
+        }
+        String key = request.getKey();
+        // Reads that ask for a specific consistency skip the near cache
+        boolean cacheable = request.getType() == Request.Type.GET && key != null
+            && request.getConsistency() == null && request.getReadQuorum() == 0;
+        if (!cacheable) {
+            Response response = exchange(request);
+            if (key != null && request.getType() != Request.Type.GET) {
+                // Our own write: don't wait for the push to drop the old value
+                cache.invalidate(key);
+            }
+            return response;
+        }
+
+        List<Storage.Value> cached = cache.get(key, 1);
+        if (cached != null) {
+            return cached.isEmpty()
+                ? new Response(Response.Status.NOT_FOUND, "Key not found")
+                : new Response(Response.Status.SUCCESS, cached.get(0).getData(), cached.get(0));
+        }
+        long ticket = cache.startRead();
+        Response response = exchange(request.withNearCache());
+        if (response.isSuccess() && response.getValue() != null) {
+            cache.put(key, Collections.singletonList(response.getValue()), 1, ticket);
+        } else if (response.getStatus() == Response.Status.NOT_FOUND) {
+            cache.put(key, Collections.emptyList(), 1, ticket);
+        }
+        return response;
+    }
+
+    private synchronized Response exchange(Request request) throws IOException {
         try {
             out.writeObject(request);
             out.flush();
-            return (Response) in.readObject();
+            if (nearCache == null) {
+                return (Response) in.readObject();
+            }
+            Response response = responses.poll(REQUEST_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            if (response == null) {
+                throw new SocketTimeoutException();
+            }
+            if (response == CONNECTION_LOST) {
+                responses.offer(CONNECTION_LOST);
+                throw new IOException("Connection to server lost");
+            }
+            return response;
         } catch (SocketTimeoutException e) {
             logger.error("Request timeout after 15 seconds");
             throw new IOException("Request timeout after 15 seconds", e);
         } catch (ClassNotFoundException e) {
             throw new IOException("Error deserializing response", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a response", e);
+        }
+    }
+
+    /**
+     * Near cache reader thread: applies pushed invalidations and queues the
+     * responses for the requests waiting on them.
+     */
+    private void readResponses() {
+        try {
+            while (true) {
+                Response response = (Response) in.readObject();
+                if (response.getStatus() == Response.Status.INVALIDATED) {
+                    invalidationsReceived.incrementAndGet();
+                    nearCache.invalidate(response.getMessage());
+                } else {
+                    responses.add(response);
+                }
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            responses.add(CONNECTION_LOST);
+        }
+    }
+
+    /**
+     * Returns the number of GETs answered from the near cache
+     */
+    public long getNearCacheHits() {
+        return nearCache != null ? nearCache.getHits() : 0;
+    }
+
+    /**
+     * Returns the number of invalidations the node has pushed to this client
+     */
+    public long getInvalidationsReceived() {
+        return invalidationsReceived.get();
+    }
+
+    /**
+     * Streams the entries with keys in [startKey, endKey) in key order, fetching
+     * one page of {@code pageSize} entries at a time, so only the current page is
+     * held in memory. I/O errors surface as {@link UncheckedIOException}.
+     */
+    public Iterator<Map.Entry<String, String>> scan(String startKey, String endKey, int pageSize) {
+        return new ScanIterator(startKey, endKey, pageSize);
+    }
+
+    private class ScanIterator implements Iterator<Map.Entry<String, String>> {
+        private final String endKey;
+        private final int pageSize;
+        private String nextStart;
+        private boolean exhausted;
+        private Iterator<Map.Entry<String, Storage.Value>> page = Collections.emptyIterator();
+
+        ScanIterator(String startKey, String endKey, int pageSize) {
+            this.nextStart = startKey;
+            this.endKey = endKey;
+            this.pageSize = pageSize;
+        }
+
+        @Override
+        public boolean hasNext() {
+            // A page can be empty (e.g. all tombstones) and still have a continuation
+            while (!page.hasNext() && !exhausted) {
+                Response response;
+                try {
+                    response = sendRequest(Request.scan(nextStart, endKey, pageSize));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                if (!response.isSuccess()) {
+                    throw new UncheckedIOException(new IOException("Scan failed: " + response.getMessage()));
+                }
+                page = response.getEntries().entrySet().iterator();
+                nextStart = response.getContinuationToken();
+                exhausted = nextStart == null;
+            }
+            return page.hasNext();
+        }
+
+        @Override
+        public Map.Entry<String, String> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<String, Storage.Value> entry = page.next();
+            return new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue().getData());
+        }
+    }
+
+    /**
+     * Follows the node's change feed from {@code fromOffset} (negative for the
+     * oldest change it holds), fetching up to {@code batchSize} changes at a
+     * time. {@code hasNext()} waits for the next change, however long that
+     * takes; resume later from the offset after the last change processed. A
+     * feed that has moved past the offset, and I/O errors, surface as
+     * {@link UncheckedIOException}.
+     */
+    public Iterator<ChangeLog.Change> followChanges(long fromOffset, int batchSize) {
+        return new ChangeIterator(fromOffset, batchSize);
+    }
+
+    private class ChangeIterator implements Iterator<ChangeLog.Change> {
+        private final int batchSize;
+        private long nextOffset;
+        private Iterator<ChangeLog.Change> batch = Collections.emptyIterator();
+
+        ChangeIterator(long fromOffset, int batchSize) {
+            this.nextOffset = fromOffset;
+            this.batchSize = batchSize;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!batch.hasNext()) {
+                Response response;
+                try {
+                    response = sendRequest(Request.changes(nextOffset, batchSize, Node.MAX_CHANGES_WAIT_MS));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                if (!response.isSuccess()) {
+                    throw new UncheckedIOException(new IOException("Change feed failed: " + response.getMessage()));
+                }
+                batch = response.getChanges().iterator();
+                nextOffset = response.getNextOffset();
+            }
+            return true;
+        }
+
+        @Override
+        public ChangeLog.Change next() {
+            hasNext();
+            return batch.next();
         }
     }
 
@@ -76,7 +301,7 @@ public class Client implements AutoCloseable {
             client.connect();
 
             while (true) {
-                System.out.print("Enter command (PUT/GET/DELETE/QUIT): ");
+                System.out.print("Enter command (PUT/GET/DELETE/SCAN/STATS/TOPKEYS/QUIT): ");
                 String command = scanner.nextLine().toUpperCase();
 
                 if (command.equals("QUIT")) {
@@ -90,7 +315,13 @@ public class Client implements AutoCloseable {
                             String putKey = scanner.nextLine();
                             System.out.print("Enter value: ");
                             String value = scanner.nextLine();
-                            Response putResponse = client.sendRequest(new Request(Request.Type.PUT, putKey, value));
+                            System.out.print("Enter TTL in ms (blank for none): ");
+                            String ttl = scanner.nextLine().trim();
+                            Request putRequest = new Request(Request.Type.PUT, putKey, value);
+                            if (!ttl.isEmpty()) {
+                                putRequest.withTtl(Long.parseLong(ttl));
+                            }
+                            Response putResponse = client.sendRequest(putRequest);
                             System.out.println("Response: " + putResponse.getMessage());
                             break;
 
@@ -108,10 +339,33 @@ public class Client implements AutoCloseable {
                             System.out.println("Response: " + deleteResponse.getMessage());
                             break;
 
+                        case "SCAN":
+                            System.out.print("Enter start key (blank for first): ");
+                            String startKey = scanner.nextLine();
+                            System.out.print("Enter end key (blank for last): ");
+                            String endKey = scanner.nextLine();
+                            Iterator<Map.Entry<String, String>> entries = client.scan(
+                                startKey.isEmpty() ? null : startKey, endKey.isEmpty() ? null : endKey, 100);
+                            while (entries.hasNext()) {
+                                Map.Entry<String, String> entry = entries.next();
+                                System.out.println(entry.getKey() + " = " + entry.getValue());
+                            }
+                            break;
+
+                        case "STATS":
+                            Response statsResponse = client.sendRequest(new Request(Request.Type.STATS, null, null));
+                            System.out.println("Response: " + statsResponse.getMessage());
+                            break;
+
+                        case "TOPKEYS":
+                            Response topKeysResponse = client.sendRequest(new Request(Request.Type.TOP_KEYS, null, null));
+                            System.out.println("Response: " + topKeysResponse.getMessage());
+                            break;
+
                         default:
                             System.out.println("Unknown command");
                     }
-                } catch (IOException e) {
+                } catch (IOException | UncheckedIOException | NumberFormatException e) {
                     logger.error("Error sending request: {}", e.getMessage());
                 }
             }
@@ -74,7 +74,13 @@ public class ConsistentHashRing {
             throw new IllegalArgumentException("Requested more nodes than available");
         }
 
-        long hash = hash(key);
+        return preferenceList(hash(key), n);
+    }
+
+    /**
+     * Returns the first n distinct nodes clockwise from the given position.
+     */
+    private List<String> preferenceList(long hash, int n) {
         Set<String> nodes = new LinkedHashSet<>();
         NavigableMap<Long, String> tailMap = ring.tailMap(hash, true);
 
@@ -89,6 +95,47 @@ public class ConsistentHashRing {
         return nodes.stream().limit(n).collect(Collectors.toList());
     }
 
+    /**
+     * Returns a small set of nodes that together hold a replica of every token
+     * range, where each range is replicated on the next {@code replicas} distinct
+     * nodes clockwise. Range scans fan out to this set instead of every node.
+     * The preferred node (usually the coordinator itself) is picked first;
+     * excluded nodes (down or failed) are never picked.
+     *
+     * @throws IllegalStateException if some range has no replica outside the excluded set
+     */
+    public Set<String> getCoveringNodes(int replicas, String preferred, Set<String> excluded) {
+        int n = Math.min(replicas, size());
+        List<List<String>> uncovered = new ArrayList<>();
+        for (long position : ring.keySet()) {
+            uncovered.add(preferenceList(position, n));
+        }
+
+        Set<String> chosen = new LinkedHashSet<>();
+        if (preferred != null && nodeToVirtualNodes.containsKey(preferred) && !excluded.contains(preferred)) {
+            chosen.add(preferred);
+            uncovered.removeIf(owners -> owners.contains(preferred));
+        }
+        // Greedy set cover: repeatedly take the node holding the most uncovered ranges
+        while (!uncovered.isEmpty()) {
+            Map<String, Integer> coverage = new HashMap<>();
+            for (List<String> owners : uncovered) {
+                for (String owner : owners) {
+                    if (!excluded.contains(owner)) {
+                        coverage.merge(owner, 1, Integer::sum);
+                    }
+                }
+            }
+            if (coverage.isEmpty()) {
+                throw new IllegalStateException("No available replica for some token ranges");
+            }
+            String best = Collections.max(coverage.entrySet(), Map.Entry.comparingByValue()).getKey();
+            chosen.add(best);
+            uncovered.removeIf(owners -> owners.contains(best));
+        }
+        return chosen;
+    }
+
     /**
      * MD5-based hash for uniform key distribution across the ring.
      * Falls back to hashCode() if MD5 is unavailable (should never happen on JVM).
@@ -116,6 +163,13 @@ public class ConsistentHashRing {
         return nodeToVirtualNodes.size();
     }
 
+    /**
+     * Returns true if the physical node is in the ring.
+     */
+    public boolean containsNode(String nodeId) {
+        return nodeToVirtualNodes.containsKey(nodeId);
+    }
+
     /**
      * Returns all physical nodes in the ring.
      */
@@ -0,0 +1,29 @@
+package com.dynamolite;
+
+import java.io.Serializable;
+
+/**
+ * Crdt is a replicated data type whose replicas converge by merging state.
+ * Merge must be commutative, associative and idempotent, so replicas can
+ * exchange state in any order, any number of times, without coordination.
+ * Implementations are immutable: operations and merges return new instances.
+ */
+public interface Crdt extends Serializable {
+
+    /**
+     * Returns the least upper bound of this state and another of the same type.
+     */
+    Crdt merge(Crdt other);
+
+    /**
+     * Returns the state left by deleting the value: empty to readers, but
+     * still at least as far along as this state, so merging this state (or
+     * any older one) into it changes nothing.
+     */
+    Crdt clear();
+
+    /**
+     * Returns the value as the string served by GET.
+     */
+    String render();
+}
@@ -1,52 +1,87 @@
 package com.dynamolite;
 
 import java.io.IOException;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Monitors node health via heartbeats and removes failed nodes from the ring.
+ * Monitors node health and runs the SWIM gossip protocol that keeps the
+ * cluster membership (and with it the ring) the same on every node.
  *
- * A node is marked failed if it has not responded to a heartbeat for longer
- * than FAILURE_THRESHOLD_MS. The clock starts on the first failed check for
- * that node — this ensures nodes that fail before their first successful
- * heartbeat are still eventually evicted.
+ * Each protocol period this node probes one member, chosen in a shuffled
+ * round-robin, so the probe traffic per node stays flat however large the
+ * cluster grows. A probe that goes unanswered is retried indirectly through
+ * up to INDIRECT_PROBES other members (PING_REQ), so one bad link does not get
+ * a healthy node suspected. A member failing both is marked SUSPECT, and DEAD
+ * if it does not refute the suspicion within the suspicion timeout. Status
+ * changes travel piggybacked on the probes themselves, plus a full push-pull
+ * exchange with a random member every PUSH_PULL_PERIODS periods.
+ *
+ * A phi-accrual detector, fed with every probe reply and (when piggybacking is
+ * on) every reply to replica traffic, picks out members that have gone quiet;
+ * they are probed straight away instead of waiting for their turn.
+ *
+ * Nodes this node holds hinted writes for are probed directly as long as they
+ * are not known alive, so the hints can be replayed as soon as they come back.
  */
 public class HealthMonitor {
     private static final Logger logger = LoggerFactory.getLogger(HealthMonitor.class);
     private static final long HEARTBEAT_INTERVAL_MS = 1000;
-    private static final long FAILURE_THRESHOLD_MS = 3000;
+    static final long PROBE_TIMEOUT_MS = 500;
+    private static final double PHI_THRESHOLD = 8.0;
+    private static final long MIN_STD_DEV_MS = 200;
+    private static final long ACCEPTABLE_PAUSE_MS = 1000;
+    private static final int PROBE_THREADS = 8;
+    static final int INDIRECT_PROBES = 3;
+    static final int MAX_PIGGYBACKED_UPDATES = 8;
+    static final int PUSH_PULL_PERIODS = 5;
+    // Suspicion lasts this long per log2 of the cluster size (at least two)
+    private static final long SUSPICION_PERIOD_MS = 1000;
 
     private final Node node;
-    private final ConsistentHashRing hashRing;
-
-    // Tracks the last successful heartbeat time for each peer node.
-    private final Map<String, Long> lastHeartbeat;
+    private final Membership membership;
+    private final PhiAccrualFailureDetector detector;
 
     // Tracks when we first noticed a node was unreachable.
     // Null entry means the node has been responding normally.
     private final Map<String, Long> firstFailureTime;
 
+    // Peers with a probe outstanding; a slow peer gets at most one at a time
+    private final Set<String> probing;
+    private final AtomicLong probesSent = new AtomicLong();
+    private final AtomicLong indirectProbesSent = new AtomicLong();
+    private final AtomicLong protocolPeriods = new AtomicLong();
+
     private volatile boolean running;
     private ScheduledExecutorService scheduler;
+    private ExecutorService probeExecutor;
     private ScheduledFuture<?> healthCheckTask;
 
-    public HealthMonitor(Node node, ConsistentHashRing hashRing) {
+    public HealthMonitor(Node node, Membership membership) {
         this.node = node;
-        this.hashRing = hashRing;
-        this.lastHeartbeat = new ConcurrentHashMap<>();
+        this.membership = membership;
+        this.detector = new PhiAccrualFailureDetector(
+            PHI_THRESHOLD, MIN_STD_DEV_MS, ACCEPTABLE_PAUSE_MS, HEARTBEAT_INTERVAL_MS);
         this.firstFailureTime = new ConcurrentHashMap<>();
+        this.probing = ConcurrentHashMap.newKeySet();
         this.running = true;
     }
 
     public void startHealthCheck() {
+        probeExecutor = Executors.newFixedThreadPool(PROBE_THREADS);
         scheduler = Executors.newSingleThreadScheduledExecutor();
         healthCheckTask = scheduler.scheduleAtFixedRate(
             this::checkHealth,
@@ -60,50 +95,186 @@ public class HealthMonitor {
         if (!running) {
             return;
         }
-        String currentNodeId = node.getNodeId();
-        Set<String> nodes = hashRing.getAllNodes();
-        for (String nodeId : nodes) {
-            if (nodeId.equals(currentNodeId)) {
-                continue;
+        long period = protocolPeriods.incrementAndGet();
+        long now = System.currentTimeMillis();
+        for (String nodeId : membership.expireSuspects(suspicionTimeoutMs())) {
+            logger.error("Node {} declared dead — removing from ring", nodeId);
+            detector.remove(nodeId);
+        }
+
+        Set<String> targets = new LinkedHashSet<>();
+        String next = membership.nextProbeTarget();
+        if (next != null) {
+            targets.add(next);
+        }
+        // Members that went quiet are checked now rather than on their turn
+        for (String nodeId : membership.getReachableMembers()) {
+            if (detector.hasHistory(nodeId) && !detector.isAvailable(nodeId, now)) {
+                targets.add(nodeId);
             }
+        }
+        for (String nodeId : node.getHintedNodes()) {
+            if (membership.getStatus(nodeId) != Membership.Status.ALIVE || firstFailureTime.containsKey(nodeId)) {
+                targets.add(nodeId);
+            } else {
+                node.onPeerAvailable(nodeId);
+            }
+        }
+        for (String nodeId : targets) {
+            submit(nodeId, () -> probe(nodeId));
+        }
+
+        if (period % PUSH_PULL_PERIODS == 0) {
+            List<String> peers = membership.getReachableMembers();
+            if (!peers.isEmpty()) {
+                String peer = peers.get(ThreadLocalRandom.current().nextInt(peers.size()));
+                submit(peer, () -> pushPull(peer));
+            }
+        }
+    }
+
+    private void submit(String nodeId, Runnable task) {
+        if (!probing.add(nodeId)) {
+            return;
+        }
+        try {
+            probeExecutor.submit(() -> {
+                try {
+                    task.run();
+                } finally {
+                    probing.remove(nodeId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            probing.remove(nodeId);
+        }
+    }
+
+    private void probe(String nodeId) {
+        probesSent.incrementAndGet();
+        if (ping(nodeId)) {
+            return;
+        }
+        for (String helper : membership.randomHelpers(nodeId, INDIRECT_PROBES)) {
+            indirectProbesSent.incrementAndGet();
             try {
-                NodeConnection connection = node.getConnection(nodeId);
-                if (connection == null) {
-                    recordFailure(nodeId);
-                    continue;
+                NodeConnection connection = node.getConnection(helper, AdmissionController.TrafficClass.CONTROL);
+                if (connection != null) {
+                    Response response = connection.sendRequest(new Request(Request.Type.PING_REQ, nodeId, null)
+                        .withMembers(membership.updatesToSend(MAX_PIGGYBACKED_UPDATES)));
+                    membership.merge(response.getMembers());
+                    if (response.isSuccess()) {
+                        recordHeartbeat(nodeId);
+                        return;
+                    }
                 }
-                connection.sendRequest(new Request(Request.Type.HEARTBEAT, null, null));
-                // Heartbeat succeeded — update last seen and clear any failure record
-                lastHeartbeat.put(nodeId, System.currentTimeMillis());
-                firstFailureTime.remove(nodeId);
             } catch (IOException e) {
-                recordFailure(nodeId);
+                // Helper unreachable too; try the next one
             }
         }
+        recordFailure(nodeId);
     }
 
     /**
-     * Records a failed heartbeat attempt for the given node.
-     * On the first failure, we start the failure clock.
-     * Once the clock exceeds FAILURE_THRESHOLD_MS, the node is evicted.
+     * Sends one heartbeat to the node, carrying and collecting gossip. Returns
+     * true if it answered. Also serves PING_REQ on behalf of other members.
      */
-    private void recordFailure(String nodeId) {
-        long now = System.currentTimeMillis();
-        // Start the failure clock if this is the first missed heartbeat
-        firstFailureTime.putIfAbsent(nodeId, now);
-        long failingSince = firstFailureTime.get(nodeId);
-        if (now - failingSince > FAILURE_THRESHOLD_MS) {
-            handleNodeFailure(nodeId);
+    boolean ping(String nodeId) {
+        try {
+            NodeConnection connection = node.getConnection(nodeId, AdmissionController.TrafficClass.CONTROL);
+            if (connection == null) {
+                return false;
+            }
+            Response response = connection.sendRequest(new Request(Request.Type.HEARTBEAT, null, null)
+                .withMembers(membership.updatesToSend(MAX_PIGGYBACKED_UPDATES)));
+            membership.merge(response.getMembers());
+            recordHeartbeat(nodeId);
+            node.onPeerAvailable(nodeId);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Exchanges full membership views with a member, to catch up on anything
+     * the piggybacked updates missed.
+     */
+    private void pushPull(String nodeId) {
+        try {
+            NodeConnection connection = node.getConnection(nodeId, AdmissionController.TrafficClass.CONTROL);
+            if (connection != null) {
+                Response response = connection.sendRequest(
+                    new Request(Request.Type.GOSSIP, null, null).withMembers(membership.snapshot()));
+                membership.merge(response.getMembers());
+                recordHeartbeat(nodeId);
+            }
+        } catch (IOException e) {
+            logger.debug("Push-pull with node {} failed: {}", nodeId, e.getMessage());
         }
     }
 
-    private void handleNodeFailure(String nodeId) {
-        logger.error("Node {} detected as failed — removing from ring", nodeId);
-        hashRing.removeNode(nodeId);
-        lastHeartbeat.remove(nodeId);
+    /**
+     * Records a sign of life from the peer — a heartbeat reply, or any reply to
+     * replica traffic when liveness is piggybacked — and clears its failure record.
+     */
+    public void recordHeartbeat(String nodeId) {
+        detector.heartbeat(nodeId, System.currentTimeMillis());
         firstFailureTime.remove(nodeId);
     }
 
+    /**
+     * Records a failed probe, direct and indirect, of the given node: it is
+     * suspected locally at once and marked SUSPECT in the gossiped membership.
+     */
+    private void recordFailure(String nodeId) {
+        firstFailureTime.putIfAbsent(nodeId, System.currentTimeMillis());
+        membership.suspect(nodeId);
+    }
+
+    private long suspicionTimeoutMs() {
+        int size = Math.max(membership.getReachableMembers().size() + 1, 2);
+        return SUSPICION_PERIOD_MS * Math.max(2, 32 - Integer.numberOfLeadingZeros(size - 1));
+    }
+
+    /**
+     * Returns the number of direct heartbeat probes sent since startup
+     */
+    public long getProbesSent() {
+        return probesSent.get();
+    }
+
+    /**
+     * Returns the number of indirect (PING_REQ) probes sent since startup
+     */
+    public long getIndirectProbesSent() {
+        return indirectProbesSent.get();
+    }
+
+    /**
+     * Returns the number of protocol periods run since startup
+     */
+    public long getProtocolPeriods() {
+        return protocolPeriods.get();
+    }
+
+    /**
+     * Returns the current phi of a peer, 0 if it has never been heard from.
+     */
+    public double getPhi(String nodeId) {
+        return detector.phi(nodeId, System.currentTimeMillis());
+    }
+
+    /**
+     * Returns true if the node has failed its most recent probe or is suspected
+     * by the cluster. Coordinators skip suspected replicas and hand their writes
+     * off instead of waiting on them.
+     */
+    public boolean isSuspected(String nodeId) {
+        return firstFailureTime.containsKey(nodeId)
+            || membership.getStatus(nodeId) == Membership.Status.SUSPECT;
+    }
+
     public void setRunning(boolean running) {
         this.running = running;
     }
@@ -113,6 +284,9 @@ public class HealthMonitor {
         if (healthCheckTask != null) {
             healthCheckTask.cancel(false);
         }
+        if (probeExecutor != null) {
+            probeExecutor.shutdownNow();
+        }
         if (scheduler != null) {
             scheduler.shutdown();
             try {
@@ -123,4 +297,4 @@ public class HealthMonitor {
             }
         }
     }
-}
\ No newline at end of file
+}
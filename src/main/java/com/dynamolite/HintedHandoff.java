@@ -0,0 +1,285 @@
+package com.dynamolite;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * HintedHandoff holds writes accepted on behalf of an unreachable replica
+ * (sloppy quorum) and replays them once that replica answers heartbeats again.
+ *
+ * Hints are queued per intended owner and persisted to one file per owner under
+ * {@code <dataDir>/hints}, so a restart of the holding node does not lose them.
+ * Saving happens off the request path, on a PersistenceQueue thread: a burst
+ * of hints for one owner costs one rewrite of its file, not one per hint. A
+ * file is written under a temporary name and renamed into place, so a crash
+ * mid-save leaves the previous file intact. Hints not yet saved are lost if
+ * the process dies; {@link #close()} saves them.
+ *
+ * Each owner's queue is bounded (see {@link #setMaxHintsPerOwner(int)}): once
+ * full, further hints for that owner are refused and counted as dropped, and
+ * the replica is left to read repair. A refused hint does not count towards
+ * a write's quorum.
+ */
+public class HintedHandoff {
+    private static final Logger logger = LoggerFactory.getLogger(HintedHandoff.class);
+    static final int REPLAY_BATCH_SIZE = 100;
+    static final int DEFAULT_MAX_HINTS_PER_OWNER = 100_000;
+    private static final String HINT_DIR = "hints";
+    private static final String HINT_FILE_SUFFIX = ".hints";
+
+    private final File hintDir;
+    private final Map<String, Deque<Hint>> hints;
+    // Owners whose hints are currently being replayed; at most one replay per owner.
+    private final Set<String> replaying;
+    private volatile boolean persistenceEnabled = true;
+    private volatile int maxHintsPerOwner = DEFAULT_MAX_HINTS_PER_OWNER;
+    private final AtomicLong droppedHints = new AtomicLong();
+    private final PersistenceQueue<String> persistenceQueue;
+
+    public HintedHandoff(String dataDir) {
+        this.hintDir = new File(dataDir, HINT_DIR);
+        this.hints = new ConcurrentHashMap<>();
+        this.replaying = ConcurrentHashMap.newKeySet();
+        this.persistenceQueue = new PersistenceQueue<>("hint-flusher", this::saveHints);
+        if (!hintDir.exists()) {
+            hintDir.mkdirs();
+        }
+        loadHints();
+    }
+
+    /**
+     * Enable or disable disk persistence (useful for testing)
+     */
+    public void setPersistenceEnabled(boolean enabled) {
+        this.persistenceEnabled = enabled;
+    }
+
+    /**
+     * Sets how many hints are held for one owner before further ones are dropped
+     */
+    public void setMaxHintsPerOwner(int maxHints) {
+        if (maxHints < 1) {
+            throw new IllegalArgumentException("Hint limit must be at least 1");
+        }
+        this.maxHintsPerOwner = maxHints;
+    }
+
+    /**
+     * Queues a write for the given owner and schedules a save of the owner's
+     * queue. Returns false, dropping the hint, if the owner's queue is full.
+     */
+    public boolean addHint(String owner, String key, Storage.Value value) {
+        Deque<Hint> queue = hints.computeIfAbsent(owner, id -> new ArrayDeque<>());
+        synchronized (queue) {
+            if (queue.size() >= maxHintsPerOwner) {
+                if (droppedHints.getAndIncrement() % 1000 == 0) {
+                    logger.warn("Hint queue for node {} is full ({} hints); dropping hints", owner, queue.size());
+                }
+                return false;
+            }
+            queue.addLast(new Hint(key, value));
+        }
+        scheduleSave(owner);
+        return true;
+    }
+
+    /**
+     * Returns the number of hints refused because their owner's queue was full
+     */
+    public long getDroppedHints() {
+        return droppedHints.get();
+    }
+
+    /**
+     * Saves every queue with unsaved changes and stops the save thread. Later
+     * changes are saved on the caller's thread.
+     */
+    public void close() {
+        persistenceQueue.close();
+    }
+
+    /**
+     * Returns the number of hints waiting to be delivered to the given owner.
+     */
+    public int pendingHints(String owner) {
+        Deque<Hint> queue = hints.get(owner);
+        if (queue == null) {
+            return 0;
+        }
+        synchronized (queue) {
+            return queue.size();
+        }
+    }
+
+    /**
+     * Returns the total number of hints held for all owners.
+     */
+    public int totalPendingHints() {
+        int total = 0;
+        for (String owner : hints.keySet()) {
+            total += pendingHints(owner);
+        }
+        return total;
+    }
+
+    /**
+     * Returns the owners that currently have undelivered hints.
+     */
+    public Set<String> getHintedNodes() {
+        Set<String> owners = new HashSet<>();
+        for (String owner : hints.keySet()) {
+            if (pendingHints(owner) > 0) {
+                owners.add(owner);
+            }
+        }
+        return owners;
+    }
+
+    /**
+     * Replays the owner's hints over the given connection in batches of
+     * REPLAY_BATCH_SIZE. Delivered hints are dropped and the queue is persisted
+     * after every batch, so an interrupted replay resumes where it stopped.
+     * Returns the number of hints delivered, or 0 if a replay for this owner is
+     * already in progress.
+     */
+    public int replay(String owner, NodeConnection connection) throws IOException {
+        Deque<Hint> queue = hints.get(owner);
+        if (queue == null || !replaying.add(owner)) {
+            return 0;
+        }
+        int delivered = 0;
+        try {
+            while (true) {
+                List<Hint> batch = new ArrayList<>(REPLAY_BATCH_SIZE);
+                synchronized (queue) {
+                    for (Hint hint : queue) {
+                        if (batch.size() == REPLAY_BATCH_SIZE) {
+                            break;
+                        }
+                        batch.add(hint);
+                    }
+                }
+                if (batch.isEmpty()) {
+                    break;
+                }
+
+                int sent = 0;
+                try {
+                    for (Hint hint : batch) {
+                        Response r = connection.sendRequest(hint.toRequest());
+                        if (!r.isSuccess()) {
+                            break;
+                        }
+                        sent++;
+                    }
+                } finally {
+                    // New hints are only appended, so the delivered ones are still at the head
+                    if (sent > 0) {
+                        synchronized (queue) {
+                            for (int i = 0; i < sent; i++) {
+                                queue.pollFirst();
+                            }
+                        }
+                        scheduleSave(owner);
+                        delivered += sent;
+                    }
+                }
+                if (sent < batch.size()) {
+                    break;
+                }
+            }
+        } finally {
+            replaying.remove(owner);
+        }
+        return delivered;
+    }
+
+    /**
+     * Loads all persisted hint queues from disk
+     */
+    @SuppressWarnings("unchecked")
+    private void loadHints() {
+        File[] files = hintDir.listFiles((dir, name) -> name.endsWith(HINT_FILE_SUFFIX));
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String owner = file.getName().substring(0, file.getName().length() - HINT_FILE_SUFFIX.length());
+            try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file))) {
+                List<Hint> loaded = (List<Hint>) ois.readObject();
+                if (!loaded.isEmpty()) {
+                    hints.put(owner, new ArrayDeque<>(loaded));
+                }
+            } catch (IOException | ClassNotFoundException e) {
+                logger.error("Error loading hints for node {}: {}", owner, e.getMessage());
+            }
+        }
+    }
+
+    private void scheduleSave(String owner) {
+        if (persistenceEnabled) {
+            persistenceQueue.markDirty(owner);
+        }
+    }
+
+    /**
+     * Saves one owner's hint queue to disk, under a temporary name first so
+     * the file is replaced only by a complete save. An empty queue removes
+     * the owner's hint file. Synchronized so two saves of a file (the save
+     * thread and a flush on close) never interleave.
+     */
+    private synchronized void saveHints(String owner) {
+        Deque<Hint> queue = hints.get(owner);
+        List<Hint> snapshot;
+        synchronized (queue) {
+            snapshot = new ArrayList<>(queue);
+        }
+        File file = new File(hintDir, owner + HINT_FILE_SUFFIX);
+        if (snapshot.isEmpty()) {
+            file.delete();
+            return;
+        }
+        File tmp = new File(hintDir, owner + HINT_FILE_SUFFIX + ".tmp");
+        try {
+            try (ObjectOutputStream oos = new ObjectOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                oos.writeObject(snapshot);
+            }
+            Files.move(tmp.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.error("Error saving hints for node {}: {}", owner, e.getMessage());
+            tmp.delete();
+        }
+    }
+
+    /**
+     * A single write held for its intended owner
+     */
+    static class Hint implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final String key;
+        private final Storage.Value value;
+
+        Hint(String key, Storage.Value value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        Request toRequest() {
+            return Request.forReplica(key, value);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.dynamolite;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * HotKeyTracker finds the most read keys in a stream of reads, in constant
+ * memory however many distinct keys there are.
+ *
+ * A Count-Min sketch estimates how often each key was read (it may overcount,
+ * never undercount), and a min-heap keeps the {@code topK} keys with the
+ * highest estimates. All counts are halved every window, so a key that cools
+ * down drops out again. A top key is hot once it draws at least HOT_FRACTION
+ * of the recent reads and at least MIN_HOT_COUNT of them.
+ */
+public class HotKeyTracker {
+    static final int DEPTH = 4;
+    static final int WIDTH = 2048;
+    static final int DEFAULT_TOP_K = 16;
+    static final long DEFAULT_WINDOW_MS = 10_000;
+    static final double HOT_FRACTION = 0.01;
+    static final long MIN_HOT_COUNT = 50;
+
+    private final int topK;
+    private final long windowMs;
+    private final long[][] counts = new long[DEPTH][WIDTH];
+    private final Map<String, Long> top = new HashMap<>();
+    private final PriorityQueue<String> heap = new PriorityQueue<>(Comparator.comparingLong(top::get));
+    private long total;
+    private long windowStart = System.currentTimeMillis();
+
+    public HotKeyTracker() {
+        this(DEFAULT_TOP_K, DEFAULT_WINDOW_MS);
+    }
+
+    public HotKeyTracker(int topK, long windowMs) {
+        this.topK = topK;
+        this.windowMs = windowMs;
+    }
+
+    /**
+     * Counts one read of the key and returns its estimated recent count.
+     */
+    public synchronized long record(String key) {
+        long now = System.currentTimeMillis();
+        if (now - windowStart >= windowMs) {
+            decay();
+            windowStart = now;
+        }
+        total++;
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            int column = index(key, row);
+            estimate = Math.min(estimate, ++counts[row][column]);
+        }
+
+        if (top.containsKey(key)) {
+            heap.remove(key);
+            top.put(key, estimate);
+            heap.add(key);
+        } else if (top.size() < topK) {
+            top.put(key, estimate);
+            heap.add(key);
+        } else if (estimate > top.get(heap.peek())) {
+            top.remove(heap.poll());
+            top.put(key, estimate);
+            heap.add(key);
+        }
+        return estimate;
+    }
+
+    /**
+     * Returns true if the key is currently hot.
+     */
+    public synchronized boolean isHot(String key) {
+        Long estimate = top.get(key);
+        return estimate != null && estimate >= MIN_HOT_COUNT && estimate >= total * HOT_FRACTION;
+    }
+
+    /**
+     * Returns the top keys with their estimated recent read counts, most read first.
+     */
+    public synchronized List<Map.Entry<String, Long>> getTopKeys() {
+        List<Map.Entry<String, Long>> keys = new ArrayList<>();
+        for (Map.Entry<String, Long> entry : top.entrySet()) {
+            keys.add(Map.entry(entry.getKey(), entry.getValue()));
+        }
+        keys.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        return keys;
+    }
+
+    /**
+     * Returns the number of keys currently hot
+     */
+    public synchronized int hotCount() {
+        int hot = 0;
+        for (String key : top.keySet()) {
+            if (isHot(key)) {
+                hot++;
+            }
+        }
+        return hot;
+    }
+
+    private void decay() {
+        for (long[] row : counts) {
+            for (int i = 0; i < row.length; i++) {
+                row[i] >>= 1;
+            }
+        }
+        total >>= 1;
+        heap.clear();
+        top.replaceAll((key, estimate) -> estimate >> 1);
+        heap.addAll(top.keySet());
+    }
+
+    private static int index(String key, int row) {
+        // One independent-enough hash per row from the key's hash
+        int h = key.hashCode() * 0x9E3779B9 + row * 0x7F4A7C15;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        return (h & Integer.MAX_VALUE) % WIDTH;
+    }
+}
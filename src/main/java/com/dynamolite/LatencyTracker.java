@@ -0,0 +1,56 @@
+package com.dynamolite;
+
+import java.util.Arrays;
+
+/**
+ * LatencyTracker keeps the most recent response times of one peer and answers
+ * percentile queries over them.
+ *
+ * Samples go into a fixed ring buffer, so old behaviour ages out. Percentiles
+ * are computed from a sorted copy that is refreshed every REFRESH_INTERVAL
+ * samples rather than on every query, which keeps the read path cheap.
+ */
+public class LatencyTracker {
+    static final int WINDOW_SIZE = 256;
+    private static final int REFRESH_INTERVAL = 16;
+
+    private final long[] samples = new long[WINDOW_SIZE];
+    private int count;
+    private int next;
+    private int sinceRefresh;
+    private long[] sorted = new long[0];
+
+    /**
+     * Records one response time in nanoseconds.
+     */
+    public synchronized void record(long nanos) {
+        samples[next] = nanos;
+        next = (next + 1) % WINDOW_SIZE;
+        count = Math.min(count + 1, WINDOW_SIZE);
+        sinceRefresh++;
+    }
+
+    /**
+     * Returns the number of samples currently held
+     */
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * Returns the given percentile (0 to 1) of the recent samples in
+     * nanoseconds, or -1 if there are none.
+     */
+    public synchronized long percentile(double p) {
+        if (count == 0) {
+            return -1;
+        }
+        if (sorted.length != count || sinceRefresh >= REFRESH_INTERVAL) {
+            sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            sinceRefresh = 0;
+        }
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+}
@@ -0,0 +1,334 @@
+package com.dynamolite;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * Membership is this node's view of the cluster, kept in step with the other
+ * nodes by SWIM-style gossip.
+ *
+ * Every member has a status (ALIVE, SUSPECT, DEAD) and an incarnation number
+ * that only the member itself may raise. An update overrides the known record
+ * if it has a higher incarnation, or the same incarnation and a stronger status
+ * (DEAD over SUSPECT over ALIVE). A node that hears it is suspected refutes the
+ * rumour by bumping its incarnation and gossiping itself as ALIVE again.
+ *
+ * Changed records are queued for dissemination and piggybacked on a bounded
+ * number of outgoing messages (about log2 of the cluster size each), so the
+ * gossip cost per message stays flat as the cluster grows. Since ring positions
+ * are derived from node ids, the member list is all a node needs to rebuild the
+ * ring.
+ */
+public class Membership {
+    // Each update is gossiped this many times per log2 of the cluster size
+    private static final int RETRANSMIT_MULTIPLIER = 3;
+
+    public enum Status {
+        ALIVE,
+        SUSPECT,
+        DEAD
+    }
+
+    private final String selfId;
+    private final Map<String, Member> members = new ConcurrentHashMap<>();
+    // Records waiting to be gossiped, with the number of sends left
+    private final Map<String, Integer> pendingUpdates = new ConcurrentHashMap<>();
+    private final Map<String, Long> suspectSince = new ConcurrentHashMap<>();
+    private final AtomicLong changes = new AtomicLong();
+    private volatile long lastChangeMs = System.currentTimeMillis();
+    private volatile BiConsumer<Member, Member> listener = (before, after) -> { };
+    private final List<String> probeOrder = new ArrayList<>();
+    private int probeIndex;
+
+    /**
+     * Creates the view of a node that starts ALIVE. The starting incarnation is
+     * the current time, so a node restarted with the same id outranks whatever
+     * the cluster last heard about its previous run.
+     */
+    public Membership(String selfId, int port) {
+        this.selfId = selfId;
+        Member self = new Member(selfId, port, System.currentTimeMillis(), Status.ALIVE);
+        members.put(selfId, self);
+        pendingUpdates.put(selfId, retransmitLimit());
+    }
+
+    /**
+     * Sets the callback run on every change to a member's record, with the
+     * record before (null for a new member) and after the change.
+     */
+    public void setListener(BiConsumer<Member, Member> listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Adds a member known from configuration (a seed). It is treated as ALIVE at
+     * the lowest incarnation, so anything heard from the member itself wins.
+     */
+    public void addSeed(String nodeId, int port) {
+        apply(new Member(nodeId, port, 0, Status.ALIVE));
+    }
+
+    /**
+     * Merges one gossiped record into the view. Returns true if it changed it.
+     */
+    public synchronized boolean apply(Member update) {
+        if (update.nodeId.equals(selfId)) {
+            Member self = members.get(selfId);
+            if (update.status != Status.ALIVE && update.incarnation >= self.incarnation) {
+                // Refute: only we may raise our incarnation
+                Member refuted = new Member(selfId, self.port, update.incarnation + 1, Status.ALIVE);
+                members.put(selfId, refuted);
+                changed(self, refuted);
+            }
+            return false;
+        }
+        Member existing = members.get(update.nodeId);
+        if (existing != null && !update.overrides(existing)) {
+            return false;
+        }
+        members.put(update.nodeId, update);
+        if (update.status == Status.SUSPECT) {
+            suspectSince.putIfAbsent(update.nodeId, System.currentTimeMillis());
+        } else {
+            suspectSince.remove(update.nodeId);
+        }
+        changed(existing, update);
+        return true;
+    }
+
+    /**
+     * Merges a batch of gossiped records.
+     */
+    public void merge(Collection<Member> updates) {
+        if (updates != null) {
+            for (Member update : updates) {
+                apply(update);
+            }
+        }
+    }
+
+    private void changed(Member before, Member after) {
+        pendingUpdates.put(after.nodeId, retransmitLimit());
+        changes.incrementAndGet();
+        lastChangeMs = System.currentTimeMillis();
+        listener.accept(before, after);
+    }
+
+    /**
+     * Marks an ALIVE member as suspected by this node.
+     */
+    public synchronized void suspect(String nodeId) {
+        Member member = members.get(nodeId);
+        if (member != null && member.status == Status.ALIVE) {
+            apply(new Member(nodeId, member.port, member.incarnation, Status.SUSPECT));
+        }
+    }
+
+    /**
+     * Declares DEAD the members suspected for longer than the timeout, and
+     * returns their ids.
+     */
+    public synchronized List<String> expireSuspects(long timeoutMs) {
+        long now = System.currentTimeMillis();
+        List<String> dead = new ArrayList<>();
+        for (Map.Entry<String, Long> entry : suspectSince.entrySet()) {
+            Member member = members.get(entry.getKey());
+            if (member != null && now - entry.getValue() > timeoutMs) {
+                dead.add(member.nodeId);
+            }
+        }
+        for (String nodeId : dead) {
+            Member member = members.get(nodeId);
+            apply(new Member(nodeId, member.port, member.incarnation, Status.DEAD));
+        }
+        return dead;
+    }
+
+    /**
+     * Returns up to {@code max} records to piggyback on an outgoing message,
+     * least-sent first. Each record is dropped from the queue once it has been
+     * sent its quota of times. This node's own record is always included, so
+     * every message also proves the sender alive.
+     */
+    public synchronized List<Member> updatesToSend(int max) {
+        List<String> ids = new ArrayList<>(pendingUpdates.keySet());
+        ids.sort(Comparator.comparing((String id) -> pendingUpdates.get(id)).reversed());
+        List<Member> updates = new ArrayList<>();
+        for (String id : ids) {
+            if (updates.size() == max) {
+                break;
+            }
+            Member member = members.get(id);
+            if (member != null) {
+                updates.add(member);
+            }
+            int left = pendingUpdates.get(id) - 1;
+            if (left <= 0) {
+                pendingUpdates.remove(id);
+            } else {
+                pendingUpdates.put(id, left);
+            }
+        }
+        if (updates.stream().noneMatch(m -> m.nodeId.equals(selfId))) {
+            updates.add(members.get(selfId));
+        }
+        return updates;
+    }
+
+    /**
+     * Returns every known record, for a full state exchange.
+     */
+    public List<Member> snapshot() {
+        return new ArrayList<>(members.values());
+    }
+
+    /**
+     * Returns the next member to probe. Members are probed in a shuffled
+     * round-robin, so each one is probed within one pass over the cluster.
+     * Returns null if there is nobody else to probe.
+     */
+    public synchronized String nextProbeTarget() {
+        if (probeIndex >= probeOrder.size()) {
+            probeOrder.clear();
+            probeOrder.addAll(getReachableMembers());
+            Collections.shuffle(probeOrder);
+            probeIndex = 0;
+        }
+        while (probeIndex < probeOrder.size()) {
+            String candidate = probeOrder.get(probeIndex++);
+            Member member = members.get(candidate);
+            if (member != null && member.status != Status.DEAD) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns up to {@code k} random members other than this node and the given
+     * target, to ask for an indirect probe.
+     */
+    public List<String> randomHelpers(String target, int k) {
+        List<String> candidates = getReachableMembers();
+        candidates.remove(target);
+        Collections.shuffle(candidates);
+        return candidates.subList(0, Math.min(k, candidates.size()));
+    }
+
+    /**
+     * Returns the other members that are not known DEAD.
+     */
+    public List<String> getReachableMembers() {
+        List<String> reachable = new ArrayList<>();
+        for (Member member : members.values()) {
+            if (!member.nodeId.equals(selfId) && member.status != Status.DEAD) {
+                reachable.add(member.nodeId);
+            }
+        }
+        return reachable;
+    }
+
+    public Member get(String nodeId) {
+        return members.get(nodeId);
+    }
+
+    public Status getStatus(String nodeId) {
+        Member member = members.get(nodeId);
+        return member != null ? member.status : null;
+    }
+
+    /**
+     * Returns the number of members with the given status, this node included
+     */
+    public int count(Status status) {
+        int count = 0;
+        for (Member member : members.values()) {
+            if (member.status == status) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of changes applied to this view since startup
+     */
+    public long getChangeCount() {
+        return changes.get();
+    }
+
+    /**
+     * Returns the time of the last change to this view. Once the whole cluster
+     * has converged, no view changes any more.
+     */
+    public long getLastChangeMs() {
+        return lastChangeMs;
+    }
+
+    /**
+     * Returns a hash of the view (ids, statuses, incarnations), equal on all
+     * nodes whose views have converged.
+     */
+    public long digest() {
+        long digest = 0;
+        for (Member member : members.values()) {
+            // Order-independent combination of the records
+            digest += (member.nodeId + "/" + member.status + "/" + member.incarnation).hashCode() * 0x9E3779B97F4A7C15L;
+        }
+        return digest;
+    }
+
+    private int retransmitLimit() {
+        int size = Math.max(members.size(), 1);
+        return RETRANSMIT_MULTIPLIER * (32 - Integer.numberOfLeadingZeros(size));
+    }
+
+    /**
+     * One member's record as it travels in gossip
+     */
+    public static class Member implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final String nodeId;
+        private final int port;
+        private final long incarnation;
+        private final Status status;
+
+        public Member(String nodeId, int port, long incarnation, Status status) {
+            this.nodeId = nodeId;
+            this.port = port;
+            this.incarnation = incarnation;
+            this.status = status;
+        }
+
+        boolean overrides(Member other) {
+            if (incarnation != other.incarnation) {
+                return incarnation > other.incarnation;
+            }
+            return status.ordinal() > other.status.ordinal();
+        }
+
+        public String getNodeId() {
+            return nodeId;
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        public long getIncarnation() {
+            return incarnation;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+    }
+}
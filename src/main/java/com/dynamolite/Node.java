@@ -4,6 +4,8 @@ import java.io.*;
 import java.net.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -14,51 +16,397 @@ import org.slf4j.LoggerFactory;
 public class Node {
     private static final Logger logger = LoggerFactory.getLogger(Node.class);
     private static boolean HEALTH_CHECK_ENABLED = true;
+    private static final long DEFAULT_TOMBSTONE_GRACE_MS = TimeUnit.HOURS.toMillis(24);
+    private static final long MAX_TOMBSTONE_PURGE_INTERVAL_MS = 60_000;
+    static final int DEFAULT_SCAN_LIMIT = 100;
+    static final int MAX_SCAN_LIMIT = 1000;
+    // Each connection holds a handler thread; beyond this, new connections are refused
+    static final int MAX_CONNECTION_THREADS = 512;
+    // Reserved handler threads for control-plane connections once the main pool is full
+    static final int MAX_CONTROL_THREADS = 32;
+    static final double DEFAULT_HEDGE_PERCENTILE = 0.95;
+    // Extra replicas a coordinated read may be hedged to
+    static final int MAX_HEDGES = 1;
+    // Latency samples needed from a replica before reads to it are hedged
+    static final int MIN_HEDGE_SAMPLES = 20;
+    static final long DEFAULT_HOT_KEY_CACHE_MS = 100;
+    private static final long SUBSCRIPTION_PURGE_INTERVAL_MS = 10_000;
+    static final int MAX_CHANGES_BATCH = 1000;
+    // Longest a change feed read waits for a change; well under the client's timeout
+    static final long MAX_CHANGES_WAIT_MS = 2000;
 
     private final String nodeId;
     private final int port;
     private final Storage storage;
+    private final String dataDir;
     private final ConsistentHashRing hashRing;
     private final Map<String, NodeConnection> connections;
+    private final Map<String, NodeConnection> controlConnections;
     private final ExecutorService executorService;
+    private final ExecutorService controlExecutor;
+    private final ExecutorService replicaExecutor;
     private final int readQuorum;
     private final int writeQuorum;
     private final HealthMonitor healthMonitor;
+    private final Membership membership;
+    private final HintedHandoff hintedHandoff;
+    private final AdmissionController admissionController;
     private final Map<String, Integer> peerPorts;
+    private final Set<Socket> clientSockets;
+    private final AtomicLong versionClock;
+    private final Map<String, LatencyTracker> replicaLatencies;
+    private final ReplicaSelector replicaSelector;
+    private final AtomicLong coordinatedReads = new AtomicLong();
+    private final AtomicLong replicaReadsSent = new AtomicLong();
+    private final AtomicLong hedgedReads = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+    private final AtomicLong reorderedReads = new AtomicLong();
+    // Coordinated reads in progress, by quorum and key, for coalescing
+    private final Map<String, CompletableFuture<QuorumRead>> readFlights = new ConcurrentHashMap<>();
+    private final AtomicLong coalescedReads = new AtomicLong();
+    private final HotKeyTracker hotKeys = new HotKeyTracker();
+    // Short-lived results of coordinated reads of hot keys
+    private final Map<String, HotRead> hotReadCache = new ConcurrentHashMap<>();
+    private final ReadTickets hotReadTickets = new ReadTickets();
+    private final AtomicLong hotKeyCacheHits = new AtomicLong();
+    private final CacheSubscriptions cacheSubscriptions = new CacheSubscriptions();
+    private final AtomicLong invalidationsSent = new AtomicLong();
+    // Client connections with a near cache, by connection id, and the keys each has cached
+    private final Map<String, ObjectOutputStream> nearCacheClients = new ConcurrentHashMap<>();
+    private final CacheSubscriptions nearCacheSubscriptions = new CacheSubscriptions();
+    private final AtomicLong nearCacheConnectionIds = new AtomicLong();
+    private final AtomicLong nearCacheInvalidationsPushed = new AtomicLong();
+    private final AtomicLong snapshotsServed = new AtomicLong();
+    private final AtomicLong bulkLoadedEntries = new AtomicLong();
+    private final AtomicLong bootstrapEntries = new AtomicLong();
+    private final AtomicLong bootstrapBytes = new AtomicLong();
+    private final AtomicLong bootstrapCatchUpChanges = new AtomicLong();
+    private ScheduledExecutorService maintenanceExecutor;
+    private volatile long tombstoneGracePeriodMs = DEFAULT_TOMBSTONE_GRACE_MS;
+    private volatile boolean livenessPiggybackEnabled = true;
+    private volatile boolean hedgedReadsEnabled = true;
+    private volatile double hedgePercentile = DEFAULT_HEDGE_PERCENTILE;
+    private volatile boolean adaptiveReplicaSelection = true;
+    private volatile boolean readCoalescingEnabled = true;
+    private volatile long hotKeyCacheMs = DEFAULT_HOT_KEY_CACHE_MS;
+    // Null while the coordinator read cache is off (the default)
+    private volatile ReadCache readCache;
+    // Coalesces replica writes per peer into REPLICA_BATCH frames; null sends each on its own
+    private volatile ReplicaBatcher replicaBatcher;
+    private final ReplicationQueue replicationQueue;
+    private volatile boolean asyncReplication;
+    // BULK_LOAD only attaches files under this directory
+    private volatile File bulkImportDir;
     private ServerSocket serverSocket;
     private volatile boolean running;
 
     public Node(int port, String dataDir, int readQuorum, int writeQuorum) {
-        this.nodeId = UUID.randomUUID().toString();
+        this(UUID.randomUUID().toString(), port, dataDir, readQuorum, writeQuorum);
+    }
+
+    /**
+     * Creates a node with a fixed identity, so that a restarted node keeps its
+     * ring position and receives the hints other nodes hold for it.
+     */
+    public Node(String nodeId, int port, String dataDir, int readQuorum, int writeQuorum) {
+        this(nodeId, port, dataDir, readQuorum, writeQuorum, 1);
+    }
+
+    /**
+     * Creates a node whose local storage is split into the given number of
+     * shards, typically one per core, so writes to different shards neither
+     * contend nor wait on each other's saves.
+     */
+    public Node(String nodeId, int port, String dataDir, int readQuorum, int writeQuorum, int storageShards) {
+        this.nodeId = nodeId;
         this.port = port;
-        this.storage = new Storage(dataDir);
+        this.storage = new Storage(dataDir, storageShards);
+        this.dataDir = dataDir;
+        this.bulkImportDir = new File(dataDir, "import");
         this.hashRing = new ConsistentHashRing();
-        this.healthMonitor = new HealthMonitor(this, hashRing);
+        this.membership = new Membership(nodeId, port);
+        this.healthMonitor = new HealthMonitor(this, membership);
+        this.hintedHandoff = new HintedHandoff(dataDir);
         this.connections = new ConcurrentHashMap<>();
-        this.executorService = Executors.newCachedThreadPool();
+        this.controlConnections = new ConcurrentHashMap<>();
+        this.executorService = new ThreadPoolExecutor(0, MAX_CONNECTION_THREADS,
+            60L, TimeUnit.SECONDS, new SynchronousQueue<>());
+        this.controlExecutor = new ThreadPoolExecutor(0, MAX_CONTROL_THREADS,
+            60L, TimeUnit.SECONDS, new SynchronousQueue<>());
+        this.replicaExecutor = new ThreadPoolExecutor(0, MAX_CONNECTION_THREADS,
+            60L, TimeUnit.SECONDS, new SynchronousQueue<>());
+        this.admissionController = new AdmissionController();
         this.readQuorum = readQuorum;
         this.writeQuorum = writeQuorum;
         this.peerPorts = new ConcurrentHashMap<>();
+        this.clientSockets = ConcurrentHashMap.newKeySet();
+        this.versionClock = new AtomicLong();
+        this.replicaLatencies = new ConcurrentHashMap<>();
+        this.replicaSelector = new ReplicaSelector(nodeId);
+        this.replicaBatcher = new ReplicaBatcher(this::exchangeWithReplica, ReplicaBatcher.DEFAULT_MAX_WRITES,
+            ReplicaBatcher.DEFAULT_MAX_BYTES, ReplicaBatcher.DEFAULT_LINGER_MICROS);
+        this.replicationQueue = new ReplicationQueue(new ReplicationQueue.Replicator() {
+            @Override
+            public boolean replicate(String node, String key, Storage.Value value) {
+                return !healthMonitor.isSuspected(node) && sendToReplica(node, Request.forReplica(key, value));
+            }
+
+            @Override
+            public void giveUp(String node, String key, Storage.Value value, List<String> preferenceList) {
+                giveUpReplication(node, key, value, preferenceList);
+            }
+        }, ReplicationQueue.DEFAULT_CAPACITY);
         this.hashRing.addNode(nodeId);
+        this.membership.setListener(this::onMembershipChange);
+        this.storage.setChangeListener(this::onLocalChange);
     }
 
     /**
-     * Adds a peer node to the ring and stores its port for connections.
+     * Adds a peer node to the membership (and so to the ring) and stores its
+     * port for connections. With health checks on, one peer is enough to join:
+     * gossip spreads the rest of the cluster.
      */
     public void addPeer(String nodeId, int port) {
-        hashRing.addNode(nodeId);
         peerPorts.put(nodeId, port);
+        membership.addSeed(nodeId, port);
+    }
+
+    /**
+     * Fills this node with the data it owns from a peer in bulk, instead of key
+     * by key: the peer streams a snapshot of the entries whose preference
+     * lists include this node (see SnapshotTransfer), then this node catches
+     * up on the writes the peer took while the snapshot was being made, from
+     * its change feed. Meant for a node that is new or replaces one; the peer
+     * must already have it in its ring. Returns the number of entries loaded.
+     */
+    public long bootstrapFrom(String peerId) throws IOException {
+        Integer peerPort = peerPorts.get(peerId);
+        if (peerPort == null) {
+            throw new IOException("Unknown peer " + peerId);
+        }
+        // A connection of its own, so the shared one stays free for replica traffic
+        NodeConnection connection = new NodeConnection(peerId, peerPort);
+        File file = new File(dataDir, "bootstrap-" + peerId + ".snapshot");
+        try {
+            Response offer = connection.sendRequest(Request.snapshot(nodeId));
+            if (!offer.isSuccess()) {
+                throw new IOException("Node " + peerId + " refused the snapshot: " + offer.getMessage());
+            }
+            SnapshotTransfer.receive(offer.getTransferPort(), offer.getSnapshotBytes(), file);
+            long entries = SnapshotTransfer.load(file, storage);
+            bootstrapBytes.addAndGet(offer.getSnapshotBytes());
+            bootstrapEntries.addAndGet(entries);
+
+            // Catch up from the log tail until a batch comes back short
+            long offset = offer.getNextOffset();
+            while (true) {
+                Response batch = connection.sendRequest(Request.changes(offset, MAX_CHANGES_BATCH, 0));
+                if (!batch.isSuccess()) {
+                    throw new IOException("Catch-up from node " + peerId + " failed: " + batch.getMessage());
+                }
+                Map<String, Storage.Value> owned = new HashMap<>();
+                for (ChangeLog.Change change : batch.getChanges()) {
+                    // Outright removals (purges, expiry) are left to this node's own upkeep
+                    if (change.getValue() != null && ownsKey(change.getKey())) {
+                        owned.merge(change.getKey(), change.getValue(), Storage::merge);
+                    }
+                }
+                storage.mergeAll(owned);
+                bootstrapCatchUpChanges.addAndGet(owned.size());
+                offset = batch.getNextOffset();
+                if (batch.getChanges().size() < MAX_CHANGES_BATCH) {
+                    break;
+                }
+            }
+            logger.info("Bootstrapped {} entries ({} bytes) from node {}", entries, offer.getSnapshotBytes(), peerId);
+            return entries;
+        } finally {
+            connection.close();
+            if (file.exists() && !file.delete()) {
+                logger.warn("Could not delete snapshot file {}", file);
+            }
+        }
+    }
+
+    private boolean ownsKey(String key) {
+        return hashRing.getNodes(key, replicationFactor()).contains(nodeId);
+    }
+
+    /**
+     * Keeps the ring in step with the gossiped membership: live and suspected
+     * members own their ranges, dead ones are removed.
+     */
+    private void onMembershipChange(Membership.Member before, Membership.Member after) {
+        peerPorts.put(after.getNodeId(), after.getPort());
+        if (after.getStatus() == Membership.Status.DEAD) {
+            hashRing.removeNode(after.getNodeId());
+        } else if (!hashRing.containsNode(after.getNodeId())) {
+            hashRing.addNode(after.getNodeId());
+            if (before != null) {
+                logger.info("Node {} rejoined the ring", after.getNodeId());
+            }
+        }
     }
 
     public static void setHealthCheckEnabled(boolean enabled) {
         HEALTH_CHECK_ENABLED = enabled;
     }
 
+    /**
+     * Sets how long local changes may wait before they are saved to disk by
+     * the storage's I/O thread. Request threads never wait for the disk.
+     */
+    public void setPersistenceMaxDirtyMs(long maxDirtyMs) {
+        storage.setMaxDirtyMs(maxDirtyMs);
+    }
+
     /**
      * Enable or disable storage persistence (useful for performance testing).
      */
     public void setPersistenceEnabled(boolean enabled) {
         storage.setPersistenceEnabled(enabled);
+        hintedHandoff.setPersistenceEnabled(enabled);
+    }
+
+    /**
+     * Sets how many hints this node holds for one unreachable replica; hints
+     * past that are dropped (see the hintsDropped stat) and left to read repair.
+     */
+    public void setMaxHintsPerOwner(int maxHints) {
+        hintedHandoff.setMaxHintsPerOwner(maxHints);
+    }
+
+    /**
+     * Sets how long tombstones are kept before the background pass purges them.
+     * Replicas that missed a delete must be repaired within this window.
+     */
+    public void setTombstoneGracePeriod(long gracePeriodMs) {
+        this.tombstoneGracePeriodMs = gracePeriodMs;
+    }
+
+    /**
+     * Enables or disables counting replies to replica traffic as heartbeats.
+     * When on, peers that are busy exchanging data with this node need no
+     * separate health probes.
+     */
+    public void setLivenessPiggybackEnabled(boolean enabled) {
+        this.livenessPiggybackEnabled = enabled;
+    }
+
+    /**
+     * Enables or disables hedged reads. When on, a coordinated read that has not
+     * heard from a replica within that replica's given latency percentile (0 to
+     * 1) sends the read to one more replica and uses whichever answers first.
+     */
+    public void setHedgedReads(boolean enabled, double percentile) {
+        if (percentile <= 0 || percentile > 1) {
+            throw new IllegalArgumentException("Hedge percentile must be in (0, 1]");
+        }
+        this.hedgedReadsEnabled = enabled;
+        this.hedgePercentile = percentile;
+    }
+
+    /**
+     * Enables or disables latency-aware replica selection. When on, reads go to
+     * the replicas expected to answer fastest (see ReplicaSelector); when off,
+     * to the first replicas of the preference list.
+     */
+    public void setAdaptiveReplicaSelection(boolean enabled) {
+        this.adaptiveReplicaSelection = enabled;
+    }
+
+    /**
+     * Enables or disables read coalescing: concurrent coordinated reads of the
+     * same key share one replica read instead of each sending their own.
+     */
+    public void setReadCoalescingEnabled(boolean enabled) {
+        this.readCoalescingEnabled = enabled;
+    }
+
+    /**
+     * Sets how long this coordinator serves the result of a read of a hot key
+     * (see HotKeyTracker) without asking the replicas again; 0 turns hot key
+     * caching off. Writes coordinated here invalidate the cached result at once.
+     */
+    public void setHotKeyCacheMs(long cacheMs) {
+        this.hotKeyCacheMs = cacheMs;
+        if (cacheMs <= 0) {
+            hotReadCache.clear();
+        }
+    }
+
+    /**
+     * Turns on the coordinator read cache (see ReadCache) with the given memory
+     * budget and staleness bound, or turns it off if {@code maxBytes} is 0.
+     * Replicas tell this node when a cached key changes; the staleness bound
+     * only matters if such a notification is lost. Off by default: it pays off
+     * for read-heavy workloads whose keys change rarely.
+     */
+    public void setReadCache(long maxBytes, long maxStalenessMs) {
+        if (maxBytes <= 0) {
+            readCache = null;
+            return;
+        }
+        if (maxStalenessMs <= 0 || maxStalenessMs > CacheSubscriptions.SUBSCRIPTION_TTL_MS) {
+            throw new IllegalArgumentException(
+                "Staleness bound must be in (0, " + CacheSubscriptions.SUBSCRIPTION_TTL_MS + "] ms");
+        }
+        readCache = new ReadCache(maxBytes, maxStalenessMs);
+    }
+
+    /**
+     * Configures how replica writes to a peer are coalesced into one frame (see
+     * ReplicaBatcher): at most {@code maxWrites} per frame, and under load a
+     * wait of up to {@code lingerMicros} for a frame to fill. A {@code maxWrites}
+     * of 1 or less sends every replica write on its own. On by default.
+     */
+    public void setReplicaBatching(int maxWrites, long lingerMicros) {
+        if (lingerMicros < 0) {
+            throw new IllegalArgumentException("Linger must not be negative");
+        }
+        replicaBatcher = maxWrites <= 1 ? null
+            : new ReplicaBatcher(this::exchangeWithReplica, maxWrites, ReplicaBatcher.DEFAULT_MAX_BYTES, lingerMicros);
+    }
+
+    /**
+     * Turns asynchronous replication on or off. When on, a write that does not
+     * ask for a consistency level or quorum of its own is acknowledged once one
+     * replica (the local copy, if this node is a replica) has it; the other
+     * replicas are written from a bounded background queue (see
+     * ReplicationQueue) with retries. Writes acknowledged before all replicas
+     * have them use that queue too. Off by default.
+     */
+    public void setAsyncReplication(boolean enabled) {
+        asyncReplication = enabled;
+        if (enabled) {
+            replicationQueue.start();
+        }
+    }
+
+    /**
+     * Sets the directory BULK_LOAD requests may attach files from (by
+     * default the "import" directory under the data directory). A request
+     * naming a file anywhere else is refused, so a client can not make the
+     * node read arbitrary files.
+     */
+    public void setBulkImportDir(String dir) {
+        this.bulkImportDir = new File(dir);
+    }
+
+    /**
+     * Returns how far behind each replica is: the age in milliseconds of the
+     * oldest write queued for it by asynchronous replication.
+     */
+    public Map<String, Long> getReplicationLag() {
+        return replicationQueue.getLagByReplica();
+    }
+
+    /**
+     * Returns the most read keys on this coordinator with their estimated
+     * recent read counts, most read first. Also served by TOP_KEYS.
+     */
+    public List<Map.Entry<String, Long>> getTopKeys() {
+        return hotKeys.getTopKeys();
     }
 
     public String getNodeId() {
@@ -73,10 +421,24 @@ public class Node {
             if (HEALTH_CHECK_ENABLED) {
                 healthMonitor.startHealthCheck();
             }
+            startMaintenance();
 
             while (running) {
                 Socket clientSocket = serverSocket.accept();
-                executorService.submit(() -> handleClient(clientSocket));
+                // Requests are single small frames; don't let Nagle hold them back
+                clientSocket.setTcpNoDelay(true);
+                try {
+                    executorService.submit(() -> handleClient(clientSocket, false));
+                } catch (RejectedExecutionException e) {
+                    // Data connections have used up the pool; keep serving
+                    // heartbeats so this node is not taken for dead
+                    try {
+                        controlExecutor.submit(() -> handleClient(clientSocket, true));
+                    } catch (RejectedExecutionException full) {
+                        logger.warn("Refusing connection: all {} handler threads busy", MAX_CONNECTION_THREADS);
+                        clientSocket.close();
+                    }
+                }
             }
         } catch (IOException e) {
             if (running) {
@@ -85,22 +447,73 @@ public class Node {
         }
     }
 
+    /**
+     * Starts background housekeeping: purging tombstones past their grace period
+     * and reclaiming expired values on every tick of the storage's timer wheel.
+     */
+    private void startMaintenance() {
+        long purgeInterval = Math.max(1, Math.min(tombstoneGracePeriodMs, MAX_TOMBSTONE_PURGE_INTERVAL_MS));
+        maintenanceExecutor = Executors.newSingleThreadScheduledExecutor();
+        maintenanceExecutor.scheduleAtFixedRate(() -> {
+            int purged = storage.purgeTombstones(tombstoneGracePeriodMs);
+            if (purged > 0) {
+                logger.debug("Purged {} tombstones", purged);
+            }
+        }, purgeInterval, purgeInterval, TimeUnit.MILLISECONDS);
+        maintenanceExecutor.scheduleAtFixedRate(storage::expireEntries,
+            Storage.EXPIRY_TICK_MS, Storage.EXPIRY_TICK_MS, TimeUnit.MILLISECONDS);
+        maintenanceExecutor.scheduleAtFixedRate(() -> {
+            cacheSubscriptions.purgeExpired();
+            nearCacheSubscriptions.purgeExpired();
+        }, SUBSCRIPTION_PURGE_INTERVAL_MS, SUBSCRIPTION_PURGE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
     public void stop() {
         running = false;
         healthMonitor.setRunning(false);
         healthMonitor.stop();
+        if (maintenanceExecutor != null) {
+            maintenanceExecutor.shutdownNow();
+        }
         try {
             if (serverSocket != null) {
                 serverSocket.close();
             }
+            // Close open connections too, so peers see this node as down
+            for (Socket socket : clientSockets) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+            // Keep writes not yet propagated as hints, so they survive the restart
+            for (ReplicationQueue.Task task : replicationQueue.stop()) {
+                hintedHandoff.addHint(task.getNode(), task.getKey(), task.getValue());
+            }
+            controlExecutor.shutdown();
+            replicaExecutor.shutdownNow();
             executorService.shutdown();
             executorService.awaitTermination(5, TimeUnit.SECONDS);
         } catch (IOException | InterruptedException e) {
             logger.error("Error stopping node: {}", e.getMessage());
         }
+        hintedHandoff.close();
+        storage.close();
     }
 
-    private void handleClient(Socket clientSocket) {
+    /**
+     * Serves one connection. A control-only connection (one taken on the
+     * reserved control threads) answers everything but control requests with
+     * OVERLOADED.
+     *
+     * A client with a near cache marks its GETs; from the first one on, the
+     * connection also carries INVALIDATED messages for the keys it has read,
+     * written from other threads between responses.
+     */
+    private void handleClient(Socket clientSocket, boolean controlOnly) {
+        clientSockets.add(clientSocket);
+        String nearCacheId = null;
         try {
             // IMPORTANT: ObjectOutputStream must be created and flushed BEFORE
             // ObjectInputStream to avoid a deadlock when both sides open streams
@@ -112,9 +525,22 @@ public class Node {
             while (true) {
                 try {
                     Request request = (Request) in.readObject();
-                    Response response = processRequest(request);
-                    out.writeObject(response);
-                    out.flush();
+                    if (request.isNearCache() && request.getKey() != null) {
+                        if (nearCacheId == null) {
+                            nearCacheId = "client-" + nearCacheConnectionIds.incrementAndGet();
+                            nearCacheClients.put(nearCacheId, out);
+                        }
+                        // Subscribe before reading, so a write right after the read is reported
+                        nearCacheSubscriptions.subscribe(request.getKey(), nearCacheId);
+                    }
+                    Response response = controlOnly
+                            && AdmissionController.classify(request) != AdmissionController.TrafficClass.CONTROL
+                        ? new Response(Response.Status.OVERLOADED, "Node overloaded, retry later")
+                        : admit(request);
+                    synchronized (out) {
+                        out.writeObject(response);
+                        out.flush();
+                    }
                 } catch (EOFException | SocketException e) {
                     // Client closed the connection — this is normal
                     break;
@@ -126,6 +552,10 @@ public class Node {
         } catch (IOException e) {
             logger.error("Error setting up client connection: {}", e.getMessage());
         } finally {
+            if (nearCacheId != null) {
+                nearCacheClients.remove(nearCacheId);
+            }
+            clientSockets.remove(clientSocket);
             try {
                 if (clientSocket != null && !clientSocket.isClosed()) {
                     clientSocket.close();
@@ -136,176 +566,1373 @@ public class Node {
         }
     }
 
+    /**
+     * Indirect probe: pings the target on behalf of a member that could not
+     * reach it directly.
+     */
+    private Response handlePingRequest(Request request) {
+        membership.merge(request.getMembers());
+        boolean reached = healthMonitor.ping(request.getKey());
+        return new Response(reached ? Response.Status.SUCCESS : Response.Status.ERROR, reached ? "ACK" : "No ack")
+            .withMembers(membership.updatesToSend(HealthMonitor.MAX_PIGGYBACKED_UPDATES));
+    }
+
+    /**
+     * Runs the request under its traffic class's concurrency limit. A request
+     * over the limit is rejected with OVERLOADED straight away (or after a short
+     * bounded wait), so the client can back off rather than pile on.
+     */
+    private Response admit(Request request) {
+        AdaptiveLimiter limiter = admissionController.limiterFor(request);
+        if (limiter == null) {
+            return processRequest(request);
+        }
+        if (!limiter.acquire()) {
+            return new Response(Response.Status.OVERLOADED, "Node overloaded, retry later");
+        }
+        long start = System.nanoTime();
+        try {
+            // Piggyback this node's load, not counting the request itself
+            return processRequest(request).withQueueDepth(limiter.getInFlight() - 1 + limiter.getQueued());
+        } finally {
+            limiter.release(System.nanoTime() - start);
+        }
+    }
+
     private Response processRequest(Request request) {
         switch (request.getType()) {
             case PUT:       return handlePut(request);
             case GET:       return handleGet(request);
             case DELETE:    return handleDelete(request);
-            case HEARTBEAT: return new Response(Response.Status.SUCCESS, "PONG");
+            case HEARTBEAT:
+                membership.merge(request.getMembers());
+                return new Response(Response.Status.SUCCESS, "PONG")
+                    .withMembers(membership.updatesToSend(HealthMonitor.MAX_PIGGYBACKED_UPDATES));
+            case GOSSIP:
+                membership.merge(request.getMembers());
+                return new Response(Response.Status.SUCCESS, "Membership exchanged").withMembers(membership.snapshot());
+            case PING_REQ:  return handlePingRequest(request);
+            case STATS:     return new Response(Response.Status.SUCCESS, getStats().toString());
+            case TOP_KEYS:  return new Response(Response.Status.SUCCESS, getTopKeys().toString());
+            case INVALIDATE: return handleInvalidate(request);
+            case PUT_IF_VERSION:
+            case PUT_IF_ABSENT: return handleConditionalPut(request);
+            case INCREMENT:
+            case SET_ADD:
+            case SET_REMOVE:    return handleCrdtUpdate(request);
+            case CRDT_MERGE:    return handleCrdtMerge(request);
+            case SCAN:          return handleScan(request);
+            case REPLICA_BATCH: return handleReplicaBatch(request);
+            case CHANGES:       return handleChanges(request);
+            case SNAPSHOT:      return handleSnapshot(request);
+            case BULK_LOAD:     return handleBulkLoad(request);
             default:        return new Response(Response.Status.ERROR, "Unknown request type");
         }
     }
 
     private Response handlePut(Request request) {
         String key = request.getKey();
-        List<String> nodes = hashRing.getNodes(key, writeQuorum);
+        List<String> nodes = hashRing.getNodes(key, replicationFactor());
+
+        // Hinted write: hold it for the unreachable owner until it comes back
+        if (request.getVersion() != null && request.getHintedFor() != null) {
+            return storeHint(request,
+                new Storage.Value(request.getValue(), request.getVersion(), request.getExpiresAt()));
+        }
 
         // Replica write: another node is coordinating — just store locally
         if (request.getVersion() != null) {
-            storage.put(key, request.getValue(), request.getVersion());
+            storage.put(key, request.getValue(), request.getVersion(), request.getExpiresAt());
             return new Response(Response.Status.SUCCESS, "Replica stored");
         }
 
-        // Coordinator write: replicate to all nodes in the preference list
+        // Coordinator write: replicate to all nodes in the preference list. A TTL
+        // becomes an absolute expiry time here, so every replica expires together.
+        if (request.getTtlMillis() < 0) {
+            return new Response(Response.Status.ERROR, "TTL must not be negative");
+        }
+        int required = requiredReplicas(request, true);
+        if (required < 0) {
+            return tooFewReplicas();
+        }
+        long expiresAt = request.getTtlMillis() > 0 ? System.currentTimeMillis() + request.getTtlMillis() : 0;
+        Storage.Value value = new Storage.Value(request.getValue(), nextVersion(key), expiresAt);
+        if (replicate(key, value, nodes, required) >= required) {
+            return new Response(Response.Status.SUCCESS, "Value stored");
+        } else {
+            return new Response(Response.Status.ERROR, "Failed to achieve write quorum");
+        }
+    }
+
+    /**
+     * Compare-and-set on version (PUT_IF_VERSION) or on absence (PUT_IF_ABSENT).
+     * The condition is checked atomically on the coordinator and on every replica;
+     * a failed check returns CONFLICT with the current value and version, so the
+     * client can retry straight away instead of issuing another GET.
+     *
+     * The coordinator checks its own copy first but applies the write to it last,
+     * and not at all if the reply is CONFLICT, so it never keeps a value it
+     * reports as conflicting. Replicas that already accepted the write are not
+     * rolled back, though: like the rest of the store this is not linearizable,
+     * and a write that conflicts on some replicas but applies on others can
+     * surface later as siblings.
+     */
+    private Response handleConditionalPut(Request request) {
+        String key = request.getKey();
+        VersionVector expected = request.getType() == Request.Type.PUT_IF_VERSION
+            ? request.getExpectedVersion() : null;
+        if (request.getType() == Request.Type.PUT_IF_VERSION && expected == null) {
+            return new Response(Response.Status.ERROR, "PUT_IF_VERSION requires an expected version");
+        }
+
+        // Replica write: check the condition against the local copy
+        if (request.getVersion() != null) {
+            if (storage.putIfVersion(key, request.getValue(), expected, request.getVersion())) {
+                return new Response(Response.Status.SUCCESS, "Replica stored");
+            }
+            return conflict(storage.get(key));
+        }
+
+        // Coordinator write: the new version descends from exactly what the client saw
+        int required = requiredReplicas(request, true);
+        if (required < 0) {
+            return tooFewReplicas();
+        }
         VersionVector version = new VersionVector(nodeId);
-        version.increment();
+        Storage.Value local = storage.get(key);
+        if (expected != null) {
+            version.update(expected);
+        } else if (local != null && local.isTombstone() && !local.hasSiblings()) {
+            // Writing over a delete: descend from it, or the delete comes back as a sibling
+            version.update(local.getVersion());
+        }
+        version.advance(nextClockTick());
+        Storage.Value value = new Storage.Value(request.getValue(), version);
+        forgetReads(key);
 
+        List<String> nodes = hashRing.getNodes(key, replicationFactor());
+        boolean replica = nodes.contains(nodeId);
+        if (replica && !storage.versionMatches(key, expected)) {
+            // Conflict on the coordinator itself — no need to ask the replicas
+            return conflict(local);
+        }
         int successCount = 0;
+        Response conflict = null;
+        List<String> unreachable = new ArrayList<>();
         for (String node : nodes) {
             if (node.equals(nodeId)) {
-                storage.put(key, request.getValue(), version);
-                successCount++;
-            } else {
-                try {
-                    NodeConnection connection = getConnection(node);
-                    if (connection != null) {
-                        Response r = connection.sendRequest(
-                            new Request(Request.Type.PUT, key, request.getValue(), version));
-                        if (r.isSuccess()) {
-                            successCount++;
-                        }
-                    }
-                } catch (IOException e) {
-                    // Evict the stale connection so next call re-establishes it
-                    connections.remove(node);
-                    logger.debug("Failed to replicate PUT to node {}: {}", node, e.getMessage());
+                continue;
+            }
+            if (healthMonitor.isSuspected(node)) {
+                unreachable.add(node);
+                continue;
+            }
+            try {
+                NodeConnection connection = getConnection(node);
+                Response r = connection != null
+                    ? connection.sendRequest(new Request(request.getType(), key, request.getValue(), version)
+                        .withExpectedVersion(expected))
+                    : null;
+                if (r == null) {
+                    unreachable.add(node);
+                } else if (r.isSuccess()) {
+                    successCount++;
+                } else if (r.getStatus() == Response.Status.CONFLICT) {
+                    conflict = r;
                 }
+            } catch (IOException e) {
+                connections.remove(node);
+                unreachable.add(node);
+                logger.debug("Failed to replicate {} to node {}: {}", request.getType(), node, e.getMessage());
             }
         }
 
-        if (successCount >= writeQuorum) {
-            return new Response(Response.Status.SUCCESS, "Value stored");
+        // Replicas that could not check the condition get the write through handoff
+        if (!unreachable.isEmpty()) {
+            successCount += handOff(key, value, nodes, unreachable);
+        }
+        if (replica && (conflict == null || successCount + 1 >= required)) {
+            if (storage.putIfVersion(key, request.getValue(), expected, version)) {
+                successCount++;
+            } else if (conflict == null) {
+                conflict = conflict(storage.get(key)); // changed here meanwhile
+            }
+        }
+
+        if (successCount >= required) {
+            return new Response(Response.Status.SUCCESS, "Value stored", value);
+        } else if (conflict != null) {
+            return conflict;
         } else {
             return new Response(Response.Status.ERROR, "Failed to achieve write quorum");
         }
     }
 
-    private Response handleGet(Request request) {
+    /**
+     * Applies a counter increment or set add/remove. The operation runs on a
+     * replica of the key under that replica's own node id, so it is a single
+     * local update that never conflicts; the resulting state is then merged into
+     * the other replicas. A coordinator that does not own the key forwards the
+     * operation to one that does.
+     */
+    private Response handleCrdtUpdate(Request request) {
         String key = request.getKey();
-        List<String> nodes = hashRing.getNodes(key, readQuorum);
-
-        // Replica read: coordinator is collecting quorum — return local value only
-        if (request.isReplicaRead()) {
-            Storage.Value local = storage.get(key);
-            if (local == null) {
-                return new Response(Response.Status.NOT_FOUND, "Key not found");
-            }
-            return new Response(Response.Status.SUCCESS, local.getData());
+        List<String> nodes = hashRing.getNodes(key, replicationFactor());
+        int required = requiredReplicas(request, true);
+        if (required < 0) {
+            return tooFewReplicas();
+        }
+        if (!nodes.contains(nodeId) && !request.isForwarded()) {
+            return forwardToOwner(request, nodes);
         }
 
-        // Coordinator read: collect responses from all nodes in the read quorum
-        List<Storage.Value> valuesWithVersion = new ArrayList<>();
-        for (String node : nodes) {
-            if (node.equals(nodeId)) {
-                Storage.Value local = storage.get(key);
-                if (local != null) {
-                    valuesWithVersion.add(local);
-                }
-            } else {
+        Crdt empty;
+        UnaryOperator<Crdt> operation;
+        String element = request.getValue();
+        if (element == null) {
+            return new Response(Response.Status.ERROR, request.getType() + " requires a value");
+        }
+        switch (request.getType()) {
+            case INCREMENT:
+                long delta;
                 try {
-                    NodeConnection connection = getConnection(node);
-                    if (connection != null) {
-                        Response r = connection.sendRequest(
-                            new Request(Request.Type.GET, key, null, null, true));
-                        if (r.isSuccess() && r.getMessage() != null) {
-                            valuesWithVersion.add(new Storage.Value(r.getMessage(), null));
-                        }
-                    }
-                } catch (IOException e) {
-                    // Evict the stale connection so next call re-establishes it
-                    connections.remove(node);
-                    logger.debug("Quorum read: failed to get from node {}: {}", node, e.getMessage());
+                    delta = Long.parseLong(element.trim());
+                } catch (NumberFormatException e) {
+                    return new Response(Response.Status.ERROR, "INCREMENT requires an integer delta");
                 }
-            }
+                empty = new PNCounter();
+                operation = crdt -> ((PNCounter) crdt).add(nodeId, delta);
+                break;
+            case SET_ADD:
+                String tag = nodeId + ":" + nextClockTick();
+                empty = new ORSet();
+                operation = crdt -> ((ORSet) crdt).add(element, tag);
+                break;
+            default:
+                empty = new ORSet();
+                operation = crdt -> ((ORSet) crdt).remove(element);
+                break;
         }
 
-        if (valuesWithVersion.isEmpty()) {
-            return new Response(Response.Status.NOT_FOUND, "Key not found");
+        Storage.Value value;
+        try {
+            value = storage.updateCrdt(key, empty, operation);
+        } catch (IllegalArgumentException e) {
+            return new Response(Response.Status.ERROR, e.getMessage());
+        }
+        if (replicate(key, value, nodes, required) >= required) {
+            return new Response(Response.Status.SUCCESS, value.getData(), value);
+        } else {
+            return new Response(Response.Status.ERROR, "Failed to achieve write quorum");
+        }
+    }
+
+    /**
+     * Replica side of a CRDT update: merges the coordinator's state locally.
+     */
+    private Response handleCrdtMerge(Request request) {
+        Crdt state = request.getCrdt();
+        if (state == null) {
+            return new Response(Response.Status.ERROR, "CRDT_MERGE requires CRDT state");
+        }
+        if (request.getHintedFor() != null) {
+            return storeHint(request, Storage.Value.ofCrdt(state));
         }
+        try {
+            storage.updateCrdt(request.getKey(), state, crdt -> crdt.merge(state));
+        } catch (IllegalArgumentException e) {
+            return new Response(Response.Status.ERROR, e.getMessage());
+        }
+        return new Response(Response.Status.SUCCESS, "Replica merged");
+    }
 
-        // Pick the most recent value by version vector comparison
-        Storage.Value best = valuesWithVersion.get(0);
-        for (int i = 1; i < valuesWithVersion.size(); i++) {
-            Storage.Value candidate = valuesWithVersion.get(i);
-            if (candidate.getVersion() != null && best.getVersion() != null) {
-                if (candidate.getVersion().compare(best.getVersion()) > 0) {
-                    best = candidate;
+    /**
+     * Passes a request to the first reachable node of the preference list and
+     * relays its response.
+     */
+    private Response forwardToOwner(Request request, List<String> nodes) {
+        Request forwarded = new Request(request.getType(), request.getKey(), request.getValue())
+            .withForwarded()
+            .withConsistency(request.getConsistency())
+            .withQuorum(request.getReadQuorum(), request.getWriteQuorum());
+        for (String node : nodes) {
+            if (healthMonitor.isSuspected(node)) {
+                continue;
+            }
+            try {
+                NodeConnection connection = getConnection(node);
+                if (connection != null) {
+                    return connection.sendRequest(forwarded);
                 }
-            } else if (candidate.getVersion() != null) {
-                best = candidate;
+            } catch (IOException e) {
+                connections.remove(node);
+                logger.debug("Failed to forward {} to node {}: {}", request.getType(), node, e.getMessage());
             }
         }
-        return new Response(Response.Status.SUCCESS, best.getData());
+        return new Response(Response.Status.ERROR, "No replica available for key");
     }
 
-    private Response handleDelete(Request request) {
-        String key = request.getKey();
-        List<String> nodes = hashRing.getNodes(key, writeQuorum);
+    private Response conflict(Storage.Value current) {
+        if (current == null || current.isTombstone()) {
+            return new Response(Response.Status.CONFLICT, "Version mismatch: key not found", current);
+        }
+        return new Response(Response.Status.CONFLICT, "Version mismatch", current);
+    }
 
+    /**
+     * Writes the value on every node of the preference list, handing off the
+     * copies for unreachable replicas. Returns the number of acknowledged writes
+     * as soon as {@code required} of them are in: the remaining replicas are
+     * still written (or handed off), but in the background, so a write that
+     * needs fewer acknowledgements than there are replicas does not wait on them.
+     */
+    private int replicate(String key, Storage.Value value, List<String> nodes, int required) {
+        forgetReads(key);
+        List<String> order = new ArrayList<>(nodes);
+        // The local copy is the cheapest acknowledgement
+        if (order.remove(nodeId)) {
+            order.add(0, nodeId);
+        }
         int successCount = 0;
-        for (String node : nodes) {
-            if (node.equals(nodeId)) {
-                storage.remove(key);
-                successCount++;
-            } else {
-                try {
-                    NodeConnection connection = getConnection(node);
-                    if (connection != null) {
-                        Response r = connection.sendRequest(
-                            new Request(Request.Type.DELETE, key, null, null));
-                        if (r.isSuccess()) {
-                            successCount++;
-                        }
+        List<String> unreachable = new ArrayList<>();
+        for (int i = 0; i < order.size(); i++) {
+            if (successCount >= required && asyncReplication) {
+                for (String node : order.subList(i, order.size())) {
+                    // A full queue pushes back: the writer waits for this replica itself
+                    if (!replicationQueue.offer(node, key, value, nodes) && !writeReplica(key, value, node)) {
+                        unreachable.add(node);
                     }
-                } catch (IOException e) {
-                    // Evict the stale connection so next call re-establishes it
-                    connections.remove(node);
-                    logger.debug("Failed to replicate DELETE to node {}: {}", node, e.getMessage());
                 }
+                if (!unreachable.isEmpty()) {
+                    handOff(key, value, nodes, unreachable);
+                }
+                return successCount;
+            }
+            if (successCount >= required) {
+                List<String> remaining = new ArrayList<>(order.subList(i, order.size()));
+                Runnable rest = () -> finishReplication(key, value, nodes, remaining, unreachable);
+                try {
+                    replicaExecutor.execute(rest);
+                } catch (RejectedExecutionException e) {
+                    rest.run();
+                }
+                return successCount;
+            }
+            if (writeReplica(key, value, order.get(i))) {
+                successCount++;
+            } else {
+                unreachable.add(order.get(i));
             }
         }
 
-        if (successCount >= writeQuorum) {
-            return new Response(Response.Status.SUCCESS, "Value deleted");
-        } else {
-            return new Response(Response.Status.ERROR, "Failed to achieve write quorum");
+        if (!unreachable.isEmpty()) {
+            successCount += handOff(key, value, nodes, unreachable);
         }
+        return successCount;
     }
 
     /**
-     * Returns an active connection to the given peer node, creating one if needed.
-     * Returns null if the connection cannot be established.
+     * Background part of a write acknowledged before all replicas were written.
      */
-    public NodeConnection getConnection(String nodeId) {
-        return connections.computeIfAbsent(nodeId, id -> {
-            try {
-                int targetPort = peerPorts.getOrDefault(id, port);
-                return new NodeConnection(id, targetPort);
-            } catch (IOException e) {
-                logger.error("Error creating connection to node {}: {}", id, e.getMessage());
+    private void finishReplication(String key, Storage.Value value, List<String> nodes,
+                                   List<String> remaining, List<String> unreachable) {
+        for (String node : remaining) {
+            if (!writeReplica(key, value, node)) {
+                unreachable.add(node);
+            }
+        }
+        if (!unreachable.isEmpty()) {
+            handOff(key, value, nodes, unreachable);
+        }
+    }
+
+    /**
+     * Takes back an asynchronously replicated write that kept failing: it is
+     * handed off like any write to an unreachable replica, or kept here as a
+     * hint if no other node can take it.
+     */
+    private void giveUpReplication(String node, String key, Storage.Value value, List<String> preferenceList) {
+        List<String> unreachable = new ArrayList<>();
+        unreachable.add(node);
+        if (handOff(key, value, preferenceList, unreachable) == 0) {
+            hintedHandoff.addHint(node, key, value);
+        }
+    }
+
+    /**
+     * Writes the value on one replica. Returns true if it was acknowledged.
+     */
+    private boolean writeReplica(String key, Storage.Value value, String node) {
+        if (node.equals(nodeId)) {
+            storeLocal(key, value);
+            return true;
+        }
+        // A replica known to be down is not waited on: it goes straight to handoff
+        return !healthMonitor.isSuspected(node) && sendToReplica(node, Request.forReplica(key, value));
+    }
+
+    /**
+     * Returns the number of replicas each key is stored on.
+     */
+    private int replicationFactor() {
+        return Math.max(readQuorum, writeQuorum);
+    }
+
+    /**
+     * Resolves how many replicas a read or write must hear from: the request's
+     * explicit quorum if it has one, else its consistency level, else this
+     * node's configured quorum. Returns -1 if the request asks for more
+     * replicas than a key has.
+     */
+    private int requiredReplicas(Request request, boolean write) {
+        int replicas = replicationFactor();
+        int explicit = write ? request.getWriteQuorum() : request.getReadQuorum();
+        int required;
+        if (explicit > 0) {
+            required = explicit;
+        } else if (request.getConsistency() != null) {
+            switch (request.getConsistency()) {
+                case ONE:    required = 1; break;
+                case QUORUM: required = replicas / 2 + 1; break;
+                default:     required = replicas; break;
+            }
+        } else if (write && asyncReplication) {
+            required = 1;
+        } else {
+            required = write ? writeQuorum : readQuorum;
+        }
+        return required <= replicas ? required : -1;
+    }
+
+    private Response tooFewReplicas() {
+        return new Response(Response.Status.ERROR,
+            "Requested quorum exceeds the replication factor " + replicationFactor());
+    }
+
+    private void storeLocal(String key, Storage.Value value) {
+        if (value.isTombstone()) {
+            storage.delete(key, value.getVersion(), value.getDeletedCrdt());
+        } else if (value.getCrdt() != null) {
+            Crdt state = value.getCrdt();
+            storage.updateCrdt(key, state, crdt -> crdt.merge(state));
+        } else {
+            storage.put(key, value.getData(), value.getVersion(), value.getExpiresAt());
+        }
+    }
+
+    private Response storeHint(Request request, Storage.Value value) {
+        if (!hintedHandoff.addHint(request.getHintedFor(), request.getKey(), value)) {
+            return new Response(Response.Status.ERROR, "Hint queue for " + request.getHintedFor() + " is full");
+        }
+        return new Response(Response.Status.SUCCESS, "Hint stored");
+    }
+
+    /**
+     * Builds the version for a new coordinated write: it descends from the
+     * locally stored version (so it supersedes it) and advances this node's entry
+     * from a clock that never repeats, so successive writes through the same
+     * coordinator are always ordered, even across restarts.
+     */
+    private VersionVector nextVersion(String key) {
+        VersionVector version = new VersionVector(nodeId);
+        Storage.Value current = storage.get(key);
+        if (current != null && current.getVersion() != null) {
+            version.update(current.getVersion());
+        }
+        version.advance(nextClockTick());
+        return version;
+    }
+
+    private long nextClockTick() {
+        return versionClock.updateAndGet(last -> Math.max(last + 1, System.currentTimeMillis()));
+    }
+
+    /**
+     * Sloppy quorum: hands the write meant for each unreachable replica to the
+     * next healthy node on the ring outside the preference list, tagged with a
+     * hint naming the intended owner. Returns the number of hinted writes accepted.
+     */
+    private int handOff(String key, Storage.Value value, List<String> preferenceList, List<String> unreachable) {
+        List<String> candidates = hashRing.getNodes(key, hashRing.size());
+        int next = 0;
+        int accepted = 0;
+        for (String owner : unreachable) {
+            while (next < candidates.size()) {
+                String candidate = candidates.get(next++);
+                if (preferenceList.contains(candidate) || healthMonitor.isSuspected(candidate)) {
+                    continue;
+                }
+                if (candidate.equals(nodeId)) {
+                    if (hintedHandoff.addHint(owner, key, value)) {
+                        accepted++;
+                        break;
+                    }
+                    continue;
+                }
+                if (sendToReplica(candidate, Request.forReplica(key, value).withHintedFor(owner))) {
+                    accepted++;
+                    break;
+                }
+            }
+        }
+        return accepted;
+    }
+
+    /**
+     * Sends a replica request to a peer, batched with other writes to it unless
+     * batching is off. Returns true if the peer acknowledged it.
+     */
+    private boolean sendToReplica(String node, Request request) {
+        try {
+            ReplicaBatcher batcher = replicaBatcher;
+            Response response = batcher != null ? batcher.send(node, request) : exchangeWithReplica(node, request);
+            return response.isSuccess();
+        } catch (IOException e) {
+            // Evict the stale connection so next call re-establishes it
+            connections.remove(node);
+            logger.debug("Failed to replicate {} to node {}: {}", request.getType(), node, e.getMessage());
+        }
+        return false;
+    }
+
+    private Response exchangeWithReplica(String node, Request request) throws IOException {
+        NodeConnection connection = getConnection(node);
+        if (connection == null) {
+            throw new IOException("No connection to node " + node);
+        }
+        return connection.sendRequest(request);
+    }
+
+    /**
+     * Serves one batch of this node's change feed: the changes to its own
+     * copies of keys, in the order they were applied. The consumer asks for
+     * the next batch when it is ready for it, so a slow consumer only falls
+     * behind; it never holds up writes. A consumer that falls too far behind
+     * gets an ERROR carrying the oldest offset still held.
+     */
+    private Response handleChanges(Request request) {
+        ChangeLog log = storage.getChangeLog();
+        long from = request.getFromOffset() < 0 ? log.getFirstOffset() : request.getFromOffset();
+        int max = request.getLimit() > 0 ? Math.min(request.getLimit(), MAX_CHANGES_BATCH) : MAX_CHANGES_BATCH;
+        long waitMs = Math.max(0, Math.min(request.getWaitMs(), MAX_CHANGES_WAIT_MS));
+        List<ChangeLog.Change> changes;
+        try {
+            changes = log.read(from, max, waitMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new Response(Response.Status.ERROR, "Interrupted");
+        }
+        if (changes == null) {
+            long oldest = log.getFirstOffset();
+            return new Response(Response.Status.ERROR,
+                "Offset " + from + " is no longer held; the oldest is " + oldest)
+                .withChanges(Collections.emptyList(), oldest);
+        }
+        long next = changes.isEmpty() ? from : changes.get(changes.size() - 1).getOffset() + 1;
+        return new Response(Response.Status.SUCCESS, changes.size() + " changes").withChanges(changes, next);
+    }
+
+    /**
+     * Writes a snapshot of the entries the requesting node owns and offers it
+     * on a transfer port. The change feed offset is taken first, so replaying
+     * the feed from it covers every write the snapshot may have missed.
+     */
+    private Response handleSnapshot(Request request) {
+        String target = request.getSnapshotFor();
+        long offset = storage.getChangeLog().getNextOffset();
+        File file = new File(dataDir, "snapshot-" + target + "-" + System.nanoTime() + ".tmp");
+        try {
+            long entries = SnapshotTransfer.write(storage,
+                key -> hashRing.getNodes(key, replicationFactor()).contains(target), file);
+            long bytes = file.length();
+            int transferPort = SnapshotTransfer.serve(file, replicaExecutor);
+            snapshotsServed.incrementAndGet();
+            return new Response(Response.Status.SUCCESS, entries + " entries")
+                .withSnapshot(transferPort, bytes, offset);
+        } catch (IOException | RejectedExecutionException e) {
+            file.delete();
+            return new Response(Response.Status.ERROR, "Snapshot failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Merges a storage file built by BulkLoader into this node's data. The
+     * file must be in the bulk import directory, once links and ".." are
+     * resolved.
+     */
+    private Response handleBulkLoad(Request request) {
+        if (request.getValue() == null) {
+            return new Response(Response.Status.ERROR, "Bulk load needs a file");
+        }
+        File file = new File(request.getValue());
+        try {
+            File importDir = bulkImportDir.getCanonicalFile();
+            if (!file.getCanonicalFile().toPath().startsWith(importDir.toPath())) {
+                logger.warn("Refused to bulk load {}: outside {}", file, importDir);
+                return new Response(Response.Status.ERROR, "Bulk load files must be in " + importDir);
+            }
+            int entries = storage.attach(file);
+            bulkLoadedEntries.addAndGet(entries);
+            logger.info("Attached {} bulk-loaded entries from {}", entries, file);
+            return new Response(Response.Status.SUCCESS, entries + " entries attached");
+        } catch (IOException e) {
+            return new Response(Response.Status.ERROR, "Bulk load failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Applies the replica writes of a REPLICA_BATCH in order, answering each
+     * one as if it had arrived on its own.
+     */
+    private Response handleReplicaBatch(Request request) {
+        List<Response> answers = new ArrayList<>(request.getBatch().size());
+        for (Request write : request.getBatch()) {
+            answers.add(write.getType() == Request.Type.REPLICA_BATCH
+                ? new Response(Response.Status.ERROR, "Batches do not nest")
+                : processRequest(write));
+        }
+        return new Response(Response.Status.SUCCESS, answers.size() + " writes applied").withBatch(answers);
+    }
+
+    private Response handleGet(Request request) {
+        String key = request.getKey();
+
+        // Replica read: coordinator is collecting quorum — return local value only,
+        // with its version so the coordinator can reconcile (tombstones included)
+        if (request.isReplicaRead()) {
+            // Subscribe before reading, so a write right after the read is reported
+            if (request.getCacheSubscriber() != null) {
+                cacheSubscriptions.subscribe(key, request.getCacheSubscriber());
+            }
+            Storage.Value local = storage.get(key);
+            if (local == null) {
+                return new Response(Response.Status.NOT_FOUND, "Key not found");
+            }
+            if (local.isTombstone() || local.isExpired()) {
+                return new Response(Response.Status.NOT_FOUND, "Key not found", local);
+            }
+            return new Response(Response.Status.SUCCESS, local.getData(), local);
+        }
+
+        // Coordinator read: collect responses from the read quorum
+        int required = requiredReplicas(request, false);
+        if (required < 0) {
+            return tooFewReplicas();
+        }
+        QuorumRead read;
+        try {
+            read = hotKeyRead(key, required);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new Response(Response.Status.ERROR, "Interrupted while reading replicas");
+        }
+        // The requested level is honored, or the read fails: never a weaker read in disguise
+        if (read.answered < required) {
+            return new Response(Response.Status.ERROR, "Failed to achieve read quorum: "
+                + read.answered + " of " + required + " replicas answered");
+        }
+
+        List<Storage.Value> valuesWithVersion = read.values;
+        if (valuesWithVersion.isEmpty()) {
+            return new Response(Response.Status.NOT_FOUND, "Key not found");
+        }
+
+        // Reconcile replica values the same way storage merges writes: the most
+        // recent version wins, concurrent versions come back as siblings
+        Storage.Value best = null;
+        for (Storage.Value candidate : valuesWithVersion) {
+            best = Storage.merge(best, candidate);
+        }
+        // A newer tombstone wins over older values: the key is deleted. An expired
+        // value is hidden straight away, even before its replicas reclaim it.
+        if (best.isTombstone() || best.isExpired()) {
+            return new Response(Response.Status.NOT_FOUND, "Key not found");
+        }
+        return new Response(Response.Status.SUCCESS, best.getData(), best);
+    }
+
+    /**
+     * Coordinated read with hot key protection. Every read is counted; the
+     * result of reading a hot key is kept for hotKeyCacheMs and served to the
+     * reads that follow, so a key read by a crowd costs its replicas a handful of
+     * reads a second instead of one per request.
+     */
+    private QuorumRead hotKeyRead(String key, int required) throws InterruptedException {
+        hotKeys.record(key);
+        long cacheMs = hotKeyCacheMs;
+        boolean hot = cacheMs > 0 && hotKeys.isHot(key);
+        if (hot) {
+            HotRead cached = hotReadCache.get(key);
+            if (cached != null && cached.required >= required && cached.expiresAtMs > System.currentTimeMillis()) {
+                hotKeyCacheHits.incrementAndGet();
+                return new QuorumRead(cached.values, cached.required);
+            }
+        }
+        long ticket = hot ? hotReadTickets.start() : 0;
+        QuorumRead read = cachedRead(key, required);
+        if (hot && read.answered >= required) {
+            if (hotReadCache.size() >= 2 * HotKeyTracker.DEFAULT_TOP_K) {
+                long now = System.currentTimeMillis();
+                hotReadCache.values().removeIf(entry -> entry.expiresAtMs <= now);
+            }
+            // A write coordinated here since the read started may postdate its result
+            HotRead result = new HotRead(read.values, required, System.currentTimeMillis() + cacheMs);
+            hotReadCache.compute(key, (k, cached) -> hotReadTickets.isCurrent(k, ticket) ? result : cached);
+        }
+        return read;
+    }
+
+    /**
+     * Coordinated read through the read cache, when it is on.
+     */
+    private QuorumRead cachedRead(String key, int required) throws InterruptedException {
+        ReadCache cache = readCache;
+        if (cache != null) {
+            List<Storage.Value> cached = cache.get(key, required);
+            if (cached != null) {
+                return new QuorumRead(cached, required);
+            }
+        }
+        long ticket = cache != null ? cache.startRead() : 0;
+        QuorumRead read = readCoalescingEnabled ? coalescedRead(key, required) : readReplicas(key, required);
+        if (cache != null && read.answered >= required) {
+            cache.put(key, read.values, required, ticket);
+        }
+        return read;
+    }
+
+    /**
+     * Single-flight read: if a read of the key with the same quorum is already
+     * in progress on this node, waits for it and shares its result; otherwise
+     * reads the replicas and hands the result to anyone who joined meanwhile.
+     * A hot key read by many clients at once then costs the replicas one read
+     * per round trip rather than one per client.
+     *
+     * Only reads already in flight are shared, and a write coordinated here
+     * detaches them (see {@link #forgetReads}), so a client never gets a
+     * result older than its own preceding write.
+     */
+    private QuorumRead coalescedRead(String key, int required) throws InterruptedException {
+        String flightKey = required + ":" + key;
+        CompletableFuture<QuorumRead> flight = new CompletableFuture<>();
+        CompletableFuture<QuorumRead> existing = readFlights.putIfAbsent(flightKey, flight);
+        if (existing != null) {
+            coalescedReads.incrementAndGet();
+            try {
+                return existing.get();
+            } catch (ExecutionException e) {
+                // The shared read failed; try on our own
+                return readReplicas(key, required);
+            }
+        }
+        try {
+            QuorumRead read = readReplicas(key, required);
+            flight.complete(read);
+            return read;
+        } catch (InterruptedException | RuntimeException e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            readFlights.remove(flightKey, flight);
+        }
+    }
+
+    /**
+     * Drops the cached result of reading the key and stops new reads from
+     * joining reads already in flight, which may have started before a write
+     * to it.
+     */
+    private void forgetReads(String key) {
+        hotReadCache.compute(key, (k, cached) -> {
+            hotReadTickets.invalidate(k);
+            return null;
+        });
+        ReadCache cache = readCache;
+        if (cache != null) {
+            cache.invalidate(key);
+        }
+        notifyNearCaches(key);
+        if (readFlights.isEmpty()) {
+            return;
+        }
+        for (int required = 1; required <= replicationFactor(); required++) {
+            readFlights.remove(required + ":" + key);
+        }
+    }
+
+    /**
+     * Runs on every change to a locally stored key: drops it from this node's
+     * read cache and tells the coordinators that cached it.
+     */
+    private void onLocalChange(String key) {
+        ReadCache cache = readCache;
+        if (cache != null) {
+            cache.invalidate(key);
+        }
+        notifyNearCaches(key);
+        Set<String> subscribers = cacheSubscriptions.take(key);
+        if (subscribers.isEmpty() || !running) {
+            return;
+        }
+        // Called with the key locked: send from another thread
+        try {
+            replicaExecutor.execute(() -> {
+                for (String subscriber : subscribers) {
+                    invalidationsSent.incrementAndGet();
+                    try {
+                        NodeConnection connection = getConnection(subscriber, AdmissionController.TrafficClass.CONTROL);
+                        if (connection != null) {
+                            connection.sendRequest(new Request(Request.Type.INVALIDATE, key, null));
+                        }
+                    } catch (IOException e) {
+                        // The subscriber's staleness bound covers a lost notification
+                        controlConnections.remove(subscriber);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Same: the staleness bound covers it
+        }
+    }
+
+    /**
+     * Pushes an INVALIDATED message for the key to the client connections whose
+     * near cache holds it. This node hears of a change when it coordinates the
+     * write, when its own copy changes, or from a replica it read the key from.
+     */
+    private void notifyNearCaches(String key) {
+        if (nearCacheClients.isEmpty()) {
+            return;
+        }
+        Set<String> subscribers = nearCacheSubscriptions.take(key);
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        // May be called with the key locked: write from another thread
+        try {
+            replicaExecutor.execute(() -> {
+                for (String subscriber : subscribers) {
+                    ObjectOutputStream out = nearCacheClients.get(subscriber);
+                    if (out == null) {
+                        continue;
+                    }
+                    try {
+                        synchronized (out) {
+                            out.writeObject(new Response(Response.Status.INVALIDATED, key));
+                            out.flush();
+                        }
+                        nearCacheInvalidationsPushed.incrementAndGet();
+                    } catch (IOException e) {
+                        // Connection gone; the handler thread cleans up
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // The client's staleness bound covers a lost notification
+        }
+    }
+
+    /**
+     * A replica reports that a key this node may have cached has changed.
+     */
+    private Response handleInvalidate(Request request) {
+        ReadCache cache = readCache;
+        if (cache != null) {
+            cache.invalidate(request.getKey());
+        }
+        notifyNearCaches(request.getKey());
+        return new Response(Response.Status.SUCCESS, "Invalidated");
+    }
+
+    /**
+     * Reads the key from {@code required} replicas and returns the values found
+     * with the number of replicas that answered (a replica that does not have
+     * the key still counts as an answer). Fewer than {@code required} answer
+     * only when replicas failed and no spare was left to replace them.
+     *
+     * With adaptive replica selection on, the quorum is made of the replicas
+     * expected to answer fastest rather than the first ones on the ring.
+     * The quorum replicas are read in parallel. A replica that fails is replaced
+     * by the next replica of the preference list. With hedged reads on, a
+     * replica that is slower than its usual latency percentile gets a backup: the
+     * read goes to one more replica as well, and whichever answers first counts.
+     * That cuts the tail a single slow replica (a GC pause, a busy disk) adds to
+     * reads, for a few percent more replica reads.
+     */
+    private QuorumRead readReplicas(String key, int required) throws InterruptedException {
+        coordinatedReads.incrementAndGet();
+        List<String> replicas = hashRing.getNodes(key, replicationFactor());
+        int quorum = Math.min(required, replicas.size());
+        if (adaptiveReplicaSelection && quorum < replicas.size()) {
+            List<String> ranked = replicaSelector.rank(replicas);
+            if (!new HashSet<>(ranked.subList(0, quorum)).equals(new HashSet<>(replicas.subList(0, quorum)))) {
+                reorderedReads.incrementAndGet();
+            }
+            replicas = ranked;
+        }
+        Deque<String> spares = new ArrayDeque<>();
+        for (String node : replicas.subList(quorum, replicas.size())) {
+            if (!healthMonitor.isSuspected(node)) {
+                spares.add(node);
+            }
+        }
+
+        BlockingQueue<ReplicaRead> replies = new LinkedBlockingQueue<>();
+        // Replicas with a read in flight, and when it was sent
+        Map<String, Long> outstanding = new LinkedHashMap<>();
+        Set<String> hedgedTo = new HashSet<>();
+        for (String node : replicas.subList(0, quorum)) {
+            sendReplicaRead(node, key, replies, outstanding);
+        }
+
+        List<Storage.Value> values = new ArrayList<>();
+        int answered = 0;
+        while (answered < quorum && !outstanding.isEmpty()) {
+            long delayNanos = hedgedTo.size() < MAX_HEDGES && !spares.isEmpty() ? hedgeDelayNanos(outstanding) : -1;
+            ReplicaRead reply = delayNanos < 0 ? replies.take() : replies.poll(delayNanos, TimeUnit.NANOSECONDS);
+            if (reply == null) {
+                String spare = spares.poll();
+                hedgedTo.add(spare);
+                hedgedReads.incrementAndGet();
+                sendReplicaRead(spare, key, replies, outstanding);
+                continue;
+            }
+            outstanding.remove(reply.node);
+            if (reply.answered) {
+                answered++;
+                if (reply.value != null) {
+                    values.add(reply.value);
+                }
+                if (hedgedTo.contains(reply.node)) {
+                    hedgeWins.incrementAndGet();
+                }
+            } else if (!spares.isEmpty()) {
+                sendReplicaRead(spares.poll(), key, replies, outstanding);
+            }
+        }
+        return new QuorumRead(values, answered);
+    }
+
+    /**
+     * Starts one replica read; the result is put on {@code replies}. The local
+     * copy is read inline.
+     */
+    private void sendReplicaRead(String node, String key, BlockingQueue<ReplicaRead> replies,
+                                 Map<String, Long> outstanding) {
+        outstanding.put(node, System.nanoTime());
+        if (node.equals(nodeId)) {
+            replies.add(new ReplicaRead(node, true, storage.get(key)));
+            return;
+        }
+        replicaReadsSent.incrementAndGet();
+        try {
+            replicaExecutor.execute(() -> {
+                long start = System.nanoTime();
+                replicaSelector.onSend(node);
+                try {
+                    NodeConnection connection = getConnection(node);
+                    if (connection != null) {
+                        Request read = new Request(Request.Type.GET, key, null, null, true);
+                        // Replicas report changes to keys cached here or in clients' near caches
+                        if (readCache != null || !nearCacheClients.isEmpty()) {
+                            read.withCacheSubscriber(nodeId);
+                        }
+                        Response r = connection.sendRequest(read);
+                        // Recorded even when nobody waits for the reply any more, so
+                        // the percentile reflects the slow reads too
+                        long latency = System.nanoTime() - start;
+                        replicaLatencies.computeIfAbsent(node, id -> new LatencyTracker()).record(latency);
+                        replicaSelector.onReply(node, latency, r.getQueueDepth());
+                        boolean answered = r.isSuccess() || r.getStatus() == Response.Status.NOT_FOUND;
+                        replies.add(new ReplicaRead(node, answered, r.getValue()));
+                        return;
+                    }
+                } catch (IOException e) {
+                    // Evict the stale connection so next call re-establishes it
+                    connections.remove(node);
+                    logger.debug("Quorum read: failed to get from node {}: {}", node, e.getMessage());
+                }
+                replicaSelector.onFailure(node);
+                replies.add(new ReplicaRead(node, false, null));
+            });
+        } catch (RejectedExecutionException e) {
+            replies.add(new ReplicaRead(node, false, null));
+        }
+    }
+
+    /**
+     * Returns how long to wait before hedging: until the first outstanding
+     * replica passes its latency percentile. Returns -1 if no outstanding
+     * replica has enough history to hedge against.
+     */
+    private long hedgeDelayNanos(Map<String, Long> outstanding) {
+        if (!hedgedReadsEnabled) {
+            return -1;
+        }
+        long now = System.nanoTime();
+        long delay = -1;
+        for (Map.Entry<String, Long> entry : outstanding.entrySet()) {
+            LatencyTracker tracker = replicaLatencies.get(entry.getKey());
+            if (tracker == null || tracker.size() < MIN_HEDGE_SAMPLES) {
+                continue;
+            }
+            long remaining = Math.max(0, entry.getValue() + tracker.percentile(hedgePercentile) - now);
+            delay = delay < 0 ? remaining : Math.min(delay, remaining);
+        }
+        return delay;
+    }
+
+    /**
+     * Ordered range scan. Keys are hash-partitioned, so every token range may
+     * hold keys in [start, end): the coordinator asks a set of nodes covering all
+     * ranges for their first page of keys, merges them in key order (reconciling
+     * replicas of the same key) and keeps the first {@code limit}. That is exact,
+     * since any key in the global first page is in its replica's first page.
+     *
+     * Each reply is capped at the page size, so memory stays bounded on both
+     * sides; the continuation token resumes the scan just after the last key.
+     */
+    private Response handleScan(Request request) {
+        int limit = request.getLimit() <= 0 ? DEFAULT_SCAN_LIMIT : Math.min(request.getLimit(), MAX_SCAN_LIMIT);
+
+        // Replica scan: return the local page only
+        if (request.isReplicaRead()) {
+            return new Response(Response.Status.SUCCESS,
+                storage.scan(request.getKey(), request.getEndKey(), limit), null);
+        }
+
+        TreeMap<String, Storage.Value> merged = new TreeMap<>();
+        boolean truncated = false;
+        Set<String> queried = new HashSet<>();
+        Set<String> failed = new HashSet<>();
+        while (true) {
+            Set<String> excluded = new HashSet<>(failed);
+            for (String node : hashRing.getAllNodes()) {
+                if (healthMonitor.isSuspected(node)) {
+                    excluded.add(node);
+                }
+            }
+            Set<String> cover;
+            try {
+                cover = hashRing.getCoveringNodes(replicationFactor(), nodeId, excluded);
+            } catch (IllegalStateException e) {
+                return new Response(Response.Status.ERROR, "Scan failed: " + e.getMessage());
+            }
+            boolean complete = true;
+            for (String node : cover) {
+                if (!queried.add(node)) {
+                    continue;
+                }
+                Map<String, Storage.Value> page = scanNode(node, request, limit);
+                if (page == null) {
+                    // Re-plan the cover without this node
+                    failed.add(node);
+                    complete = false;
+                    break;
+                }
+                truncated |= page.size() >= limit;
+                page.forEach((key, value) -> merged.merge(key, value, Storage::merge));
+            }
+            if (complete) {
+                break;
+            }
+        }
+
+        Map<String, Storage.Value> entries = new LinkedHashMap<>();
+        String lastKey = null;
+        int taken = 0;
+        for (Map.Entry<String, Storage.Value> entry : merged.entrySet()) {
+            if (taken++ == limit) {
+                truncated = true;
+                break;
+            }
+            lastKey = entry.getKey();
+            if (!entry.getValue().isTombstone() && !entry.getValue().isExpired()) {
+                entries.put(entry.getKey(), entry.getValue());
+            }
+        }
+        // The smallest key after lastKey: lastKey followed by the lowest character
+        String continuation = truncated && lastKey != null ? lastKey + '\u0000' : null;
+        return new Response(Response.Status.SUCCESS, entries, continuation);
+    }
+
+    /**
+     * Fetches one node's page of a scan, or null if the node cannot be reached.
+     */
+    private Map<String, Storage.Value> scanNode(String node, Request request, int limit) {
+        if (node.equals(nodeId)) {
+            return storage.scan(request.getKey(), request.getEndKey(), limit);
+        }
+        try {
+            NodeConnection connection = getConnection(node);
+            if (connection != null) {
+                Response r = connection.sendRequest(request.toReplicaScan(limit));
+                if (r.isSuccess() && r.getEntries() != null) {
+                    return r.getEntries();
+                }
+            }
+        } catch (IOException e) {
+            connections.remove(node);
+            logger.debug("Scan: failed to read from node {}: {}", node, e.getMessage());
+        }
+        return null;
+    }
+
+    private Response handleDelete(Request request) {
+        String key = request.getKey();
+        List<String> nodes = hashRing.getNodes(key, replicationFactor());
+
+        // Hinted delete: hold the tombstone for the unreachable owner
+        if (request.getVersion() != null && request.getHintedFor() != null) {
+            return storeHint(request, Storage.Value.tombstone(request.getVersion()).withDeletedCrdt(request.getCrdt()));
+        }
+
+        // Replica delete: another node is coordinating — record the tombstone locally
+        if (request.getVersion() != null) {
+            storage.delete(key, request.getVersion(), request.getCrdt());
+            return new Response(Response.Status.SUCCESS, "Replica deleted");
+        }
+
+        // Coordinator delete: replicate a versioned tombstone like any other write
+        int required = requiredReplicas(request, true);
+        if (required < 0) {
+            return tooFewReplicas();
+        }
+        // Deleting a CRDT: replicas that never held it still learn what was deleted
+        Storage.Value tombstone = Storage.Value.tombstone(nextVersion(key));
+        Storage.Value local = storage.get(key);
+        if (local != null && (local.getCrdt() != null || local.getDeletedCrdt() != null)) {
+            tombstone = tombstone.withDeletedCrdt(
+                local.getCrdt() != null ? local.getCrdt().clear() : local.getDeletedCrdt());
+        }
+        if (replicate(key, tombstone, nodes, required) >= required) {
+            return new Response(Response.Status.SUCCESS, "Value deleted");
+        } else {
+            return new Response(Response.Status.ERROR, "Failed to achieve write quorum");
+        }
+    }
+
+    /**
+     * Returns node-level metrics, also served by the STATS request.
+     */
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("keys", (long) storage.size());
+        stats.put("storageShards", (long) storage.getShardCount());
+        stats.put("tombstones", storage.getTombstoneCount());
+        stats.put("tombstonesPurged", storage.getPurgedTombstoneCount());
+        stats.put("expired", storage.getExpiredCount());
+        PersistenceQueue<?> persistence = storage.getPersistenceQueue();
+        stats.put("persistQueueDepth", (long) persistence.getQueueDepth());
+        stats.put("persistFlushes", persistence.getFlushes());
+        stats.put("persistCoalesced", persistence.getCoalesced());
+        stats.put("persistLastFlushMicros", persistence.getLastFlushMicros());
+        stats.put("persistAvgFlushMicros", persistence.getAvgFlushMicros());
+        stats.put("persistMaxFlushMicros", persistence.getMaxFlushMicros());
+        stats.put("persistObservedMaxDirtyMs", persistence.getObservedMaxDirtyMs());
+        stats.put("changeFeedFirstOffset", storage.getChangeLog().getFirstOffset());
+        stats.put("changeFeedNextOffset", storage.getChangeLog().getNextOffset());
+        stats.put("snapshotsServed", snapshotsServed.get());
+        stats.put("bulkLoadedEntries", bulkLoadedEntries.get());
+        stats.put("bootstrapEntries", bootstrapEntries.get());
+        stats.put("bootstrapBytes", bootstrapBytes.get());
+        stats.put("bootstrapCatchUpChanges", bootstrapCatchUpChanges.get());
+        stats.put("pendingHints", (long) hintedHandoff.totalPendingHints());
+        stats.put("hintsDropped", hintedHandoff.getDroppedHints());
+        stats.put("coordinatedReads", coordinatedReads.get());
+        stats.put("replicaReadsSent", replicaReadsSent.get());
+        stats.put("hedgedReads", hedgedReads.get());
+        stats.put("hedgeWins", hedgeWins.get());
+        stats.put("reorderedReads", reorderedReads.get());
+        stats.put("coalescedReads", coalescedReads.get());
+        stats.put("hotKeys", (long) hotKeys.hotCount());
+        stats.put("hotKeyCacheHits", hotKeyCacheHits.get());
+        ReadCache cache = readCache;
+        if (cache != null) {
+            long lookups = cache.getHits() + cache.getMisses();
+            stats.put("readCacheHits", cache.getHits());
+            stats.put("readCacheMisses", cache.getMisses());
+            stats.put("readCacheHitRatioPct", lookups == 0 ? 0 : 100 * cache.getHits() / lookups);
+            stats.put("readCacheEntries", (long) cache.size());
+            stats.put("readCacheBytes", cache.getBytes());
+            stats.put("readCacheEvictions", cache.getEvictions());
+            stats.put("readCacheInvalidations", cache.getInvalidations());
+        }
+        stats.put("cacheSubscriptions", (long) cacheSubscriptions.size());
+        stats.put("invalidationsSent", invalidationsSent.get());
+        stats.put("nearCacheClients", (long) nearCacheClients.size());
+        stats.put("nearCacheInvalidationsPushed", nearCacheInvalidationsPushed.get());
+        ReplicaBatcher batcher = replicaBatcher;
+        if (batcher != null) {
+            stats.put("replicaWriteFrames", batcher.getFramesSent());
+            stats.put("replicaWritesBatched", batcher.getWritesSent());
+        }
+        stats.put("asyncReplicationPending", (long) replicationQueue.getPending());
+        stats.put("asyncReplicationLagMs", replicationQueue.getLagMs());
+        stats.put("asyncReplicationMaxLagMs", replicationQueue.getMaxLagMs());
+        stats.put("asyncReplicationPropagated", replicationQueue.getPropagated());
+        stats.put("asyncReplicationRetries", replicationQueue.getRetries());
+        stats.put("asyncReplicationFailures", replicationQueue.getFailures());
+        stats.put("asyncReplicationRejected", replicationQueue.getRejected());
+        stats.put("healthProbes", healthMonitor.getProbesSent());
+        stats.put("indirectProbes", healthMonitor.getIndirectProbesSent());
+        stats.put("protocolPeriods", healthMonitor.getProtocolPeriods());
+        stats.put("membersAlive", (long) membership.count(Membership.Status.ALIVE));
+        stats.put("membersSuspect", (long) membership.count(Membership.Status.SUSPECT));
+        stats.put("membersDead", (long) membership.count(Membership.Status.DEAD));
+        stats.put("membershipChanges", membership.getChangeCount());
+        stats.put("msSinceMembershipChange", System.currentTimeMillis() - membership.getLastChangeMs());
+        stats.put("membershipDigest", membership.digest());
+        for (AdmissionController.TrafficClass trafficClass : AdmissionController.TrafficClass.values()) {
+            AdaptiveLimiter limiter = admissionController.getLimiter(trafficClass);
+            if (limiter != null) {
+                String name = trafficClass.name().toLowerCase();
+                stats.put(name + "Limit", (long) limiter.getLimit());
+                stats.put(name + "InFlight", (long) limiter.getInFlight());
+                stats.put(name + "Rejected", limiter.getRejected());
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Called by the HealthMonitor when a peer answers a heartbeat. Replays any
+     * hints held for that peer on a background thread.
+     */
+    void onPeerAvailable(String peerId) {
+        if (!running || hintedHandoff.pendingHints(peerId) == 0) {
+            return;
+        }
+        try {
+            executorService.submit(() -> {
+                try {
+                    NodeConnection connection = getConnection(peerId);
+                    if (connection != null) {
+                        int delivered = hintedHandoff.replay(peerId, connection);
+                        if (delivered > 0) {
+                            logger.info("Delivered {} hinted writes to node {}", delivered, peerId);
+                        }
+                    }
+                } catch (IOException e) {
+                    connections.remove(peerId);
+                    logger.debug("Hint replay to node {} interrupted: {}", peerId, e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Shutting down or out of threads; the hints stay queued for the next heartbeat
+        }
+    }
+
+    /**
+     * Returns the peers this node holds undelivered hints for.
+     */
+    Set<String> getHintedNodes() {
+        return hintedHandoff.getHintedNodes();
+    }
+
+    Storage getStorage() {
+        return storage;
+    }
+
+    ConsistentHashRing getHashRing() {
+        return hashRing;
+    }
+
+    Membership getMembership() {
+        return membership;
+    }
+
+    /**
+     * Returns an active connection to the given peer node, creating one if needed.
+     * Returns null if the connection cannot be established.
+     */
+    public NodeConnection getConnection(String nodeId) {
+        return getConnection(nodeId, AdmissionController.TrafficClass.REPLICA);
+    }
+
+    /**
+     * Returns the connection to a peer for the given traffic lane. Control
+     * traffic (heartbeats) has connections of its own, so it never waits behind
+     * replica requests on a shared stream.
+     */
+    public NodeConnection getConnection(String nodeId, AdmissionController.TrafficClass lane) {
+        Map<String, NodeConnection> pool =
+            lane == AdmissionController.TrafficClass.CONTROL ? controlConnections : connections;
+        return pool.computeIfAbsent(nodeId, id -> {
+            try {
+                int targetPort = peerPorts.getOrDefault(id, port);
+                if (lane == AdmissionController.TrafficClass.CONTROL) {
+                    // Health probes must not hang on an unresponsive peer
+                    return new NodeConnection(id, targetPort, (int) HealthMonitor.PROBE_TIMEOUT_MS);
+                }
+                NodeConnection connection = new NodeConnection(id, targetPort);
+                connection.setResponseListener(() -> {
+                    if (livenessPiggybackEnabled) {
+                        healthMonitor.recordHeartbeat(id);
+                    }
+                });
+                return connection;
+            } catch (IOException e) {
+                logger.error("Error creating connection to node {}: {}", id, e.getMessage());
                 return null;
             }
         });
     }
 
+    /**
+     * One replica's answer to a coordinated read. {@code answered} is false if
+     * the replica could not be read.
+     */
+    private static class ReplicaRead {
+        private final String node;
+        private final boolean answered;
+        private final Storage.Value value;
+
+        ReplicaRead(String node, boolean answered, Storage.Value value) {
+            this.node = node;
+            this.answered = answered;
+            this.value = value;
+        }
+    }
+
+    /**
+     * The outcome of a coordinated read: the values found, and how many
+     * replicas answered
+     */
+    private static class QuorumRead {
+        private final List<Storage.Value> values;
+        private final int answered;
+
+        QuorumRead(List<Storage.Value> values, int answered) {
+            this.values = Collections.unmodifiableList(values);
+            this.answered = answered;
+        }
+    }
+
+    /**
+     * A cached coordinated read of a hot key
+     */
+    private static class HotRead {
+        private final List<Storage.Value> values;
+        private final int required;
+        private final long expiresAtMs;
+
+        HotRead(List<Storage.Value> values, int required, long expiresAtMs) {
+            this.values = values;
+            this.required = required;
+            this.expiresAtMs = expiresAtMs;
+        }
+    }
+
     public static void main(String[] args) {
         if (args.length < 1) {
-            System.out.println("Usage: java Node <port>");
+            System.out.println("Usage: java Node <port> [storageShards]");
             return;
         }
         int port = Integer.parseInt(args[0]);
+        int storageShards = args.length > 1 ? Integer.parseInt(args[1]) : 1;
         String dataDir = "data/node_" + port;
-        Node node = new Node(port, dataDir, 2, 2);
+        Node node = new Node(UUID.randomUUID().toString(), port, dataDir, 2, 2, storageShards);
         node.start();
     }
 }
\ No newline at end of file
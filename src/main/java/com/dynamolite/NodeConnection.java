@@ -1,7 +1,9 @@
 package com.dynamolite;
 
 import java.io.*;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -14,19 +16,43 @@ public class NodeConnection {
     private static final Logger logger = LoggerFactory.getLogger(NodeConnection.class);
     private final String nodeId;
     private final int port;
+    private final int timeoutMs;
+    private volatile Runnable responseListener;
     private Socket socket;
     private ObjectOutputStream out;
     private ObjectInputStream in;
 
     public NodeConnection(String nodeId, int port) throws IOException {
+        this(nodeId, port, 0);
+    }
+
+    /**
+     * Creates a connection whose connects and reads time out after
+     * {@code timeoutMs} (0 waits indefinitely). A timed-out exchange is not
+     * sent again: the peer may have received it, and its deadline has passed.
+     * The connection is closed instead and reopened by the next exchange.
+     */
+    public NodeConnection(String nodeId, int port, int timeoutMs) throws IOException {
         this.nodeId = nodeId;
         this.port = port;
+        this.timeoutMs = timeoutMs;
         connect();
     }
 
+    /**
+     * Sets a callback run after every response received, e.g. to count it as a
+     * sign of life from the peer.
+     */
+    public void setResponseListener(Runnable listener) {
+        this.responseListener = listener;
+    }
+
     private void connect() throws IOException {
         try {
-            socket = new Socket("localhost", port);
+            socket = new Socket();
+            socket.connect(new InetSocketAddress("localhost", port), timeoutMs);
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(timeoutMs);
             // ObjectOutputStream MUST be created and flushed before ObjectInputStream
             // to avoid deadlock when both sides open streams simultaneously.
             out = new ObjectOutputStream(socket.getOutputStream());
@@ -42,12 +68,27 @@ public class NodeConnection {
      * Sends a request and returns the response.
      * If the connection has gone stale (e.g. remote node restarted), attempts
      * one reconnect before propagating the failure.
+     * Synchronized because a connection is shared by request handlers, the
+     * health monitor and hint replay; the streams carry one exchange at a time.
      */
-    public Response sendRequest(Request request) throws IOException {
+    public synchronized Response sendRequest(Request request) throws IOException {
+        Response response = exchange(request);
+        Runnable listener = responseListener;
+        if (listener != null) {
+            listener.run();
+        }
+        return response;
+    }
+
+    private Response exchange(Request request) throws IOException {
         try {
             out.writeObject(request);
             out.flush();
             return (Response) in.readObject();
+        } catch (SocketTimeoutException e) {
+            // A late answer would be read as the next exchange's, so start afresh
+            close();
+            throw e;
         } catch (IOException e) {
             // Connection may be stale — try reconnecting once
             logger.warn("Connection to node {} lost ({}), attempting reconnect...", nodeId, e.getMessage());
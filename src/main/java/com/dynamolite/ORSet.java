@@ -0,0 +1,130 @@
+package com.dynamolite;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * ORSet is an observed-remove set. Every add is tagged with a unique id; a
+ * remove only cancels the tags it has observed, so an add concurrent with a
+ * remove survives (add wins). Merging is the union of adds and removed tags.
+ * Clearing the set removes every tag observed so far.
+ */
+public class ORSet implements Crdt {
+    private static final long serialVersionUID = 1L;
+    private final Map<String, Set<String>> adds;
+    private final Set<String> removedTags;
+
+    public ORSet() {
+        this(Collections.emptyMap(), Collections.emptySet());
+    }
+
+    private ORSet(Map<String, Set<String>> adds, Set<String> removedTags) {
+        this.adds = adds;
+        this.removedTags = removedTags;
+    }
+
+    /**
+     * Returns a set with the element added under a tag that must be unique
+     * across the cluster (e.g. node id plus a node-local counter).
+     */
+    public ORSet add(String element, String tag) {
+        Map<String, Set<String>> newAdds = copy(adds);
+        newAdds.computeIfAbsent(element, e -> new HashSet<>()).add(tag);
+        return new ORSet(newAdds, removedTags);
+    }
+
+    /**
+     * Returns a set with every observed tag of the element removed.
+     */
+    public ORSet remove(String element) {
+        Set<String> tags = adds.get(element);
+        if (tags == null) {
+            return this;
+        }
+        Set<String> newRemoved = new HashSet<>(removedTags);
+        newRemoved.addAll(tags);
+        return new ORSet(adds, newRemoved);
+    }
+
+    public boolean contains(String element) {
+        Set<String> tags = adds.get(element);
+        if (tags == null) {
+            return false;
+        }
+        for (String tag : tags) {
+            if (!removedTags.contains(tag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the current members in sorted order.
+     */
+    public Set<String> elements() {
+        Set<String> elements = new TreeSet<>();
+        for (String element : adds.keySet()) {
+            if (contains(element)) {
+                elements.add(element);
+            }
+        }
+        return elements;
+    }
+
+    @Override
+    public Crdt merge(Crdt other) {
+        ORSet that = (ORSet) other;
+        Map<String, Set<String>> mergedAdds = copy(adds);
+        that.adds.forEach((element, tags) ->
+            mergedAdds.computeIfAbsent(element, e -> new HashSet<>()).addAll(tags));
+        Set<String> mergedRemoved = new HashSet<>(removedTags);
+        mergedRemoved.addAll(that.removedTags);
+        return new ORSet(mergedAdds, mergedRemoved);
+    }
+
+    @Override
+    public Crdt clear() {
+        Set<String> newRemoved = new HashSet<>(removedTags);
+        adds.values().forEach(newRemoved::addAll);
+        return new ORSet(adds, newRemoved);
+    }
+
+    private static Map<String, Set<String>> copy(Map<String, Set<String>> source) {
+        Map<String, Set<String>> copy = new HashMap<>();
+        source.forEach((element, tags) -> copy.put(element, new HashSet<>(tags)));
+        return copy;
+    }
+
+    @Override
+    public String render() {
+        return elements().toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ORSet)) {
+            return false;
+        }
+        ORSet that = (ORSet) o;
+        return adds.equals(that.adds) && removedTags.equals(that.removedTags);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(adds, removedTags);
+    }
+
+    @Override
+    public String toString() {
+        return render();
+    }
+}
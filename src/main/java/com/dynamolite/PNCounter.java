@@ -0,0 +1,110 @@
+package com.dynamolite;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * PNCounter is a counter that supports increments and decrements without
+ * read-modify-write. Each node only ever grows its own entries (keyed by node
+ * id, like a VersionVector), and merging takes the per-node maximum.
+ *
+ * Clearing the counter does not shrink any entry: it records the entries at
+ * that point as a baseline, itself merged by maximum, that the value is
+ * counted from.
+ */
+public class PNCounter implements Crdt {
+    private static final long serialVersionUID = 1L;
+    private final Map<String, Long> increments;
+    private final Map<String, Long> decrements;
+    private final Map<String, Long> clearedIncrements;
+    private final Map<String, Long> clearedDecrements;
+
+    public PNCounter() {
+        this(Collections.emptyMap(), Collections.emptyMap(), Collections.emptyMap(), Collections.emptyMap());
+    }
+
+    private PNCounter(Map<String, Long> increments, Map<String, Long> decrements,
+                      Map<String, Long> clearedIncrements, Map<String, Long> clearedDecrements) {
+        this.increments = increments;
+        this.decrements = decrements;
+        this.clearedIncrements = clearedIncrements;
+        this.clearedDecrements = clearedDecrements;
+    }
+
+    /**
+     * Returns a counter with the given delta applied on behalf of a node.
+     * Negative deltas decrement.
+     */
+    public PNCounter add(String nodeId, long delta) {
+        Map<String, Long> p = increments;
+        Map<String, Long> n = decrements;
+        if (delta >= 0) {
+            p = new HashMap<>(increments);
+            p.merge(nodeId, delta, Long::sum);
+        } else {
+            n = new HashMap<>(decrements);
+            n.merge(nodeId, -delta, Long::sum);
+        }
+        return new PNCounter(p, n, clearedIncrements, clearedDecrements);
+    }
+
+    public long value() {
+        return sum(increments) - sum(decrements) - sum(clearedIncrements) + sum(clearedDecrements);
+    }
+
+    private static long sum(Map<String, Long> counts) {
+        long total = 0;
+        for (long v : counts.values()) {
+            total += v;
+        }
+        return total;
+    }
+
+    @Override
+    public Crdt merge(Crdt other) {
+        PNCounter that = (PNCounter) other;
+        return new PNCounter(max(increments, that.increments), max(decrements, that.decrements),
+            max(clearedIncrements, that.clearedIncrements), max(clearedDecrements, that.clearedDecrements));
+    }
+
+    @Override
+    public Crdt clear() {
+        return new PNCounter(increments, decrements, increments, decrements);
+    }
+
+    private static Map<String, Long> max(Map<String, Long> a, Map<String, Long> b) {
+        Map<String, Long> merged = new HashMap<>(a);
+        b.forEach((node, count) -> merged.merge(node, count, Math::max));
+        return merged;
+    }
+
+    @Override
+    public String render() {
+        return Long.toString(value());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PNCounter)) {
+            return false;
+        }
+        PNCounter that = (PNCounter) o;
+        return increments.equals(that.increments) && decrements.equals(that.decrements)
+            && clearedIncrements.equals(that.clearedIncrements) && clearedDecrements.equals(that.clearedDecrements);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(increments, decrements, clearedIncrements, clearedDecrements);
+    }
+
+    @Override
+    public String toString() {
+        return render();
+    }
+}
@@ -0,0 +1,224 @@
+package com.dynamolite;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * PersistenceQueue saves changed data to disk on a dedicated I/O thread, so
+ * the threads that change the data never wait for the disk.
+ *
+ * A writer marks its target (for Storage, a shard) dirty and returns. The
+ * queue holds at most one pending flush per target: marking a target that is
+ * already pending only counts as coalesced, so any number of changes collapse
+ * into one write of the target's latest state, and the queue never grows past
+ * the number of targets. A target is flushed at most maxDirtyMs after it first
+ * became dirty; waiting that long lets a burst of changes share one flush.
+ * A target marked while it is being written is queued again, so a change is
+ * never left unsaved.
+ *
+ * Once the queue is closed, marks write the target on the caller's thread.
+ */
+public class PersistenceQueue<T> {
+    private static final Logger logger = LoggerFactory.getLogger(PersistenceQueue.class);
+    static final long DEFAULT_MAX_DIRTY_MS = 50;
+
+    private final Consumer<T> writer;
+    private final String name;
+    private final Map<T, Flush<T>> pending = new ConcurrentHashMap<>();
+    private final DelayQueue<Flush<T>> due = new DelayQueue<>();
+    // Held while a flush is being written, so flush() can wait for it
+    private final Object writeLock = new Object();
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong flushNanos = new AtomicLong();
+    private final LongAccumulator maxFlushNanos = new LongAccumulator(Math::max, 0);
+    private final LongAccumulator maxDirtyNanos = new LongAccumulator(Math::max, 0);
+    private volatile long lastFlushNanos;
+    private volatile long maxDirtyMs = DEFAULT_MAX_DIRTY_MS;
+    private Thread thread;
+    private volatile boolean closed;
+
+    public PersistenceQueue(String name, Consumer<T> writer) {
+        this.name = name;
+        this.writer = writer;
+    }
+
+    /**
+     * Sets how long a target may stay dirty before it is flushed (0 flushes
+     * as soon as the I/O thread gets to it).
+     */
+    public void setMaxDirtyMs(long maxDirtyMs) {
+        if (maxDirtyMs < 0) {
+            throw new IllegalArgumentException("Max dirty time must not be negative");
+        }
+        this.maxDirtyMs = maxDirtyMs;
+    }
+
+    /**
+     * Records that the target has changed and schedules its flush, unless one
+     * is already pending.
+     */
+    public void markDirty(T target) {
+        if (closed) {
+            write(new Flush<>(target, 0));
+            return;
+        }
+        Flush<T> flush = new Flush<>(target, maxDirtyMs);
+        if (pending.putIfAbsent(target, flush) != null) {
+            coalesced.incrementAndGet();
+            return;
+        }
+        startIfNeeded();
+        due.add(flush);
+        if (closed) {
+            flush(); // closed meanwhile, after its own last flush
+        }
+    }
+
+    private synchronized void startIfNeeded() {
+        if (thread == null && !closed) {
+            thread = new Thread(this::work, name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private void work() {
+        while (!closed) {
+            Flush<T> flush;
+            try {
+                flush = due.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            synchronized (writeLock) {
+                // Marks from here on queue the target again, for the next flush
+                if (pending.remove(flush.target, flush)) {
+                    write(flush);
+                }
+            }
+        }
+    }
+
+    private void write(Flush<T> flush) {
+        long start = System.nanoTime();
+        try {
+            writer.accept(flush.target);
+        } catch (RuntimeException e) {
+            logger.error("Flush of {} failed: {}", flush.target, e.getMessage());
+        }
+        long end = System.nanoTime();
+        flushes.incrementAndGet();
+        lastFlushNanos = end - start;
+        flushNanos.addAndGet(end - start);
+        maxFlushNanos.accumulate(end - start);
+        maxDirtyNanos.accumulate(end - flush.dirtySinceNanos);
+    }
+
+    /**
+     * Writes every pending target now, on the caller's thread, and waits for
+     * a flush in progress. Everything marked before the call is on disk when
+     * it returns.
+     */
+    public void flush() {
+        synchronized (writeLock) {
+            for (T target : pending.keySet()) {
+                Flush<T> flush = pending.remove(target);
+                if (flush != null) {
+                    due.remove(flush);
+                    write(flush);
+                }
+            }
+        }
+    }
+
+    /**
+     * Flushes what is pending and stops the I/O thread. Later marks are
+     * written inline.
+     */
+    public void close() {
+        Thread worker;
+        synchronized (this) {
+            closed = true;
+            worker = thread;
+            thread = null;
+        }
+        if (worker != null) {
+            worker.interrupt();
+            try {
+                worker.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
+    }
+
+    /**
+     * Returns the number of targets waiting to be flushed
+     */
+    public int getQueueDepth() {
+        return pending.size();
+    }
+
+    public long getFlushes() {
+        return flushes.get();
+    }
+
+    /**
+     * Returns the number of marks absorbed by a flush already pending
+     */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    public long getLastFlushMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(lastFlushNanos);
+    }
+
+    public long getAvgFlushMicros() {
+        long count = flushes.get();
+        return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(flushNanos.get() / count);
+    }
+
+    public long getMaxFlushMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(maxFlushNanos.get());
+    }
+
+    /**
+     * Returns the longest time a target stayed dirty, from its first mark to
+     * the end of its flush
+     */
+    public long getObservedMaxDirtyMs() {
+        return TimeUnit.NANOSECONDS.toMillis(maxDirtyNanos.get());
+    }
+
+    private static final class Flush<T> implements Delayed {
+        private final T target;
+        private final long dirtySinceNanos = System.nanoTime();
+        private final long dueNanos;
+
+        Flush(T target, long delayMs) {
+            this.target = target;
+            this.dueNanos = dirtySinceNanos + TimeUnit.MILLISECONDS.toNanos(delayMs);
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(dueNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(dueNanos, ((Flush<?>) other).dueNanos);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.dynamolite;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * PhiAccrualFailureDetector turns the heartbeat history of each peer into a
+ * suspicion level (phi) instead of a yes/no answer after a fixed timeout.
+ *
+ * For every peer it keeps a window of recent heartbeat inter-arrival times and
+ * models them as a normal distribution. Phi is -log10 of the probability that a
+ * heartbeat would still arrive after the current silence: phi 1 means a 10%
+ * chance the peer is fine, phi 8 one in 10^8. A peer on a jittery link builds a
+ * wider distribution and so gets more slack before it is suspected, while a
+ * steady peer is detected soon after it stops answering.
+ */
+public class PhiAccrualFailureDetector {
+    static final int WINDOW_SIZE = 100;
+
+    private final double threshold;
+    private final long minStdDevMs;
+    private final long acceptablePauseMs;
+    private final long firstIntervalMs;
+    private final Map<String, ArrivalWindow> windows = new ConcurrentHashMap<>();
+
+    /**
+     * @param threshold         phi above which a peer is considered failed
+     * @param minStdDevMs       floor on the standard deviation, so a perfectly regular peer is not
+     *                          suspected the moment a heartbeat is a few milliseconds late
+     * @param acceptablePauseMs extra silence tolerated on top of the mean interval (GC pauses etc.)
+     * @param firstIntervalMs   interval assumed for a peer with a single heartbeat so far
+     */
+    public PhiAccrualFailureDetector(double threshold, long minStdDevMs, long acceptablePauseMs, long firstIntervalMs) {
+        this.threshold = threshold;
+        this.minStdDevMs = minStdDevMs;
+        this.acceptablePauseMs = acceptablePauseMs;
+        this.firstIntervalMs = firstIntervalMs;
+    }
+
+    /**
+     * Records a sign of life from the peer: a heartbeat or any other response.
+     */
+    public void heartbeat(String nodeId, long nowMs) {
+        windows.computeIfAbsent(nodeId, id -> new ArrivalWindow()).add(nowMs, firstIntervalMs);
+    }
+
+    /**
+     * Returns the current suspicion level for the peer, or 0 if it has never been heard from.
+     */
+    public double phi(String nodeId, long nowMs) {
+        ArrivalWindow window = windows.get(nodeId);
+        return window == null ? 0 : window.phi(nowMs, minStdDevMs, acceptablePauseMs);
+    }
+
+    public boolean isAvailable(String nodeId, long nowMs) {
+        return phi(nodeId, nowMs) < threshold;
+    }
+
+    /**
+     * Returns true if the peer has been heard from at least once.
+     */
+    public boolean hasHistory(String nodeId) {
+        return windows.containsKey(nodeId);
+    }
+
+    /**
+     * Returns the time of the peer's last recorded sign of life, or 0 if none.
+     */
+    public long lastHeartbeat(String nodeId) {
+        ArrivalWindow window = windows.get(nodeId);
+        return window == null ? 0 : window.last();
+    }
+
+    /**
+     * Forgets a peer's history, e.g. once it has been evicted.
+     */
+    public void remove(String nodeId) {
+        windows.remove(nodeId);
+    }
+
+    /**
+     * Ring buffer of inter-arrival times with running sums for mean and variance.
+     */
+    private static class ArrivalWindow {
+        private final long[] intervals = new long[WINDOW_SIZE];
+        private int count;
+        private int next;
+        private double sum;
+        private double sumOfSquares;
+        private long lastArrival;
+
+        synchronized void add(long nowMs, long firstIntervalMs) {
+            if (lastArrival == 0) {
+                // Seed the window so phi is defined after the first heartbeat
+                record(firstIntervalMs);
+            } else if (nowMs > lastArrival) {
+                record(nowMs - lastArrival);
+            }
+            lastArrival = Math.max(lastArrival, nowMs);
+        }
+
+        private void record(long interval) {
+            if (count == WINDOW_SIZE) {
+                long evicted = intervals[next];
+                sum -= evicted;
+                sumOfSquares -= (double) evicted * evicted;
+            } else {
+                count++;
+            }
+            intervals[next] = interval;
+            next = (next + 1) % WINDOW_SIZE;
+            sum += interval;
+            sumOfSquares += (double) interval * interval;
+        }
+
+        synchronized long last() {
+            return lastArrival;
+        }
+
+        synchronized double phi(long nowMs, long minStdDevMs, long acceptablePauseMs) {
+            double mean = sum / count + acceptablePauseMs;
+            double variance = Math.max(0, sumOfSquares / count - (sum / count) * (sum / count));
+            double stdDev = Math.max(Math.sqrt(variance), minStdDevMs);
+            double elapsed = nowMs - lastArrival;
+            // Logistic approximation of the normal CDF tail (as used by Akka)
+            double y = (elapsed - mean) / stdDev;
+            double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+            if (elapsed > mean) {
+                return -Math.log10(e / (1.0 + e));
+            }
+            return -Math.log10(1.0 - 1.0 / (1.0 + e));
+        }
+    }
+}
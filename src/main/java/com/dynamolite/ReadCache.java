@@ -0,0 +1,199 @@
+package com.dynamolite;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ReadCache keeps the results of a coordinator's recent reads, so reads of keys
+ * that rarely change can skip the round trips to the replicas.
+ *
+ * It is a segmented LRU bounded by an estimate of the memory its entries use.
+ * New entries go into a probationary segment (PROBATION_SHARE of the budget);
+ * an entry read again moves to the protected segment. Eviction takes the least
+ * recently used probationary entry first, so a scan over many keys read once
+ * cannot flush out the keys that are read all the time.
+ *
+ * Entries are dropped when a replica reports a write to their key, and in any
+ * case once they are older than the staleness bound, which caps how stale a
+ * cached read can be if an invalidation is lost. A read that was in flight
+ * while its key was invalidated may have fetched the old value; such a result
+ * is not cached (see {@link #startRead()}).
+ */
+public class ReadCache {
+    static final double PROBATION_SHARE = 0.2;
+    // Rough per-entry overhead of the maps, the entry and the value objects
+    private static final int ENTRY_OVERHEAD_BYTES = 96;
+    private static final int VALUE_OVERHEAD_BYTES = 64;
+
+    private final long maxBytes;
+    private final long maxStalenessMs;
+    private final LinkedHashMap<String, Entry> probation = new LinkedHashMap<>();
+    private final LinkedHashMap<String, Entry> protectedSegment = new LinkedHashMap<>();
+    private long probationBytes;
+    private long protectedBytes;
+    private final ReadTickets tickets = new ReadTickets();
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidationCount;
+
+    public ReadCache(long maxBytes, long maxStalenessMs) {
+        this.maxBytes = maxBytes;
+        this.maxStalenessMs = maxStalenessMs;
+    }
+
+    /**
+     * Returns the cached values of the key if they were read with at least
+     * {@code required} replicas and are within the staleness bound, else null.
+     */
+    public synchronized List<Storage.Value> get(String key, int required) {
+        long now = System.currentTimeMillis();
+        Entry entry = probation.get(key);
+        boolean probationary = entry != null;
+        if (entry == null) {
+            entry = protectedSegment.get(key);
+        }
+        if (entry == null || entry.required < required || now - entry.cachedAtMs > maxStalenessMs) {
+            if (entry != null && now - entry.cachedAtMs > maxStalenessMs) {
+                remove(key);
+            }
+            misses++;
+            return null;
+        }
+        hits++;
+        if (probationary) {
+            // Read twice: promote, demoting protected entries beyond their share
+            probation.remove(key);
+            probationBytes -= entry.bytes;
+            protectedSegment.put(key, entry);
+            protectedBytes += entry.bytes;
+            long protectedLimit = maxBytes - (long) (maxBytes * PROBATION_SHARE);
+            Iterator<Map.Entry<String, Entry>> oldest = protectedSegment.entrySet().iterator();
+            while (protectedBytes > protectedLimit && oldest.hasNext()) {
+                Map.Entry<String, Entry> demoted = oldest.next();
+                oldest.remove();
+                protectedBytes -= demoted.getValue().bytes;
+                probation.put(demoted.getKey(), demoted.getValue());
+                probationBytes += demoted.getValue().bytes;
+            }
+        } else {
+            // Move to the most recently used end
+            protectedSegment.remove(key);
+            protectedSegment.put(key, entry);
+        }
+        return entry.values;
+    }
+
+    /**
+     * Marks the start of a replica read. Pass the returned ticket to
+     * {@link #put}, which then ignores the result if the key was invalidated
+     * in the meantime.
+     */
+    public long startRead() {
+        return tickets.start();
+    }
+
+    /**
+     * Caches the result of a read started with the given ticket.
+     */
+    public synchronized void put(String key, List<Storage.Value> values, int required, long ticket) {
+        if (!tickets.isCurrent(key, ticket)) {
+            return;
+        }
+        Entry entry = new Entry(values, required, System.currentTimeMillis(), estimateBytes(key, values));
+        if (entry.bytes > maxBytes) {
+            return;
+        }
+        remove(key);
+        probation.put(key, entry);
+        probationBytes += entry.bytes;
+        // Evict probationary entries first, protected ones once none are left
+        while (probationBytes + protectedBytes > maxBytes) {
+            LinkedHashMap<String, Entry> segment = probation.isEmpty() ? protectedSegment : probation;
+            String eldest = segment.keySet().iterator().next();
+            remove(eldest);
+            evictions++;
+        }
+    }
+
+    /**
+     * Drops the key, and makes sure no read already in flight caches it again.
+     */
+    public synchronized void invalidate(String key) {
+        if (remove(key)) {
+            invalidationCount++;
+        }
+        tickets.invalidate(key);
+    }
+
+    private boolean remove(String key) {
+        Entry entry = probation.remove(key);
+        if (entry != null) {
+            probationBytes -= entry.bytes;
+            return true;
+        }
+        entry = protectedSegment.remove(key);
+        if (entry != null) {
+            protectedBytes -= entry.bytes;
+            return true;
+        }
+        return false;
+    }
+
+    private static long estimateBytes(String key, List<Storage.Value> values) {
+        long bytes = ENTRY_OVERHEAD_BYTES + 2L * key.length();
+        for (Storage.Value value : values) {
+            bytes += VALUE_OVERHEAD_BYTES;
+            if (value.getData() != null) {
+                bytes += 2L * value.getData().length();
+            }
+        }
+        return bytes;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Returns the number of cached entries dropped because their key changed
+     */
+    public synchronized long getInvalidations() {
+        return invalidationCount;
+    }
+
+    /**
+     * Returns the estimated memory used by the cached entries
+     */
+    public synchronized long getBytes() {
+        return probationBytes + protectedBytes;
+    }
+
+    public synchronized int size() {
+        return probation.size() + protectedSegment.size();
+    }
+
+    private static class Entry {
+        private final List<Storage.Value> values;
+        private final int required;
+        private final long cachedAtMs;
+        private final long bytes;
+
+        Entry(List<Storage.Value> values, int required, long cachedAtMs, long bytes) {
+            this.values = values;
+            this.required = required;
+            this.cachedAtMs = cachedAtMs;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.dynamolite;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * ReadTickets spots reads that raced with a change to their key, so a cache
+ * never keeps a result that may be older than a write made while the read was
+ * in flight.
+ *
+ * A read takes a ticket when it starts; invalidating a key stamps it with the
+ * next number of the same sequence. A result is current only if its key has
+ * not been invalidated since its ticket was taken. The stamps of the most
+ * recent HISTORY invalidations are kept; a ticket older than the ones
+ * forgotten is treated as stale.
+ */
+public class ReadTickets {
+    static final int HISTORY = 4096;
+
+    private long sequence;
+    // Sequence number of the latest invalidation of each recently invalidated key
+    private final LinkedHashMap<String, Long> invalidations = new LinkedHashMap<>();
+    // Invalidations older than this have been forgotten
+    private long forgottenUpTo;
+
+    /**
+     * Marks the start of a read and returns its ticket
+     */
+    public synchronized long start() {
+        return sequence++;
+    }
+
+    /**
+     * Records a change to the key, making the tickets taken so far stale for it
+     */
+    public synchronized void invalidate(String key) {
+        invalidations.remove(key);
+        invalidations.put(key, sequence++);
+        if (invalidations.size() > HISTORY) {
+            Iterator<Map.Entry<String, Long>> oldest = invalidations.entrySet().iterator();
+            forgottenUpTo = oldest.next().getValue() + 1;
+            oldest.remove();
+        }
+    }
+
+    /**
+     * Returns true if the key has not been invalidated since the ticket was taken
+     */
+    public synchronized boolean isCurrent(String key, long ticket) {
+        Long invalidated = invalidations.get(key);
+        return (invalidated == null || invalidated < ticket) && ticket >= forgottenUpTo;
+    }
+}
@@ -0,0 +1,233 @@
+package com.dynamolite;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * ReplicaBatcher coalesces the replica writes bound for one peer into
+ * REPLICA_BATCH frames, so a peer under a write load deserializes and answers
+ * one frame for many writes instead of one per write.
+ *
+ * Each peer has a queue. A writer that finds the peer's queue idle becomes its
+ * leader: it sends whatever is queued, up to maxWrites and maxBytes per frame,
+ * hands each waiting writer its own response, and passes the lead to the next
+ * writer still queued. Writes that arrive while a frame is in flight therefore
+ * ride in the next one, and a lone write goes out at once, as with Nagle done
+ * right. Only when the previous frame carried more than one write does the
+ * leader linger (up to lingerMicros) for the frame to fill, since only then is
+ * more traffic likely to follow.
+ */
+public class ReplicaBatcher {
+    static final int DEFAULT_MAX_WRITES = 64;
+    static final long DEFAULT_MAX_BYTES = 256 * 1024;
+    static final long DEFAULT_LINGER_MICROS = 100;
+    // Rough serialized size of a replica write besides its key and value
+    private static final int WRITE_OVERHEAD_BYTES = 128;
+
+    /**
+     * Sends one request to a peer and returns its response.
+     */
+    public interface Transport {
+        Response send(String peer, Request request) throws IOException;
+    }
+
+    private final Transport transport;
+    private final int maxWrites;
+    private final long maxBytes;
+    private final long lingerNanos;
+    private final Map<String, PeerQueue> queues = new ConcurrentHashMap<>();
+    private final AtomicLong framesSent = new AtomicLong();
+    private final AtomicLong writesSent = new AtomicLong();
+
+    public ReplicaBatcher(Transport transport, int maxWrites, long maxBytes, long lingerMicros) {
+        this.transport = transport;
+        this.maxWrites = maxWrites;
+        this.maxBytes = maxBytes;
+        this.lingerNanos = lingerMicros * 1000;
+    }
+
+    /**
+     * Sends a replica write to the peer in the next frame for it, and waits for
+     * its own response.
+     *
+     * @throws IOException if the frame carrying the write could not be sent
+     */
+    public Response send(String peer, Request write) throws IOException {
+        PeerQueue queue = queues.computeIfAbsent(peer, p -> new PeerQueue());
+        Pending pending = new Pending(write);
+        boolean lead;
+        synchronized (queue) {
+            queue.pending.add(pending);
+            lead = queue.leader == null;
+            if (lead) {
+                queue.leader = Thread.currentThread();
+            } else if (queue.pending.size() >= maxWrites) {
+                // A full frame is waiting: stop the leader lingering
+                LockSupport.unpark(queue.leader);
+            }
+        }
+        if (!lead) {
+            lead = pending.awaitTurn();
+        }
+        if (lead) {
+            drain(peer, queue, pending);
+        }
+        return pending.result();
+    }
+
+    /**
+     * Sends frames until the leader's own write has gone out, then hands the
+     * lead to the first writer still queued.
+     */
+    private void drain(String peer, PeerQueue queue, Pending own) {
+        while (!own.isDone()) {
+            if (lingerNanos > 0 && queue.lastFrameSize > 1) {
+                long deadline = System.nanoTime() + lingerNanos;
+                long remaining;
+                while (queue.size() < maxWrites && (remaining = deadline - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(this, remaining);
+                }
+            }
+            List<Pending> frame = new ArrayList<>();
+            synchronized (queue) {
+                long bytes = 0;
+                while (!queue.pending.isEmpty() && frame.size() < maxWrites
+                        && (frame.isEmpty() || bytes + queue.pending.peek().bytes <= maxBytes)) {
+                    Pending next = queue.pending.poll();
+                    bytes += next.bytes;
+                    frame.add(next);
+                }
+                queue.lastFrameSize = frame.size();
+            }
+            sendFrame(peer, frame);
+        }
+
+        Pending next;
+        synchronized (queue) {
+            next = queue.pending.peek();
+            queue.leader = next != null ? next.thread : null;
+        }
+        if (next != null) {
+            next.promote();
+        }
+    }
+
+    private void sendFrame(String peer, List<Pending> frame) {
+        framesSent.incrementAndGet();
+        writesSent.addAndGet(frame.size());
+        try {
+            if (frame.size() == 1) {
+                frame.get(0).complete(transport.send(peer, frame.get(0).write), null);
+                return;
+            }
+            List<Request> writes = new ArrayList<>(frame.size());
+            for (Pending pending : frame) {
+                writes.add(pending.write);
+            }
+            Response response = transport.send(peer, Request.replicaBatch(writes));
+            List<Response> answers = response.getBatch();
+            if (answers == null || answers.size() != frame.size()) {
+                throw new IOException("Node " + peer + " did not answer the batch: " + response.getMessage());
+            }
+            for (int i = 0; i < frame.size(); i++) {
+                frame.get(i).complete(answers.get(i), null);
+            }
+        } catch (IOException e) {
+            for (Pending pending : frame) {
+                pending.complete(null, e);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of frames sent to peers
+     */
+    public long getFramesSent() {
+        return framesSent.get();
+    }
+
+    /**
+     * Returns the number of replica writes sent, in frames of any size
+     */
+    public long getWritesSent() {
+        return writesSent.get();
+    }
+
+    private static class PeerQueue {
+        private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+        // Thread currently sending frames to the peer, null when idle
+        private Thread leader;
+        private int lastFrameSize;
+
+        synchronized int size() {
+            return pending.size();
+        }
+    }
+
+    private static class Pending {
+        private final Request write;
+        private final long bytes;
+        private final Thread thread = Thread.currentThread();
+        private Response response;
+        private IOException failure;
+        private boolean done;
+        private boolean promoted;
+
+        Pending(Request write) {
+            this.write = write;
+            long size = WRITE_OVERHEAD_BYTES + 2L * write.getKey().length();
+            if (write.getValue() != null) {
+                size += 2L * write.getValue().length();
+            }
+            this.bytes = size;
+        }
+
+        synchronized void complete(Response response, IOException failure) {
+            this.response = response;
+            this.failure = failure;
+            this.done = true;
+            notifyAll();
+        }
+
+        synchronized void promote() {
+            promoted = true;
+            notifyAll();
+        }
+
+        synchronized boolean isDone() {
+            return done;
+        }
+
+        /**
+         * Waits until this write has been answered, or its writer has been
+         * made leader. Returns true in the latter case.
+         */
+        synchronized boolean awaitTurn() {
+            boolean interrupted = false;
+            while (!done && !promoted) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            return !done;
+        }
+
+        synchronized Response result() throws IOException {
+            if (failure != null) {
+                throw failure;
+            }
+            return response;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.dynamolite;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ReplicaSelector ranks the replicas of a key by how quickly each is expected
+ * to answer a read, so a coordinator reads from the fastest R rather than
+ * always from the first R on the ring.
+ *
+ * For every peer it keeps an EWMA of read latency, an EWMA of the queue depth
+ * the peer reports back in its responses, and the number of reads this node
+ * has in flight to it. As in C3, the expected queue is
+ * {@code 1 + inFlight + queueDepth} and is penalised cubically, so a node
+ * with a growing backlog loses traffic quickly, before its latency shows it:
+ * {@code score = latency * expectedQueue^3}. The local node scores 0, since
+ * its copy is read without a network round trip.
+ *
+ * A peer not read from for STALE_AFTER_MS is scored as unknown (0) again, so a
+ * replica that was slow once gets tried again rather than being starved of
+ * the very reads that would show it has recovered.
+ */
+public class ReplicaSelector {
+    static final double ALPHA = 0.2;
+    static final long STALE_AFTER_MS = 2000;
+    // A failed read counts as a sample this slow
+    static final long FAILURE_PENALTY_NANOS = 1_000_000_000L;
+
+    private final String selfId;
+    private final Map<String, PeerLoad> peers = new ConcurrentHashMap<>();
+
+    public ReplicaSelector(String selfId) {
+        this.selfId = selfId;
+    }
+
+    /**
+     * Returns the replicas ordered best first. Ties keep their ring order.
+     */
+    public List<String> rank(List<String> replicas) {
+        long now = System.currentTimeMillis();
+        List<String> ranked = new ArrayList<>(replicas);
+        Map<String, Double> scores = new HashMap<>();
+        for (String node : ranked) {
+            scores.put(node, score(node, now));
+        }
+        ranked.sort(Comparator.comparingDouble(scores::get));
+        return ranked;
+    }
+
+    /**
+     * Records that a read was sent to the peer.
+     */
+    public void onSend(String nodeId) {
+        load(nodeId).onSend();
+    }
+
+    /**
+     * Records the peer's reply: its latency and the queue depth it reported
+     * (negative if it did not report one).
+     */
+    public void onReply(String nodeId, long latencyNanos, int queueDepth) {
+        load(nodeId).onReply(latencyNanos, queueDepth);
+    }
+
+    /**
+     * Records a read to the peer that failed.
+     */
+    public void onFailure(String nodeId) {
+        load(nodeId).onReply(FAILURE_PENALTY_NANOS, -1);
+    }
+
+    /**
+     * Returns the peer's current score; lower is better.
+     */
+    public double score(String nodeId) {
+        return score(nodeId, System.currentTimeMillis());
+    }
+
+    private double score(String nodeId, long now) {
+        if (nodeId.equals(selfId)) {
+            return 0;
+        }
+        PeerLoad load = peers.get(nodeId);
+        return load == null ? 0 : load.score(now);
+    }
+
+    private PeerLoad load(String nodeId) {
+        return peers.computeIfAbsent(nodeId, id -> new PeerLoad());
+    }
+
+    private static class PeerLoad {
+        private double latencyNanos;
+        private double queueDepth;
+        private int inFlight;
+        private long lastReplyMs;
+
+        synchronized void onSend() {
+            inFlight++;
+        }
+
+        synchronized void onReply(long latency, int reportedQueueDepth) {
+            inFlight = Math.max(0, inFlight - 1);
+            boolean first = lastReplyMs == 0;
+            latencyNanos = first ? latency : ALPHA * latency + (1 - ALPHA) * latencyNanos;
+            if (reportedQueueDepth >= 0) {
+                queueDepth = first ? reportedQueueDepth : ALPHA * reportedQueueDepth + (1 - ALPHA) * queueDepth;
+            }
+            lastReplyMs = System.currentTimeMillis();
+        }
+
+        synchronized double score(long now) {
+            // Unknown, or idle for long enough to deserve another look. A peer
+            // with reads still outstanding is not idle: it may be stuck.
+            if (inFlight == 0 && (lastReplyMs == 0 || now - lastReplyMs > STALE_AFTER_MS)) {
+                return 0;
+            }
+            if (lastReplyMs == 0) {
+                // Reads in flight but none answered yet: don't pile on
+                return Double.MAX_VALUE;
+            }
+            double expectedQueue = 1 + inFlight + queueDepth;
+            return latencyNanos * expectedQueue * expectedQueue * expectedQueue;
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package com.dynamolite;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * ReplicationQueue propagates writes to replicas in the background, for the
+ * asynchronous replication mode in which a coordinator acknowledges a write
+ * before all of its replicas have it.
+ *
+ * The queue is bounded: {@link #offer} refuses a write once {@code capacity}
+ * are pending, and the caller then writes the replica itself, which slows the
+ * client down rather than letting replicas fall arbitrarily far behind. A
+ * failed write is retried with exponential backoff; after MAX_ATTEMPTS it is
+ * given up on and handed back (the node turns it into a hint).
+ *
+ * Replication lag is the age of the oldest write still pending, overall and
+ * per replica, so it keeps growing while a replica is unreachable.
+ */
+public class ReplicationQueue {
+    private static final Logger logger = LoggerFactory.getLogger(ReplicationQueue.class);
+    static final int DEFAULT_CAPACITY = 10_000;
+    static final int WORKERS = 4;
+    static final int MAX_ATTEMPTS = 5;
+    static final long INITIAL_BACKOFF_MS = 100;
+    static final long MAX_BACKOFF_MS = 5000;
+
+    /**
+     * Applies queued writes on replicas.
+     */
+    public interface Replicator {
+        /**
+         * Writes the value on the replica. Returns true if it was acknowledged.
+         */
+        boolean replicate(String node, String key, Storage.Value value);
+
+        /**
+         * Takes back a write that failed MAX_ATTEMPTS times.
+         */
+        void giveUp(String node, String key, Storage.Value value, List<String> preferenceList);
+    }
+
+    private final Replicator replicator;
+    private final int capacity;
+    private final DelayQueue<Task> tasks = new DelayQueue<>();
+    // Tasks a worker has taken and is replicating, still counted in the lag
+    private final Set<Task> inFlight = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicLong propagated = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final LongAccumulator maxLagMs = new LongAccumulator(Math::max, 0);
+    private final List<Thread> workers = new ArrayList<>();
+    private volatile boolean running;
+
+    public ReplicationQueue(Replicator replicator, int capacity) {
+        this.replicator = replicator;
+        this.capacity = capacity;
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        for (int i = 0; i < WORKERS; i++) {
+            Thread worker = new Thread(this::work, "async-replication-" + i);
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+    }
+
+    /**
+     * Stops the workers and returns the writes still pending, so they are not
+     * lost with the queue.
+     */
+    public synchronized List<Task> stop() {
+        running = false;
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        workers.clear();
+        List<Task> left = new ArrayList<>();
+        tasks.drainTo(left);
+        pending.addAndGet(-left.size());
+        return left;
+    }
+
+    /**
+     * Queues the write for the replica. Returns false if the queue is full.
+     */
+    public boolean offer(String node, String key, Storage.Value value, List<String> preferenceList) {
+        if (pending.incrementAndGet() > capacity) {
+            pending.decrementAndGet();
+            rejected.incrementAndGet();
+            return false;
+        }
+        tasks.add(new Task(node, key, value, preferenceList));
+        return true;
+    }
+
+    private void work() {
+        while (running) {
+            Task task;
+            try {
+                task = tasks.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            inFlight.add(task);
+            boolean acknowledged;
+            try {
+                acknowledged = replicator.replicate(task.node, task.key, task.value);
+            } catch (RuntimeException e) {
+                logger.warn("Async replication of {} to {} failed: {}", task.key, task.node, e.getMessage());
+                acknowledged = false;
+            }
+            if (acknowledged) {
+                inFlight.remove(task);
+                pending.decrementAndGet();
+                propagated.incrementAndGet();
+                maxLagMs.accumulate(System.currentTimeMillis() - task.enqueuedAtMs);
+            } else if (++task.attempts < MAX_ATTEMPTS && running) {
+                retries.incrementAndGet();
+                task.retryAt(Math.min(MAX_BACKOFF_MS, INITIAL_BACKOFF_MS << (task.attempts - 1)));
+                tasks.add(task);
+                inFlight.remove(task);
+            } else {
+                inFlight.remove(task);
+                pending.decrementAndGet();
+                failures.incrementAndGet();
+                replicator.giveUp(task.node, task.key, task.value, task.preferenceList);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of writes waiting to reach a replica
+     */
+    public int getPending() {
+        return pending.get();
+    }
+
+    /**
+     * Returns the age in milliseconds of the oldest pending write, 0 if none.
+     */
+    public long getLagMs() {
+        long now = System.currentTimeMillis();
+        long lag = 0;
+        for (Task task : pendingTasks()) {
+            lag = Math.max(lag, now - task.enqueuedAtMs);
+        }
+        return lag;
+    }
+
+    /**
+     * Returns the age in milliseconds of the oldest pending write for each
+     * replica that has any.
+     */
+    public Map<String, Long> getLagByReplica() {
+        long now = System.currentTimeMillis();
+        Map<String, Long> lag = new HashMap<>();
+        for (Task task : pendingTasks()) {
+            lag.merge(task.node, now - task.enqueuedAtMs, Math::max);
+        }
+        return lag;
+    }
+
+    private List<Task> pendingTasks() {
+        List<Task> all = new ArrayList<>(inFlight);
+        all.addAll(tasks);
+        return all;
+    }
+
+    /**
+     * Returns the longest time a propagated write spent in the queue
+     */
+    public long getMaxLagMs() {
+        return maxLagMs.get();
+    }
+
+    public long getPropagated() {
+        return propagated.get();
+    }
+
+    public long getRetries() {
+        return retries.get();
+    }
+
+    /**
+     * Returns the number of writes given up on after MAX_ATTEMPTS
+     */
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * Returns the number of writes refused because the queue was full
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * A write waiting to reach one replica.
+     */
+    public static class Task implements Delayed {
+        private final String node;
+        private final String key;
+        private final Storage.Value value;
+        private final List<String> preferenceList;
+        private final long enqueuedAtMs = System.currentTimeMillis();
+        private volatile long dueNanos = System.nanoTime();
+        private int attempts;
+
+        Task(String node, String key, Storage.Value value, List<String> preferenceList) {
+            this.node = node;
+            this.key = key;
+            this.value = value;
+            this.preferenceList = preferenceList;
+        }
+
+        private void retryAt(long delayMs) {
+            dueNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMs);
+        }
+
+        public String getNode() {
+            return node;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public Storage.Value getValue() {
+            return value;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(dueNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(dueNanos, ((Task) other).dueNanos);
+        }
+    }
+}
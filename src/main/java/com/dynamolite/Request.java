@@ -1,6 +1,7 @@
 package com.dynamolite;
 
 import java.io.Serializable;
+import java.util.List;
 
 /**
  * Request represents a client request to the distributed system.
@@ -12,7 +13,33 @@ public class Request implements Serializable {
         PUT,
         GET,
         DELETE,
-        HEARTBEAT
+        HEARTBEAT,
+        STATS,
+        PUT_IF_VERSION,
+        PUT_IF_ABSENT,
+        INCREMENT,
+        SET_ADD,
+        SET_REMOVE,
+        CRDT_MERGE,
+        SCAN,
+        PING_REQ,
+        GOSSIP,
+        TOP_KEYS,
+        INVALIDATE,
+        REPLICA_BATCH,
+        CHANGES,
+        SNAPSHOT,
+        BULK_LOAD
+    }
+
+    /**
+     * How many replicas a read or write waits for: one, a majority, or all of
+     * the replicas of the key.
+     */
+    public enum Consistency {
+        ONE,
+        QUORUM,
+        ALL
     }
 
     private final Type type;
@@ -20,6 +47,24 @@ public class Request implements Serializable {
     private final String value;
     private final VersionVector version;
     private final boolean replicaRead;
+    private String hintedFor;
+    private VersionVector expectedVersion;
+    private Crdt crdt;
+    private boolean forwarded;
+    private String endKey;
+    private int limit;
+    private long ttlMillis;
+    private long expiresAt;
+    private List<Membership.Member> members;
+    private Consistency consistency;
+    private int readQuorum;
+    private int writeQuorum;
+    private String cacheSubscriber;
+    private boolean nearCache;
+    private List<Request> batch;
+    private long fromOffset;
+    private long waitMs;
+    private String snapshotFor;
 
     public Request(Type type, String key, String value) {
         this(type, key, value, null, false);
@@ -37,6 +82,86 @@ public class Request implements Serializable {
         this.replicaRead = replicaRead;
     }
 
+    /**
+     * Builds a SCAN for keys in [startKey, endKey) returning at most {@code limit}
+     * entries per page. To fetch the next page, pass the previous response's
+     * continuation token as the start key.
+     */
+    public static Request scan(String startKey, String endKey, int limit) {
+        Request request = new Request(Type.SCAN, startKey, null);
+        request.endKey = endKey;
+        request.limit = limit;
+        return request;
+    }
+
+    /**
+     * Builds a read of the node's change feed: up to {@code maxChanges} changes
+     * from {@code fromOffset} on (a negative offset starts at the oldest change
+     * the node still holds), waiting up to {@code waitMs} if there are none yet.
+     */
+    public static Request changes(long fromOffset, int maxChanges, long waitMs) {
+        Request request = new Request(Type.CHANGES, null, null);
+        request.fromOffset = fromOffset;
+        request.limit = maxChanges;
+        request.waitMs = waitMs;
+        return request;
+    }
+
+    /**
+     * Asks a node for a bulk copy of the data the given node owns, to
+     * bootstrap it. The response names a port the copy can be pulled from and
+     * the change feed offset to catch up from afterwards.
+     */
+    static Request snapshot(String forNodeId) {
+        Request request = new Request(Type.SNAPSHOT, null, null);
+        request.snapshotFor = forNodeId;
+        return request;
+    }
+
+    /**
+     * Asks a node to merge a prebuilt storage file at the given path (on the
+     * node's machine) into its data; see BulkLoader.
+     */
+    public static Request bulkLoad(String path) {
+        return new Request(Type.BULK_LOAD, null, path);
+    }
+
+    /**
+     * Builds one frame carrying several replica writes for the same peer. The
+     * peer applies them in order and answers each one in the response's batch.
+     */
+    static Request replicaBatch(List<Request> writes) {
+        Request request = new Request(Type.REPLICA_BATCH, null, null);
+        request.batch = writes;
+        return request;
+    }
+
+    /**
+     * Builds the per-replica part of a coordinator's SCAN.
+     */
+    Request toReplicaScan(int pageLimit) {
+        Request request = new Request(Type.SCAN, key, null, null, true);
+        request.endKey = endKey;
+        request.limit = pageLimit;
+        return request;
+    }
+
+    /**
+     * Builds the replica write that applies the given value on another node:
+     * a versioned DELETE for a tombstone, a CRDT_MERGE carrying the state of a
+     * CRDT, a versioned PUT otherwise.
+     */
+    public static Request forReplica(String key, Storage.Value value) {
+        if (value.isTombstone()) {
+            // A deleted CRDT's watermark travels with the delete
+            return new Request(Type.DELETE, key, null, value.getVersion()).withCrdt(value.getDeletedCrdt());
+        }
+        if (value.getCrdt() != null) {
+            return new Request(Type.CRDT_MERGE, key, null).withCrdt(value.getCrdt());
+        }
+        return new Request(Type.PUT, key, value.getData(), value.getVersion()).withExpiresAt(value.getExpiresAt());
+    }
+
     public Type getType() {
         return type;
     }
@@ -56,4 +181,176 @@ public class Request implements Serializable {
     public boolean isReplicaRead() {
         return replicaRead;
     }
+
+    /**
+     * Marks a replica write as a hinted handoff: the receiver holds it on behalf
+     * of the given (currently unreachable) owner instead of storing it.
+     */
+    public Request withHintedFor(String ownerNodeId) {
+        this.hintedFor = ownerNodeId;
+        return this;
+    }
+
+    public String getHintedFor() {
+        return hintedFor;
+    }
+
+    /**
+     * Sets the version a PUT_IF_VERSION write is conditioned on: the version the
+     * client last read. The write only applies where nothing newer has been stored.
+     */
+    public Request withExpectedVersion(VersionVector expectedVersion) {
+        this.expectedVersion = expectedVersion;
+        return this;
+    }
+
+    public VersionVector getExpectedVersion() {
+        return expectedVersion;
+    }
+
+    /**
+     * Attaches CRDT state for a CRDT_MERGE replica write.
+     */
+    public Request withCrdt(Crdt crdt) {
+        this.crdt = crdt;
+        return this;
+    }
+
+    public Crdt getCrdt() {
+        return crdt;
+    }
+
+    /**
+     * Marks a request a non-owner coordinator passed on to a replica, which must
+     * then coordinate it itself rather than forward it again.
+     */
+    public Request withForwarded() {
+        this.forwarded = true;
+        return this;
+    }
+
+    public boolean isForwarded() {
+        return forwarded;
+    }
+
+    /**
+     * Gives a PUT a time to live. The coordinator turns it into an absolute
+     * expiry time, which is what replicas store.
+     */
+    public Request withTtl(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+        return this;
+    }
+
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    /**
+     * Sets the absolute expiry time (epoch millis) of a replica PUT
+     */
+    public Request withExpiresAt(long expiresAt) {
+        this.expiresAt = expiresAt;
+        return this;
+    }
+
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    /**
+     * Attaches membership records: piggybacked updates on a HEARTBEAT, the full
+     * view on a GOSSIP exchange.
+     */
+    public Request withMembers(List<Membership.Member> members) {
+        this.members = members;
+        return this;
+    }
+
+    public List<Membership.Member> getMembers() {
+        return members;
+    }
+
+    /**
+     * Sets the consistency level of a GET, PUT, DELETE or CRDT update. Without
+     * one, the coordinator applies its configured quorums.
+     */
+    public Request withConsistency(Consistency consistency) {
+        this.consistency = consistency;
+        return this;
+    }
+
+    public Consistency getConsistency() {
+        return consistency;
+    }
+
+    /**
+     * Sets explicit read and write quorums (0 leaves that one to the consistency
+     * level or the coordinator's default). They take precedence over a
+     * consistency level.
+     */
+    public Request withQuorum(int readQuorum, int writeQuorum) {
+        this.readQuorum = readQuorum;
+        this.writeQuorum = writeQuorum;
+        return this;
+    }
+
+    public int getReadQuorum() {
+        return readQuorum;
+    }
+
+    public int getWriteQuorum() {
+        return writeQuorum;
+    }
+
+    /**
+     * Marks a replica read whose result the given coordinator will cache: the
+     * replica sends it an INVALIDATE when the key next changes.
+     */
+    public Request withCacheSubscriber(String nodeId) {
+        this.cacheSubscriber = nodeId;
+        return this;
+    }
+
+    public String getCacheSubscriber() {
+        return cacheSubscriber;
+    }
+
+    /**
+     * Marks a GET from a client that keeps the result in its near cache. The
+     * node then pushes an INVALIDATED message over the connection when the key
+     * changes.
+     */
+    public Request withNearCache() {
+        this.nearCache = true;
+        return this;
+    }
+
+    public boolean isNearCache() {
+        return nearCache;
+    }
+
+    public List<Request> getBatch() {
+        return batch;
+    }
+
+    public long getFromOffset() {
+        return fromOffset;
+    }
+
+    public long getWaitMs() {
+        return waitMs;
+    }
+
+    public String getSnapshotFor() {
+        return snapshotFor;
+    }
+
+    public String getEndKey() {
+        return endKey;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
 } 
\ No newline at end of file
@@ -1,6 +1,8 @@
 package com.dynamolite;
 
 import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Response represents a server response to a client request.
@@ -11,15 +13,54 @@ public class Response implements Serializable {
     public enum Status {
         SUCCESS,
         ERROR,
-        NOT_FOUND
+        NOT_FOUND,
+        CONFLICT,
+        OVERLOADED,
+        // Pushed to a client with a near cache, outside any exchange: the key in
+        // the message has changed
+        INVALIDATED
     }
 
     private final Status status;
     private final String message;
+    private final Storage.Value value;
+    private final Map<String, Storage.Value> entries;
+    private final String continuationToken;
+    private List<Membership.Member> members;
+    private int queueDepth = -1;
+    private List<Response> batch;
+    private List<ChangeLog.Change> changes;
+    private long nextOffset = -1;
+    private int transferPort;
+    private long snapshotBytes;
 
     public Response(Status status, String message) {
+        this(status, message, null);
+    }
+
+    /**
+     * Creates a response that also carries the stored value with its version,
+     * so a coordinator can reconcile replica reads (tombstones included).
+     */
+    public Response(Status status, String message, Storage.Value value) {
+        this(status, message, value, null, null);
+    }
+
+    /**
+     * Creates a page of SCAN results in key order. A non-null continuation token
+     * means more keys may follow: pass it as the start key of the next SCAN.
+     */
+    public Response(Status status, Map<String, Storage.Value> entries, String continuationToken) {
+        this(status, entries.size() + " entries", null, entries, continuationToken);
+    }
+
+    private Response(Status status, String message, Storage.Value value,
+                     Map<String, Storage.Value> entries, String continuationToken) {
         this.status = status;
         this.message = message;
+        this.value = value;
+        this.entries = entries;
+        this.continuationToken = continuationToken;
     }
 
     public Status getStatus() {
@@ -30,6 +71,103 @@ public class Response implements Serializable {
         return message;
     }
 
+    public Storage.Value getValue() {
+        return value;
+    }
+
+    public VersionVector getVersion() {
+        return value != null ? value.getVersion() : null;
+    }
+
+    public Map<String, Storage.Value> getEntries() {
+        return entries;
+    }
+
+    public String getContinuationToken() {
+        return continuationToken;
+    }
+
+    /**
+     * Attaches membership records for the gossip exchange a control request started.
+     */
+    public Response withMembers(List<Membership.Member> members) {
+        this.members = members;
+        return this;
+    }
+
+    public List<Membership.Member> getMembers() {
+        return members;
+    }
+
+    /**
+     * Attaches the responding node's queue depth: the other requests of the same
+     * traffic class it was running or queueing when it answered. Coordinators
+     * use it to steer reads away from busy replicas.
+     */
+    public Response withQueueDepth(int queueDepth) {
+        this.queueDepth = queueDepth;
+        return this;
+    }
+
+    /**
+     * Returns the responding node's queue depth, or -1 if it did not report one.
+     */
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    /**
+     * Attaches the answers to the writes of a REPLICA_BATCH, in request order.
+     */
+    public Response withBatch(List<Response> batch) {
+        this.batch = batch;
+        return this;
+    }
+
+    public List<Response> getBatch() {
+        return batch;
+    }
+
+    /**
+     * Attaches a batch of the change feed and the offset to read from next.
+     */
+    public Response withChanges(List<ChangeLog.Change> changes, long nextOffset) {
+        this.changes = changes;
+        this.nextOffset = nextOffset;
+        return this;
+    }
+
+    public List<ChangeLog.Change> getChanges() {
+        return changes;
+    }
+
+    /**
+     * Returns the change feed offset to read from next. When the requested
+     * offset is no longer held, the ERROR response carries the oldest one that is.
+     */
+    public long getNextOffset() {
+        return nextOffset;
+    }
+
+    /**
+     * Attaches a snapshot offer: the port to pull its {@code bytes} bytes from,
+     * and the change feed offset it is consistent with once caught up from.
+     */
+    public Response withSnapshot(int transferPort, long bytes, long offset) {
+        this.transferPort = transferPort;
+        this.snapshotBytes = bytes;
+        this.nextOffset = offset;
+        return this;
+    }
+
+    public int getTransferPort() {
+        return transferPort;
+    }
+
+    public long getSnapshotBytes() {
+        return snapshotBytes;
+    }
+
     public boolean isSuccess() {
         return status == Status.SUCCESS;
     }
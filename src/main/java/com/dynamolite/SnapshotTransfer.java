@@ -0,0 +1,154 @@
+package com.dynamolite;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Predicate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * SnapshotTransfer moves a bulk copy of a node's data to a node that is
+ * joining or replacing one, so the newcomer is not filled one key at a time.
+ *
+ * The donor writes the entries the newcomer will own to a snapshot file, one
+ * after another in a single buffered stream, and offers the file on a
+ * one-off transfer port. The newcomer pulls it into a file of its own; both
+ * ends move the bytes with {@code FileChannel.transferTo}/{@code transferFrom},
+ * so on the donor they go from the page cache to the socket without passing
+ * through the JVM heap. The newcomer then reads the file in chunks of
+ * LOAD_CHUNK entries, each merged into its storage with one save.
+ */
+public class SnapshotTransfer {
+    private static final Logger logger = LoggerFactory.getLogger(SnapshotTransfer.class);
+    static final int LOAD_CHUNK = 10_000;
+    // How long the donor waits for the newcomer to connect to the transfer port
+    static final int ACCEPT_TIMEOUT_MS = 30_000;
+    // Entries between resets of the object stream, so its back-reference table stays small
+    private static final int RESET_INTERVAL = 1000;
+
+    private SnapshotTransfer() {
+    }
+
+    /**
+     * Writes the stored entries whose keys pass the filter to the file. Returns
+     * the number of entries written.
+     */
+    public static long write(Storage storage, Predicate<String> include, File file) throws IOException {
+        long[] written = {0};
+        try (ObjectOutputStream out = new ObjectOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+            try {
+                storage.forEach((key, value) -> {
+                    if (!include.test(key)) {
+                        return;
+                    }
+                    try {
+                        out.writeObject(key);
+                        out.writeObject(value);
+                        if (++written[0] % RESET_INTERVAL == 0) {
+                            out.reset();
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            // End of snapshot
+            out.writeObject(null);
+        }
+        return written[0];
+    }
+
+    /**
+     * Offers the file on a new transfer port and returns the port. A task on
+     * the executor sends the file to the first connection and deletes it.
+     */
+    public static int serve(File file, Executor executor) throws IOException {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        server.socket().setSoTimeout(ACCEPT_TIMEOUT_MS);
+        int port = server.socket().getLocalPort();
+        Runnable send = () -> {
+            try (ServerSocketChannel listener = server;
+                 Socket socket = listener.socket().accept();
+                 SocketChannel channel = socket.getChannel();
+                 FileChannel source = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                long size = source.size();
+                long sent = 0;
+                while (sent < size) {
+                    sent += source.transferTo(sent, size - sent, channel);
+                }
+                logger.info("Sent snapshot of {} bytes on port {}", size, port);
+            } catch (IOException e) {
+                logger.warn("Snapshot transfer on port {} failed: {}", port, e.getMessage());
+            } finally {
+                if (!file.delete()) {
+                    logger.warn("Could not delete snapshot file {}", file);
+                }
+            }
+        };
+        try {
+            executor.execute(send);
+        } catch (RejectedExecutionException e) {
+            server.close();
+            throw e;
+        }
+        return port;
+    }
+
+    /**
+     * Pulls {@code bytes} bytes from the donor's transfer port into the file.
+     */
+    public static void receive(int port, long bytes, File file) throws IOException {
+        try (SocketChannel channel = SocketChannel.open(
+                 new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+             FileChannel target = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                 StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long received = 0;
+            while (received < bytes) {
+                long n = target.transferFrom(channel, received, bytes - received);
+                if (n <= 0) {
+                    throw new EOFException("Snapshot ended after " + received + " of " + bytes + " bytes");
+                }
+                received += n;
+            }
+        }
+    }
+
+    /**
+     * Merges the entries of a snapshot file into the storage. Returns the
+     * number of entries read.
+     */
+    public static long load(File file, Storage storage) throws IOException {
+        long loaded = 0;
+        try (ObjectInputStream in = new ObjectInputStream(
+                new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            Map<String, Storage.Value> chunk = new HashMap<>();
+            String key;
+            while ((key = (String) in.readObject()) != null) {
+                chunk.put(key, (Storage.Value) in.readObject());
+                loaded++;
+                if (chunk.size() == LOAD_CHUNK) {
+                    storage.mergeAll(chunk);
+                    chunk.clear();
+                }
+            }
+            storage.mergeAll(chunk);
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Unreadable snapshot", e);
+        }
+        return loaded;
+    }
+}
@@ -1,26 +1,137 @@
 package com.dynamolite;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+import java.util.regex.Pattern;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Storage handles data persistence and retrieval with version vectors for conflict detection.
+ *
+ * Deletes are recorded as versioned tombstones rather than erasing the key, so a
+ * replica that missed the delete cannot bring the value back. Tombstones are
+ * purged by {@link #purgeTombstones(long)} once their grace period has passed.
+ *
+ * Writes are merged by version rather than blindly overwritten: a write keeps
+ * the causally newer version, and concurrent versions are kept side by side as
+ * siblings. The merge runs inside {@code ConcurrentHashMap.compute}, so it only
+ * locks the key's own bin and uncontended writes pay no extra cost.
+ *
+ * CRDT values (counters, sets) are unversioned; they are updated and merged in
+ * place by {@link #updateCrdt}, so concurrent updates never conflict. Deleting
+ * one leaves a tombstone holding the cleared state (see {@link Crdt#clear()}) as
+ * a watermark: later updates start from it, and state from before the delete,
+ * say from a replica or hint that missed it, merges into it without effect.
+ *
+ * Alongside the hash map, a sorted key index serves ordered range scans. It is
+ * only touched when a key is created or removed, inside the same compute call.
+ *
+ * A value may carry an absolute expiry time, set once by the coordinator so all
+ * replicas agree on it. Expired values stay readable here until reclaimed (like
+ * tombstones, callers check {@link Value#isExpired()}); a timer wheel finds them
+ * for {@link #expireEntries()} without scanning the map. Reclaiming leaves a
+ * tombstone of the value's version, so an older copy still held by a lagging
+ * replica cannot come back once this one has reclaimed it.
+ *
+ * Every change is also appended to a ChangeLog, which feeds the change feed.
+ *
+ * The data can be split by key hash into shards, each with its own map,
+ * expiry wheel and data file, so a write only locks and saves its own shard
+ * (a save rewrites one shard's file rather than all the data). A node on a
+ * many-core box can run one shard per core. Files written with a different
+ * shard count (or by an unsharded storage) are redistributed on load; the old
+ * files are only deleted once every shard of the new layout is saved. The
+ * sorted key index, the change log and the counters stay node-wide, since
+ * scans need one key order and the change feed one offset space; all three
+ * are lock-free, so writers to different shards do not serialize on them.
+ *
+ * Saves happen on a background I/O thread (see PersistenceQueue): a change
+ * marks its shard dirty, and the shard's file is rewritten within the max
+ * dirty time, once for all the changes made meanwhile. Changes not yet saved
+ * are lost if the process dies; {@link #close()} saves them.
  */
 public class Storage {
     private static final Logger logger = LoggerFactory.getLogger(Storage.class);
-    private final Map<String, Value> data;
+    private final Shard[] shards;
+    private final NavigableSet<String> keyIndex;
     private final String dataDir;
     private static final String DATA_FILE = "storage.dat";
+    private static final Pattern SHARD_FILE = Pattern.compile("storage-(\\d+)-of-(\\d+)\\.dat");
+    private static final String OFFSET_FILE = "changes.offset";
+    static final long EXPIRY_TICK_MS = 100;
+    private static final int EXPIRY_WHEEL_SLOTS = 512;
+    // Entries of an attached file merged at a time
+    static final int ATTACH_CHUNK = 10_000;
     private boolean persistenceEnabled = true;
+    private final AtomicLong tombstoneCount = new AtomicLong();
+    private final AtomicLong purgedTombstones = new AtomicLong();
+    private final AtomicLong expiredCount = new AtomicLong();
+    private volatile Consumer<String> changeListener;
+    private final ChangeLog changeLog;
+    // Reserves change log offsets ahead of need, on its own I/O thread so it never waits behind shard saves
+    private final PersistenceQueue<ChangeLog> offsetReservations;
+    private final PersistenceQueue<Shard> persistenceQueue;
 
     public Storage(String dataDir) {
+        this(dataDir, 1);
+    }
+
+    /**
+     * Creates a storage split into the given number of shards.
+     */
+    public Storage(String dataDir, int shardCount) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("Shard count must be at least 1");
+        }
         this.dataDir = dataDir;
-        this.data = new ConcurrentHashMap<>();
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            String name = shardCount == 1 ? DATA_FILE : "storage-" + i + "-of-" + shardCount + ".dat";
+            shards[i] = new Shard(new File(dataDir, name));
+        }
+        this.keyIndex = new ConcurrentSkipListSet<>();
         createDataDirectory();
         loadData();
+        this.offsetReservations = new PersistenceQueue<>("change-log-reserver", ChangeLog::reserveAhead);
+        offsetReservations.setMaxDirtyMs(0);
+        this.changeLog = new ChangeLog(ChangeLog.DEFAULT_CAPACITY, loadNextOffset(), this::saveNextOffset,
+            this::requestOffsetReservation);
+        changeLog.reserveAhead();
+        this.persistenceQueue = new PersistenceQueue<>("storage-flusher", this::writeShard);
+    }
+
+    private void requestOffsetReservation() {
+        offsetReservations.markDirty(changeLog);
+    }
+
+    private Shard shardFor(String key) {
+        return shards.length == 1 ? shards[0] : shards[Math.floorMod(key.hashCode(), shards.length)];
+    }
+
+    /**
+     * Returns the number of shards the data is split into
+     */
+    public int getShardCount() {
+        return shards.length;
     }
     
     /**
@@ -30,6 +141,54 @@ public class Storage {
         this.persistenceEnabled = enabled;
     }
 
+    /**
+     * Sets how long changes may wait before their shard is saved
+     * (default PersistenceQueue.DEFAULT_MAX_DIRTY_MS).
+     */
+    public void setMaxDirtyMs(long maxDirtyMs) {
+        persistenceQueue.setMaxDirtyMs(maxDirtyMs);
+    }
+
+    /**
+     * Returns the queue that saves changed shards in the background
+     */
+    public PersistenceQueue<?> getPersistenceQueue() {
+        return persistenceQueue;
+    }
+
+    /**
+     * Saves every change made so far and waits until it is on disk.
+     */
+    public void flush() {
+        persistenceQueue.flush();
+    }
+
+    /**
+     * Saves pending changes and stops the background I/O thread. Changes
+     * made afterwards are saved as they are made.
+     */
+    public void close() {
+        persistenceQueue.close();
+        offsetReservations.close();
+        changeLog.release();
+    }
+
+    /**
+     * Sets a callback run with the key of every change to a stored value. It
+     * runs while the key is locked, so it must be quick and must not touch
+     * this storage.
+     */
+    public void setChangeListener(Consumer<String> listener) {
+        this.changeListener = listener;
+    }
+
+    /**
+     * Returns the log of changes to this storage
+     */
+    public ChangeLog getChangeLog() {
+        return changeLog;
+    }
+
     private void createDataDirectory() {
         File dir = new File(dataDir);
         if (!dir.exists()) {
@@ -38,72 +197,716 @@ public class Storage {
     }
 
     /**
-     * Stores a value with its version vector
+     * Stores a value with its version vector.
+     * An older or identical version than the stored one is ignored (including a
+     * tombstone, so a stale replica write cannot resurrect a deleted key), and a
+     * concurrent version is kept as a sibling.
      */
     public void put(String key, String value, VersionVector version) {
-        data.put(key, new Value(value, version));
-        saveData();
+        store(key, new Value(value, version));
+    }
+
+    /**
+     * Stores a value that expires at the given epoch time in milliseconds
+     * (0 for never).
+     */
+    public void put(String key, String value, VersionVector version, long expiresAt) {
+        store(key, new Value(value, version, expiresAt));
+    }
+
+    /**
+     * Records a versioned delete, merged like any other write.
+     */
+    public void delete(String key, VersionVector version) {
+        store(key, Value.tombstone(version));
+    }
+
+    /**
+     * Records a versioned delete of a CRDT, with the cleared state of what
+     * the deleting coordinator held (null if it held none).
+     */
+    public void delete(String key, VersionVector version, Crdt cleared) {
+        store(key, Value.tombstone(version).withDeletedCrdt(cleared));
+    }
+
+    /**
+     * Conditional write: stores the value only if the key holds nothing the
+     * writer has not seen. With an expected version, the stored version must be
+     * older than or equal to it (a replica that is merely behind still accepts);
+     * without one, the key must be absent or deleted.
+     * Returns false, leaving storage untouched, if the condition fails.
+     */
+    public boolean putIfVersion(String key, String value, VersionVector expected, VersionVector version) {
+        AtomicBoolean applied = new AtomicBoolean();
+        Shard shard = shardFor(key);
+        shard.data.compute(key, (k, existing) -> {
+            if (!matches(existing, expected)) {
+                return existing;
+            }
+            applied.set(true);
+            Value result = merge(existing, new Value(value, version));
+            onChange(shard, k, existing, result);
+            return result;
+        });
+        if (applied.get()) {
+            saveData(shard);
+        }
+        return applied.get();
+    }
+
+    /**
+     * Atomically applies an operation to the CRDT stored under the key. An absent
+     * key starts from {@code empty}, a deleted one from the watermark its
+     * tombstone holds. Replicas pass a merge with the coordinator's state as the
+     * operation. If the operation leaves a deleted key's watermark as it was
+     * (it only merged state from before the delete), the key stays deleted and
+     * its tombstone is returned.
+     *
+     * @throws IllegalArgumentException if the key holds a plain value or a CRDT of another type
+     */
+    public Value updateCrdt(String key, Crdt empty, UnaryOperator<Crdt> operation) {
+        Shard shard = shardFor(key);
+        Value updated = shard.data.compute(key, (k, existing) -> {
+            Crdt current = empty;
+            Crdt watermark = null;
+            if (existing != null && existing.isTombstone()) {
+                Crdt deleted = existing.getDeletedCrdt();
+                if (deleted != null && deleted.getClass() == empty.getClass()) {
+                    watermark = deleted;
+                    current = deleted;
+                }
+            } else if (existing != null) {
+                current = existing.getCrdt();
+                if (current == null || current.getClass() != empty.getClass()) {
+                    throw new IllegalArgumentException("Key " + key + " holds a value of another type");
+                }
+            }
+            Crdt state = operation.apply(current);
+            if (watermark != null && state.equals(watermark)) {
+                return existing;
+            }
+            Value result = Value.ofCrdt(state);
+            onChange(shard, k, existing, result);
+            return result;
+        });
+        saveData(shard);
+        return updated;
+    }
+
+    /**
+     * Returns true if a conditional write with the expected version (null for
+     * absent) would apply to the key now.
+     */
+    public boolean versionMatches(String key, VersionVector expected) {
+        return matches(get(key), expected);
+    }
+
+    private static boolean matches(Value existing, VersionVector expected) {
+        if (existing == null) {
+            return true;
+        }
+        if (expected == null) {
+            return existing.isTombstone() && !existing.hasSiblings();
+        }
+        VersionVector stored = existing.getVersion();
+        return stored == null || stored.equals(expected) || stored.compare(expected) < 0;
+    }
+
+    private void store(String key, Value incoming) {
+        saveData(merge(key, incoming));
+    }
+
+    /**
+     * Merges the value into its shard and returns the shard
+     */
+    private Shard merge(String key, Value incoming) {
+        Shard shard = shardFor(key);
+        shard.data.compute(key, (k, existing) -> {
+            Value result = merge(existing, incoming);
+            onChange(shard, k, existing, result);
+            return result;
+        });
+        return shard;
+    }
+
+    /**
+     * Merges many values at once, as replica writes would, saving to disk once
+     * at the end rather than after each one. Used to load bulk copies.
+     */
+    public void mergeAll(Map<String, Value> values) {
+        if (values.isEmpty()) {
+            return;
+        }
+        Set<Shard> touched = new HashSet<>();
+        values.forEach((key, value) -> touched.add(merge(key, value)));
+        touched.forEach(this::saveData);
+    }
+
+    /**
+     * Merges a prebuilt storage file (e.g. from BulkLoader) into the live
+     * data. The file is streamed and merged ATTACH_CHUNK entries at a time, so
+     * it can be far larger than memory. A damaged file stops the attach
+     * partway, with the entries before the damage merged; merging is
+     * idempotent, so attaching a repaired file again is safe. Returns the
+     * number of entries merged.
+     */
+    public int attach(File file) throws IOException {
+        Map<String, Value> chunk = new HashMap<>();
+        int[] merged = {0};
+        readEntries(file, (key, value) -> {
+            chunk.put(key, value);
+            if (chunk.size() >= ATTACH_CHUNK) {
+                mergeAll(chunk);
+                merged[0] += chunk.size();
+                chunk.clear();
+            }
+        });
+        mergeAll(chunk);
+        return merged[0] + chunk.size();
+    }
+
+    /**
+     * Reads the entries of a data file, which holds either one whole map (as
+     * this storage saves its shards) or a stream of key and value pairs ended
+     * by null (as BulkLoader writes them, so neither side holds the whole
+     * file in memory).
+     */
+    @SuppressWarnings("unchecked")
+    static void readEntries(File file, BiConsumer<String, Value> action) throws IOException {
+        try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            Object first = ois.readObject();
+            if (first instanceof Map) {
+                ((Map<String, Value>) first).forEach(action);
+                return;
+            }
+            for (Object key = first; key != null; key = ois.readObject()) {
+                action.accept((String) key, (Value) ois.readObject());
+            }
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Not a storage file: " + file, e);
+        }
+    }
+
+    /**
+     * Runs the action on every stored entry. The entries are not a
+     * point-in-time snapshot: writes made meanwhile may or may not be seen.
+     */
+    public void forEach(BiConsumer<String, Value> action) {
+        for (Shard shard : shards) {
+            shard.data.forEach(action);
+        }
+    }
+
+    /**
+     * Merges two values of the same key by version: the causally newer one wins,
+     * an identical version keeps the existing value, and concurrent versions are
+     * combined into a value with siblings. Unversioned values never supersede
+     * versioned ones. Also used by coordinators to reconcile replica reads.
+     *
+     * A CRDT carries no version, so against a tombstone it is judged by the
+     * tombstone's watermark instead: a delete only removes the CRDT state it
+     * covers. A CRDT re-created after the delete thus outlives a late or
+     * repeated copy of that delete (a hint replay or a resent batch).
+     */
+    static Value merge(Value existing, Value incoming) {
+        if (existing != null && outlivesDelete(existing, incoming)) {
+            return existing;
+        }
+        if (existing != null && outlivesDelete(incoming, existing)) {
+            return incoming;
+        }
+        Value result = mergeVersions(existing, incoming);
+        if (existing == null || !result.isTombstone() || result.hasSiblings()) {
+            return result;
+        }
+        // A tombstone over a CRDT keeps the cleared state of everything it deleted
+        Crdt watermark = combine(deletedState(existing), deletedState(incoming));
+        if (watermark == null || watermark.equals(result.getDeletedCrdt())) {
+            return result;
+        }
+        return result.withDeletedCrdt(watermark);
+    }
+
+    /**
+     * Returns true if the value is a CRDT holding state the tombstone's
+     * watermark does not cover. A tombstone without a watermark of the same
+     * type (its coordinator held no copy) covers everything.
+     */
+    private static boolean outlivesDelete(Value value, Value tombstone) {
+        if (value.getCrdt() == null || !tombstone.isTombstone() || tombstone.hasSiblings()) {
+            return false;
+        }
+        Crdt watermark = tombstone.getDeletedCrdt();
+        return watermark != null && watermark.getClass() == value.getCrdt().getClass()
+            && !watermark.merge(value.getCrdt()).equals(watermark);
+    }
+
+    private static Crdt deletedState(Value value) {
+        return value.getCrdt() != null ? value.getCrdt().clear() : value.getDeletedCrdt();
+    }
+
+    private static Crdt combine(Crdt a, Crdt b) {
+        if (a == null || b == null || a.getClass() != b.getClass()) {
+            return b != null ? b : a;
+        }
+        return a.merge(b);
+    }
+
+    private static Value mergeVersions(Value existing, Value incoming) {
+        if (existing == null) {
+            return incoming;
+        }
+        if (existing.getCrdt() != null && incoming.getCrdt() != null
+                && existing.getCrdt().getClass() == incoming.getCrdt().getClass()) {
+            return Value.ofCrdt(existing.getCrdt().merge(incoming.getCrdt()));
+        }
+        if (incoming.getVersion() == null) {
+            return existing.getVersion() == null ? incoming : existing;
+        }
+        if (existing.getVersion() == null) {
+            return incoming;
+        }
+
+        int cmp = incoming.getVersion().compare(existing.getVersion());
+        if (cmp > 0) {
+            return incoming;
+        }
+        if (cmp < 0 || incoming.getVersion().equals(existing.getVersion())) {
+            return existing;
+        }
+
+        // Concurrent: keep every version not dominated by (or identical to) another.
+        // Expired versions are dropped, unless nothing else is left.
+        List<Value> candidates = new ArrayList<>(existing.getSiblings());
+        candidates.addAll(incoming.getSiblings());
+        long now = System.currentTimeMillis();
+        if (candidates.stream().anyMatch(v -> !v.isExpired(now))) {
+            candidates.removeIf(v -> v.isExpired(now));
+        }
+        List<Value> survivors = new ArrayList<>();
+        for (int i = 0; i < candidates.size(); i++) {
+            VersionVector version = candidates.get(i).getVersion();
+            boolean obsolete = false;
+            for (int j = 0; j < candidates.size() && !obsolete; j++) {
+                VersionVector other = candidates.get(j).getVersion();
+                obsolete = j != i && (other.compare(version) > 0 || (j < i && other.equals(version)));
+            }
+            if (!obsolete) {
+                survivors.add(candidates.get(i));
+            }
+        }
+        return survivors.size() == 1 ? survivors.get(0) : Value.siblings(survivors);
     }
 
     /**
-     * Retrieves a value and its version vector
+     * Keeps the key index and tombstone count in step with a change to one key,
+     * and reports the change to the listener.
+     * Always called from inside the key's compute, so changes to a key are serialized.
+     */
+    private void onChange(Shard shard, String key, Value before, Value after) {
+        if (before == null && after != null) {
+            keyIndex.add(key);
+        } else if (before != null && after == null) {
+            keyIndex.remove(key);
+        }
+        if (after != null && after.getExpiresAt() > 0
+                && (before == null || before.getExpiresAt() != after.getExpiresAt())) {
+            shard.expiryWheel.schedule(key, after.getExpiresAt());
+        }
+        boolean wasTombstone = before != null && before.isTombstone();
+        boolean isTombstone = after != null && after.isTombstone();
+        if (isTombstone && !wasTombstone) {
+            tombstoneCount.incrementAndGet();
+        } else if (wasTombstone && !isTombstone) {
+            tombstoneCount.decrementAndGet();
+        }
+        if (before != after) {
+            changeLog.append(key, after);
+            Consumer<String> listener = changeListener;
+            if (listener != null) {
+                listener.accept(key);
+            }
+        }
+    }
+
+    /**
+     * Retrieves a value and its version vector.
+     * Deleted keys return their tombstone; callers must check {@link Value#isTombstone()}.
+     * Expired values are returned until reclaimed; callers must check {@link Value#isExpired()}.
      */
     public Value get(String key) {
-        return data.get(key);
+        return shardFor(key).data.get(key);
     }
 
     /**
-     * Removes a key-value pair
+     * Removes a key-value pair outright, without leaving a tombstone
      */
     public void remove(String key) {
-        data.remove(key);
-        saveData();
+        Shard shard = shardFor(key);
+        shard.data.computeIfPresent(key, (k, existing) -> {
+            onChange(shard, k, existing, null);
+            return null;
+        });
+        saveData(shard);
     }
 
     /**
-     * Loads data from disk
+     * Returns up to {@code limit} entries with keys in [startKey, endKey), in key
+     * order. A null start scans from the first key, a null end to the last.
+     * Tombstones and expired values are included so a coordinator can reconcile replicas.
+     */
+    public Map<String, Value> scan(String startKey, String endKey, int limit) {
+        String from = startKey != null ? startKey : "";
+        Map<String, Value> result = new LinkedHashMap<>();
+        if (endKey != null && endKey.compareTo(from) <= 0) {
+            return result;
+        }
+        NavigableSet<String> range = endKey == null
+            ? keyIndex.tailSet(from, true)
+            : keyIndex.subSet(from, true, endKey, false);
+        for (String key : range) {
+            if (result.size() >= limit) {
+                break;
+            }
+            Value value = get(key);
+            if (value != null) {
+                result.put(key, value);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Drops tombstones older than the grace period. Replicas that missed a
+     * delete must be repaired within this window, or the value may come back.
+     * Returns the number of tombstones purged.
+     */
+    public int purgeTombstones(long gracePeriodMs) {
+        long cutoff = System.currentTimeMillis() - gracePeriodMs;
+        int purged = 0;
+        for (Shard shard : shards) {
+            int purgedHere = 0;
+            for (Map.Entry<String, Value> entry : shard.data.entrySet()) {
+                Value value = entry.getValue();
+                if (value.isTombstone() && !value.hasSiblings() && value.getTimestamp() <= cutoff) {
+                    AtomicBoolean removed = new AtomicBoolean();
+                    shard.data.computeIfPresent(entry.getKey(), (k, existing) -> {
+                        if (existing != value) {
+                            return existing; // rewritten since we looked
+                        }
+                        onChange(shard, k, existing, null);
+                        removed.set(true);
+                        return null;
+                    });
+                    if (removed.get()) {
+                        purgedHere++;
+                    }
+                }
+            }
+            if (purgedHere > 0) {
+                saveData(shard);
+                purged += purgedHere;
+            }
+        }
+        purgedTombstones.addAndGet(purged);
+        return purged;
+    }
+
+    /**
+     * Reclaims the values whose expiry time has passed, as found by the timer
+     * wheel, replacing each with a tombstone of its version that is purged
+     * after the usual grace period. A key rewritten since it was scheduled is
+     * left alone. Returns the number of values reclaimed.
+     */
+    public int expireEntries() {
+        long now = System.currentTimeMillis();
+        int expired = 0;
+        for (Shard shard : shards) {
+            int expiredHere = 0;
+            for (TimerWheel.Entry entry : shard.expiryWheel.advance(now)) {
+                AtomicBoolean reclaimed = new AtomicBoolean();
+                shard.data.computeIfPresent(entry.getKey(), (k, existing) -> {
+                    if (existing.getExpiresAt() != entry.getDeadline() || !existing.isExpired(now)) {
+                        return existing;
+                    }
+                    Value tombstone = Value.tombstone(existing.getVersion());
+                    onChange(shard, k, existing, tombstone);
+                    reclaimed.set(true);
+                    return tombstone;
+                });
+                if (reclaimed.get()) {
+                    expiredHere++;
+                }
+            }
+            if (expiredHere > 0) {
+                saveData(shard);
+                expired += expiredHere;
+            }
+        }
+        expiredCount.addAndGet(expired);
+        return expired;
+    }
+
+    /**
+     * Returns the number of expired values reclaimed since startup
+     */
+    public long getExpiredCount() {
+        return expiredCount.get();
+    }
+
+    /**
+     * Returns the number of tombstones currently held
+     */
+    public long getTombstoneCount() {
+        return tombstoneCount.get();
+    }
+
+    /**
+     * Returns the number of tombstones purged since startup
+     */
+    public long getPurgedTombstoneCount() {
+        return purgedTombstones.get();
+    }
+
+    /**
+     * Returns the number of entries held, tombstones included
+     */
+    public int size() {
+        int size = 0;
+        for (Shard shard : shards) {
+            size += shard.data.size();
+        }
+        return size;
+    }
+
+    /**
+     * Loads data from disk. Every data file found is read and its entries are
+     * put in the shards they now belong to; files of another shard layout are
+     * then replaced by this layout's.
      */
-    @SuppressWarnings("unchecked")
     private void loadData() {
-        File file = new File(dataDir, DATA_FILE);
-        if (!file.exists()) {
+        Set<File> current = new HashSet<>();
+        for (Shard shard : shards) {
+            current.add(shard.file);
+        }
+        File[] files = new File(dataDir).listFiles((dir, name) ->
+            name.equals(DATA_FILE) || SHARD_FILE.matcher(name).matches());
+        if (files == null || files.length == 0) {
             return;
         }
 
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file))) {
-            Map<String, Value> loadedData = (Map<String, Value>) ois.readObject();
-            data.putAll(loadedData);
-        } catch (IOException | ClassNotFoundException e) {
-            logger.error("Error loading data: {}", e.getMessage());
+        List<File> stale = new ArrayList<>();
+        for (File file : files) {
+            if (!current.contains(file)) {
+                stale.add(file);
+            }
+            try {
+                readEntries(file, this::load);
+            } catch (IOException e) {
+                logger.error("Error loading data from {}: {}", file.getName(), e.getMessage());
+                stale.remove(file); // keep what could not be read
+            }
+        }
+        tombstoneCount.set(0);
+        for (Shard shard : shards) {
+            shard.data.forEach((key, value) -> {
+                keyIndex.add(key);
+                if (value.isTombstone()) {
+                    tombstoneCount.incrementAndGet();
+                }
+                if (value.getExpiresAt() > 0) {
+                    shard.expiryWheel.schedule(key, value.getExpiresAt());
+                }
+            });
+        }
+
+        if (!stale.isEmpty() && persistenceEnabled) {
+            logger.info("Redistributing {} data file(s) into {} shard(s)", stale.size(), shards.length);
+            boolean saved = true;
+            for (Shard shard : shards) {
+                saved &= writeShard(shard);
+            }
+            if (!saved) {
+                // The old files still hold everything; the next load redistributes again
+                logger.error("Keeping the old data files: the new shard layout could not be saved");
+                return;
+            }
+            for (File file : stale) {
+                if (!file.delete()) {
+                    logger.warn("Could not delete old data file {}", file);
+                }
+            }
         }
     }
 
+    private void load(String key, Value value) {
+        shardFor(key).data.merge(key, value, Storage::merge);
+    }
+
     /**
-     * Saves data to disk (only if persistence is enabled)
+     * Schedules a save of the shard's data (only if persistence is enabled)
      */
-    private void saveData() {
+    private void saveData(Shard shard) {
         if (!persistenceEnabled) {
             return; // Skip disk I/O during tests
         }
-        File file = new File(dataDir, DATA_FILE);
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(file))) {
-            oos.writeObject(data);
+        persistenceQueue.markDirty(shard);
+    }
+
+    /**
+     * Writes the shard's data under a temporary name and renames it over the
+     * shard's file, so the file on disk is always a complete save. Returns
+     * false if the save failed, leaving the previous file in place.
+     */
+    private boolean writeShard(Shard shard) {
+        // One writer per file; other shards save in parallel
+        synchronized (shard) {
+            File tmp = new File(shard.file.getPath() + ".tmp");
+            try {
+                try (ObjectOutputStream oos = new ObjectOutputStream(
+                        new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                    oos.writeObject(shard.data);
+                }
+                Files.move(tmp.toPath(), shard.file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                return true;
+            } catch (IOException e) {
+                logger.error("Error saving data to {}: {}", shard.file.getName(), e.getMessage());
+                tmp.delete();
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Saves the offset the change log starts from after a restart: a
+     * reservation while running, the exact next offset once closed. Synced to
+     * disk before returning, since the change log hands out no offset past the
+     * reservation before it is on disk; the change log calls it ahead of need,
+     * from the reservation thread.
+     */
+    private void saveNextOffset(long next) {
+        if (!persistenceEnabled) {
+            return;
+        }
+        try (FileOutputStream out = new FileOutputStream(new File(dataDir, OFFSET_FILE));
+             DataOutputStream dos = new DataOutputStream(out)) {
+            dos.writeLong(next);
+            dos.flush();
+            out.getFD().sync();
         } catch (IOException e) {
-            logger.error("Error saving data: {}", e.getMessage());
+            logger.error("Error saving change log offset: {}", e.getMessage());
         }
     }
 
     /**
-     * Value class to store both the data and its version vector
+     * Reads the offset the change log starts from, 0 if none was saved
+     */
+    private long loadNextOffset() {
+        File file = new File(dataDir, OFFSET_FILE);
+        if (!file.exists()) {
+            return 0;
+        }
+        try (DataInputStream dis = new DataInputStream(new FileInputStream(file))) {
+            return dis.readLong();
+        } catch (IOException e) {
+            logger.error("Error loading change log offset: {}", e.getMessage());
+            return 0;
+        }
+    }
+
+    /**
+     * One shard of the data, with its own data file.
+     */
+    private static class Shard {
+        private final Map<String, Value> data = new ConcurrentHashMap<>();
+        private final TimerWheel expiryWheel = new TimerWheel(EXPIRY_TICK_MS, EXPIRY_WHEEL_SLOTS);
+        private final File file;
+
+        Shard(File file) {
+            this.file = file;
+        }
+
+        @Override
+        public String toString() {
+            return file.getName();
+        }
+    }
+
+    /**
+     * Value class to store both the data and its version vector.
+     * A tombstone is a Value with no data that marks a versioned delete.
+     *
+     * When concurrent versions are kept as siblings, the Value's data is that of
+     * the sibling with the highest counter (deterministic on every replica) and
+     * its version is the merge of all sibling versions, so the next coordinated
+     * write supersedes every sibling at once.
+     *
+     * A CRDT value carries its replicated state instead of a version; its data is
+     * the rendered value.
+     *
+     * The expiry time is absolute (epoch millis, 0 for never) so that every
+     * replica expires the value at the same moment.
      */
     public static class Value implements Serializable {
         private static final long serialVersionUID = 1L;
+        private static final Comparator<Value> SIBLING_ORDER =
+            Comparator.<Value>comparingLong(v -> v.getVersion().highestCounter())
+                .thenComparing(v -> v.getVersion().toString());
+
         private final String data;
         private final VersionVector version;
+        private final boolean tombstone;
+        private final long timestamp;
+        private final List<Value> siblings;
+        private final Crdt crdt;
+        private final long expiresAt;
+        // Tombstones of CRDTs: the cleared state of what was deleted
+        private final Crdt deletedCrdt;
 
         public Value(String data, VersionVector version) {
+            this(data, version, 0);
+        }
+
+        public Value(String data, VersionVector version, long expiresAt) {
+            this(data, version, false, System.currentTimeMillis(), null, null, expiresAt, null);
+        }
+
+        private Value(String data, VersionVector version, boolean tombstone, long timestamp,
+                      List<Value> siblings, Crdt crdt, long expiresAt, Crdt deletedCrdt) {
             this.data = data;
             this.version = version;
+            this.tombstone = tombstone;
+            this.timestamp = timestamp;
+            this.siblings = siblings;
+            this.crdt = crdt;
+            this.expiresAt = expiresAt;
+            this.deletedCrdt = deletedCrdt;
+        }
+
+        public static Value tombstone(VersionVector version) {
+            return new Value(null, version, true, System.currentTimeMillis(), null, null, 0, null);
+        }
+
+        public static Value ofCrdt(Crdt crdt) {
+            return new Value(crdt.render(), null, false, System.currentTimeMillis(), null, crdt, 0, null);
+        }
+
+        /**
+         * Returns this tombstone holding the given cleared CRDT state as its watermark
+         */
+        Value withDeletedCrdt(Crdt cleared) {
+            return new Value(data, version, tombstone, timestamp, siblings, crdt, expiresAt, cleared);
+        }
+
+        static Value siblings(List<Value> concurrent) {
+            Value primary = Collections.max(concurrent, SIBLING_ORDER);
+            VersionVector merged = primary.getVersion().copy();
+            for (Value sibling : concurrent) {
+                merged.update(sibling.getVersion());
+            }
+            return new Value(primary.data, merged, primary.tombstone, primary.timestamp,
+                Collections.unmodifiableList(new ArrayList<>(concurrent)), null, primary.expiresAt, null);
         }
 
         public String getData() {
@@ -113,5 +916,54 @@ public class Storage {
         public VersionVector getVersion() {
             return version;
         }
+
+        public boolean isTombstone() {
+            return tombstone;
+        }
+
+        /**
+         * Returns the cleared state of the CRDT a tombstone deleted, or null
+         */
+        public Crdt getDeletedCrdt() {
+            return deletedCrdt;
+        }
+
+        public Crdt getCrdt() {
+            return crdt;
+        }
+
+        public boolean hasSiblings() {
+            return siblings != null;
+        }
+
+        /**
+         * Returns the concurrent versions held for this key, or just this value
+         * if there is no conflict
+         */
+        public List<Value> getSiblings() {
+            return siblings != null ? siblings : Collections.singletonList(this);
+        }
+
+        /**
+         * Local time this value was written, used for the tombstone grace period
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * Epoch time in milliseconds at which this value expires, or 0 if it never does
+         */
+        public long getExpiresAt() {
+            return expiresAt;
+        }
+
+        public boolean isExpired() {
+            return isExpired(System.currentTimeMillis());
+        }
+
+        public boolean isExpired(long now) {
+            return expiresAt > 0 && expiresAt <= now;
+        }
     }
 }
\ No newline at end of file
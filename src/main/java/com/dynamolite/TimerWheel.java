@@ -0,0 +1,103 @@
+package com.dynamolite;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * TimerWheel is a hashed timer wheel that tracks key deadlines without
+ * scanning every key. Time is cut into ticks; a deadline lands in the slot for
+ * its tick, modulo the wheel size. Advancing the wheel only visits the slots
+ * for the ticks that have passed, and an entry more than one revolution away
+ * is simply left in its slot until a later pass finds it due.
+ *
+ * Entries are never cancelled: a caller re-checks each due key against its
+ * current state, so an overwritten key just leaves a stale entry behind that is
+ * dropped when its slot comes round.
+ */
+public class TimerWheel {
+    private final long tickMs;
+    private final List<List<Entry>> slots;
+    // Entries whose tick had already been processed when they were scheduled
+    private final List<Entry> overdue = new ArrayList<>();
+    private long currentTick;
+
+    public TimerWheel(long tickMs, int slotCount) {
+        this.tickMs = tickMs;
+        this.slots = new ArrayList<>(slotCount);
+        for (int i = 0; i < slotCount; i++) {
+            slots.add(new ArrayList<>());
+        }
+        this.currentTick = System.currentTimeMillis() / tickMs;
+    }
+
+    /**
+     * Schedules a key for the given absolute deadline (epoch millis). A deadline
+     * that has already passed fires on the next advance.
+     */
+    public synchronized void schedule(String key, long deadline) {
+        // Round up, so the entry is due by the time its tick is processed
+        long tick = (deadline + tickMs - 1) / tickMs;
+        if (tick <= currentTick) {
+            overdue.add(new Entry(key, deadline));
+        } else {
+            slots.get((int) (tick % slots.size())).add(new Entry(key, deadline));
+        }
+    }
+
+    /**
+     * Moves the wheel forward to {@code now} and returns the entries whose
+     * deadline has passed, removing them from the wheel.
+     */
+    public synchronized List<Entry> advance(long now) {
+        List<Entry> due = new ArrayList<>(overdue);
+        overdue.clear();
+        long targetTick = now / tickMs;
+        // After a long pause one full revolution already visits every slot
+        long ticks = Math.min(targetTick - currentTick, slots.size());
+        for (long t = targetTick - ticks + 1; t <= targetTick; t++) {
+            Iterator<Entry> it = slots.get((int) (t % slots.size())).iterator();
+            while (it.hasNext()) {
+                Entry entry = it.next();
+                if (entry.deadline <= now) {
+                    due.add(entry);
+                    it.remove();
+                }
+            }
+        }
+        currentTick = Math.max(currentTick, targetTick);
+        return due;
+    }
+
+    /**
+     * Returns the number of entries still scheduled, stale ones included
+     */
+    public synchronized int size() {
+        int size = overdue.size();
+        for (List<Entry> slot : slots) {
+            size += slot.size();
+        }
+        return size;
+    }
+
+    /**
+     * A key and the deadline it was scheduled for
+     */
+    public static class Entry {
+        private final String key;
+        private final long deadline;
+
+        Entry(String key, long deadline) {
+            this.key = key;
+            this.deadline = deadline;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public long getDeadline() {
+            return deadline;
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.dynamolite;
 import java.io.Serializable;
 import java.util.Map;
 import java.util.Set;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.Objects;
@@ -22,6 +23,29 @@ public class VersionVector implements Serializable {
         this.vector.put(nodeId, 0L);
     }
 
+    private VersionVector(String nodeId, Map<String, Long> vector) {
+        this.nodeId = nodeId;
+        this.vector = new ConcurrentHashMap<>(vector);
+    }
+
+    /**
+     * Returns an independent copy of this vector, owned by the same node
+     */
+    public VersionVector copy() {
+        return new VersionVector(nodeId, vector);
+    }
+
+    /**
+     * Returns the highest counter of any node in this vector
+     */
+    public long highestCounter() {
+        long highest = 0;
+        for (long version : vector.values()) {
+            highest = Math.max(highest, version);
+        }
+        return highest;
+    }
+
     /**
      * Increments the version for the current node
      */
@@ -29,6 +53,14 @@ public class VersionVector implements Serializable {
         vector.compute(nodeId, (key, value) -> value == null ? 1L : value + 1);
     }
 
+    /**
+     * Advances the current node's version to at least the given counter,
+     * and always by at least one
+     */
+    public void advance(long counter) {
+        vector.compute(nodeId, (key, value) -> Math.max(value == null ? 1L : value + 1, counter));
+    }
+
     /**
      * Updates the version vector with another vector's values
      */
@@ -66,6 +98,43 @@ public class VersionVector implements Serializable {
         return 0;
     }
 
+    /**
+     * Serializes through a compact proxy: the default form of a ConcurrentHashMap
+     * costs well over a kilobyte per vector, and every replica message and read
+     * response carries one. Vectors persisted in the old default form still load.
+     */
+    private Object writeReplace() {
+        return new SerializedForm(this);
+    }
+
+    private static class SerializedForm implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final String nodeId;
+        private final String[] nodes;
+        private final long[] versions;
+
+        SerializedForm(VersionVector source) {
+            this.nodeId = source.nodeId;
+            Map<String, Long> snapshot = new HashMap<>(source.vector);
+            this.nodes = new String[snapshot.size()];
+            this.versions = new long[snapshot.size()];
+            int i = 0;
+            for (Map.Entry<String, Long> entry : snapshot.entrySet()) {
+                nodes[i] = entry.getKey();
+                versions[i] = entry.getValue();
+                i++;
+            }
+        }
+
+        private Object readResolve() {
+            Map<String, Long> vector = new HashMap<>();
+            for (int i = 0; i < nodes.length; i++) {
+                vector.put(nodes[i], versions[i]);
+            }
+            return new VersionVector(nodeId, vector);
+        }
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -124,6 +124,80 @@ public class ConcurrentLoadTest {
         assertTrue("Should have at least 80% success rate", successCount.get() > totalRequests * 0.8);
     }
 
+    @Test(timeout = 35000)
+    public void testNoFalseEvictionsAtSaturation() throws Exception {
+        Node.setHealthCheckEnabled(true);
+        Node[] nodes = new Node[3];
+        try {
+            for (int i = 0; i < nodes.length; i++) {
+                nodes[i] = new Node(6101 + i, "target/test_data/load_node_" + (6101 + i) + "_" + System.currentTimeMillis(), 2, 2);
+                nodes[i].setPersistenceEnabled(false);
+            }
+            for (Node n : nodes) {
+                for (int j = 0; j < nodes.length; j++) {
+                    if (nodes[j] != n) {
+                        n.addPeer(nodes[j].getNodeId(), 6101 + j);
+                    }
+                }
+                ExecutorService startExecutor = Executors.newSingleThreadExecutor();
+                startExecutor.submit(n::start);
+                startExecutor.shutdown();
+            }
+            Thread.sleep(1000);
+
+            // Saturate every node for longer than the eviction threshold
+            int threadCount = 48;
+            long deadline = System.currentTimeMillis() + 6000;
+            AtomicInteger successCount = new AtomicInteger(0);
+            AtomicInteger overloadedCount = new AtomicInteger(0);
+            ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+            for (int t = 0; t < threadCount; t++) {
+                final int threadId = t;
+                executor.submit(() -> {
+                    try (Client c = new Client(HOST, 6101 + threadId % nodes.length)) {
+                        c.connect();
+                        for (int i = 0; System.currentTimeMillis() < deadline; i++) {
+                            Request request = i % 2 == 0
+                                ? new Request(Request.Type.PUT, "sat_" + threadId + "_" + i, "value_" + i)
+                                : new Request(Request.Type.GET, "sat_" + threadId + "_" + (i - 1), null);
+                            Response resp = c.sendRequest(request);
+                            if (resp.isSuccess()) {
+                                successCount.incrementAndGet();
+                            } else if (resp.getStatus() == Response.Status.OVERLOADED) {
+                                overloadedCount.incrementAndGet();
+                            }
+                        }
+                    } catch (IOException e) {
+                        logger.error("Load thread {} failed", threadId, e);
+                    }
+                });
+            }
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(20, TimeUnit.SECONDS));
+
+            System.out.println("========================================");
+            System.out.println("SATURATION EVICTION TEST RESULTS");
+            System.out.println("========================================");
+            System.out.println("Successful: " + successCount.get());
+            System.out.println("Overloaded: " + overloadedCount.get());
+            for (Node n : nodes) {
+                System.out.println("Ring size on " + n.getNodeId() + ": " + n.getHashRing().size());
+            }
+            System.out.println("========================================");
+
+            assertTrue(successCount.get() > 0);
+            for (Node n : nodes) {
+                assertEquals("No node should have been evicted", nodes.length, n.getHashRing().getAllNodes().size());
+            }
+        } finally {
+            for (Node n : nodes) {
+                if (n != null) {
+                    n.stop();
+                }
+            }
+        }
+    }
+
     @Test(timeout = 35000)
     public void testConcurrentReads() throws Exception {
         // Use single-node setup
@@ -5,8 +5,30 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 import static org.junit.Assert.*;
 
@@ -79,6 +101,111 @@ public class CoverageBoostTest {
         assertTrue(true);
     }
 
+    @Test
+    public void testPhiAccrualRisesWithSilence() {
+        PhiAccrualFailureDetector detector = new PhiAccrualFailureDetector(8.0, 100, 0, 1000);
+        assertEquals(0.0, detector.phi("peer", 0), 0.0);
+        long now = 1_000_000;
+        for (int i = 0; i < 20; i++) {
+            now += 1000;
+            detector.heartbeat("peer", now);
+        }
+        assertTrue(detector.phi("peer", now + 500) < 1);
+        assertTrue(detector.isAvailable("peer", now + 1000));
+        assertFalse(detector.isAvailable("peer", now + 3000));
+        assertTrue(detector.phi("peer", now + 2000) < detector.phi("peer", now + 2500));
+
+        detector.remove("peer");
+        assertFalse(detector.hasHistory("peer"));
+    }
+
+    @Test
+    public void testPhiAccrualToleratesJitteryPeers() {
+        PhiAccrualFailureDetector detector = new PhiAccrualFailureDetector(8.0, 10, 0, 1000);
+        long steady = 1_000_000;
+        long jittery = 1_000_000;
+        for (int i = 0; i < 50; i++) {
+            steady += 1000;
+            jittery += i % 2 == 0 ? 400 : 1600;
+            detector.heartbeat("steady", steady);
+            detector.heartbeat("jittery", jittery);
+        }
+        // Same mean interval, same silence — the jittery peer is far less suspect
+        assertTrue(detector.phi("jittery", jittery + 1800) < detector.phi("steady", steady + 1800));
+        assertTrue(detector.isAvailable("jittery", jittery + 1800));
+        assertFalse(detector.isAvailable("steady", steady + 1800));
+    }
+
+    @Test
+    public void testMembershipPrecedenceAndRefutation() {
+        Membership view = new Membership("self", 1);
+        view.addSeed("peer", 2);
+        assertEquals(Membership.Status.ALIVE, view.getStatus("peer"));
+
+        // Same incarnation: SUSPECT beats ALIVE, DEAD beats SUSPECT; a newer incarnation beats both
+        assertTrue(view.apply(new Membership.Member("peer", 2, 5, Membership.Status.SUSPECT)));
+        assertFalse(view.apply(new Membership.Member("peer", 2, 5, Membership.Status.ALIVE)));
+        assertTrue(view.apply(new Membership.Member("peer", 2, 5, Membership.Status.DEAD)));
+        assertTrue(view.getReachableMembers().isEmpty());
+        assertTrue(view.apply(new Membership.Member("peer", 2, 6, Membership.Status.ALIVE)));
+
+        // Hearing that we are suspected makes us refute with a higher incarnation
+        long incarnation = view.get("self").getIncarnation();
+        view.apply(new Membership.Member("self", 1, incarnation, Membership.Status.SUSPECT));
+        assertEquals(Membership.Status.ALIVE, view.getStatus("self"));
+        assertEquals(incarnation + 1, view.get("self").getIncarnation());
+        assertTrue(view.updatesToSend(8).stream().anyMatch(m -> m.getNodeId().equals("self")));
+    }
+
+    @Test
+    public void testMembershipGossipConvergesWithFlatTraffic() {
+        int n = 100;
+        List<Membership> views = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            views.add(new Membership("n" + i, i));
+        }
+        // Everyone only knows the seed
+        for (int i = 1; i < n; i++) {
+            views.get(i).addSeed("n0", 0);
+        }
+
+        int rounds = 0;
+        long messages = 0;
+        while (rounds < 200 && !converged(views, n)) {
+            rounds++;
+            for (int i = 0; i < n; i++) {
+                Membership sender = views.get(i);
+                String target = sender.nextProbeTarget();
+                if (target == null) {
+                    continue;
+                }
+                Membership receiver = views.get(Integer.parseInt(target.substring(1)));
+                // One ping and its ack per node per period, plus a periodic push-pull
+                receiver.merge(sender.updatesToSend(HealthMonitor.MAX_PIGGYBACKED_UPDATES));
+                sender.merge(receiver.updatesToSend(HealthMonitor.MAX_PIGGYBACKED_UPDATES));
+                messages++;
+                if (rounds % HealthMonitor.PUSH_PULL_PERIODS == 0) {
+                    receiver.merge(sender.snapshot());
+                    sender.merge(receiver.snapshot());
+                    messages++;
+                }
+            }
+        }
+        assertTrue("100 nodes should converge, took " + rounds + " rounds", converged(views, n));
+        assertTrue("converged in " + rounds + " rounds", rounds <= 40);
+        assertTrue(messages <= (long) rounds * n * 2);
+    }
+
+    private boolean converged(List<Membership> views, int n) {
+        long digest = views.get(0).digest();
+        for (Membership view : views) {
+            if (view.count(Membership.Status.ALIVE) != n || view.digest() != digest) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     // ========================================
     // NodeConnection Error Paths
     // ========================================
@@ -103,6 +230,51 @@ public class CoverageBoostTest {
         assertTrue(true);
     }
 
+    @Test(timeout = 5000)
+    public void testNodeConnectionDoesNotResendATimedOutRequest() throws Exception {
+        // A peer that reads requests but never answers
+        AtomicInteger received = new AtomicInteger();
+        try (ServerSocket server = new ServerSocket(7108)) {
+            Executors.newSingleThreadExecutor().submit(() -> {
+                while (true) {
+                    Socket socket = server.accept();
+                    new Thread(() -> {
+                        try (ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream())) {
+                            out.flush();
+                            ObjectInputStream in = new ObjectInputStream(socket.getInputStream());
+                            while (in.readObject() != null) {
+                                received.incrementAndGet();
+                            }
+                        } catch (Exception e) {
+                            // closed by the client
+                        }
+                    }).start();
+                }
+            });
+            NodeConnection conn = new NodeConnection("silent-node", 7108, 200);
+            long start = System.currentTimeMillis();
+            try {
+                conn.sendRequest(new Request(Request.Type.GOSSIP, null, null));
+                fail("Should time out");
+            } catch (SocketTimeoutException expected) {
+                // not retried
+            }
+            assertTrue(System.currentTimeMillis() - start < 1000);
+            Thread.sleep(100);
+            assertEquals("Sent once", 1, received.get());
+
+            // The next exchange reconnects rather than reading the late answer
+            try {
+                conn.sendRequest(new Request(Request.Type.GOSSIP, null, null));
+            } catch (IOException expected) {
+                // times out again
+            }
+            Thread.sleep(100);
+            assertEquals(2, received.get());
+            conn.close();
+        }
+    }
+
     // ========================================
     // Storage Edge Cases
     // ========================================
@@ -147,6 +319,895 @@ public class CoverageBoostTest {
         assertEquals("value2", result.getData());
     }
 
+    @Test
+    public void testStorageDeleteLeavesTombstone() {
+        Storage storage = new Storage(testDataDir + "/storage_tombstone");
+        VersionVector v1 = new VersionVector("node1");
+        v1.increment();
+        storage.put("key1", "value1", v1);
+
+        VersionVector v2 = new VersionVector("node1");
+        v2.update(v1);
+        v2.increment();
+        storage.delete("key1", v2);
+
+        Storage.Value result = storage.get("key1");
+        assertNotNull(result);
+        assertTrue(result.isTombstone());
+        assertNull(result.getData());
+        assertEquals(1, storage.getTombstoneCount());
+
+        // A replica write that missed the delete must not resurrect the key
+        storage.put("key1", "value1", v1);
+        assertTrue(storage.get("key1").isTombstone());
+
+        // A write that descends from the delete brings it back
+        VersionVector v3 = new VersionVector("node1");
+        v3.update(v2);
+        v3.increment();
+        storage.put("key1", "value3", v3);
+        assertEquals("value3", storage.get("key1").getData());
+        assertEquals(0, storage.getTombstoneCount());
+    }
+
+    @Test
+    public void testStorageIgnoresDelayedOlderWrite() {
+        Storage storage = new Storage(testDataDir + "/storage_delayed");
+        VersionVector v1 = new VersionVector("node1");
+        v1.increment();
+        VersionVector v2 = v1.copy();
+        v2.increment();
+
+        storage.put("key1", "value2", v2);
+        storage.put("key1", "value1", v1); // delayed replica write
+        assertEquals("value2", storage.get("key1").getData());
+        assertFalse(storage.get("key1").hasSiblings());
+    }
+
+    @Test
+    public void testStorageKeepsConcurrentWritesAsSiblings() {
+        Storage storage = new Storage(testDataDir + "/storage_siblings");
+        VersionVector a = new VersionVector("nodeA");
+        a.advance(10);
+        VersionVector b = new VersionVector("nodeB");
+        b.advance(20);
+
+        storage.put("key1", "fromA", a);
+        storage.put("key1", "fromB", b);
+        Storage.Value merged = storage.get("key1");
+        assertTrue(merged.hasSiblings());
+        assertEquals(2, merged.getSiblings().size());
+        assertEquals("fromB", merged.getData()); // highest counter wins the read
+        assertTrue(merged.getVersion().compare(a) > 0);
+        assertTrue(merged.getVersion().compare(b) > 0);
+
+        // Redelivering a sibling changes nothing
+        storage.put("key1", "fromA", a);
+        assertEquals(2, storage.get("key1").getSiblings().size());
+
+        // A write that descends from the merged version resolves the conflict
+        VersionVector resolved = new VersionVector("nodeA");
+        resolved.update(merged.getVersion());
+        resolved.increment();
+        storage.put("key1", "resolved", resolved);
+        assertFalse(storage.get("key1").hasSiblings());
+        assertEquals("resolved", storage.get("key1").getData());
+    }
+
+    @Test(timeout = 10000)
+    public void testStorageConcurrentWritersKeepNewestPerWriter() throws Exception {
+        Storage storage = new Storage(testDataDir + "/storage_race");
+        storage.setPersistenceEnabled(false);
+        int writers = 4;
+        int writesPerWriter = 2000;
+        Thread[] threads = new Thread[writers];
+        for (int t = 0; t < writers; t++) {
+            final String writer = "writer" + t;
+            threads[t] = new Thread(() -> {
+                VersionVector version = new VersionVector(writer);
+                for (int i = 0; i < writesPerWriter; i++) {
+                    version.increment();
+                    storage.put("hot", writer + ":" + i, version.copy());
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // Each writer's history is causal, so only its last write survives as a sibling
+        Storage.Value result = storage.get("hot");
+        assertEquals(writers, result.getSiblings().size());
+        for (Storage.Value sibling : result.getSiblings()) {
+            assertTrue(sibling.getData().endsWith(":" + (writesPerWriter - 1)));
+        }
+    }
+
+    @Test
+    public void testStoragePutIfVersion() {
+        Storage storage = new Storage(testDataDir + "/storage_cas");
+        VersionVector v1 = new VersionVector("node1");
+        v1.increment();
+        assertTrue("absent key accepts PUT_IF_ABSENT", storage.putIfVersion("key1", "value1", null, v1));
+        assertFalse("present key rejects PUT_IF_ABSENT", storage.putIfVersion("key1", "other", null, v1));
+
+        VersionVector v2 = v1.copy();
+        v2.increment();
+        assertTrue(storage.putIfVersion("key1", "value2", v1, v2));
+        assertEquals("value2", storage.get("key1").getData());
+
+        // A writer that still holds v1 lost the race
+        VersionVector stale = v1.copy();
+        stale.increment();
+        stale.increment();
+        assertFalse(storage.putIfVersion("key1", "stale", v1, stale));
+        assertEquals("value2", storage.get("key1").getData());
+
+        // A replica that is merely behind the expected version still accepts
+        storage.put("lagging", "old", v1);
+        VersionVector v3 = v2.copy();
+        v3.increment();
+        assertTrue(storage.putIfVersion("lagging", "new", v2, v3));
+    }
+
+    @Test
+    public void testStorageScanIsOrderedAndBounded() {
+        Storage storage = new Storage(testDataDir + "/storage_scan");
+        VersionVector version = new VersionVector("node1");
+        for (String key : new String[] {"d", "a", "c", "e", "b"}) {
+            storage.put(key, "v_" + key, version);
+        }
+        VersionVector deleteVersion = version.copy();
+        deleteVersion.increment();
+        storage.delete("c", deleteVersion);
+
+        assertEquals(Arrays.asList("a", "b", "c", "d", "e"),
+            new ArrayList<>(storage.scan(null, null, 10).keySet()));
+        assertEquals(Arrays.asList("b", "c"),
+            new ArrayList<>(storage.scan("b", "d", 10).keySet()));
+        assertEquals(2, storage.scan("a", null, 2).size());
+        assertTrue(storage.scan("c", "a", 10).isEmpty());
+        assertTrue(storage.scan("b", null, 10).get("c").isTombstone());
+
+        storage.remove("a");
+        storage.purgeTombstones(-1);
+        assertEquals(Arrays.asList("b", "d", "e"),
+            new ArrayList<>(storage.scan(null, null, 10).keySet()));
+    }
+
+    @Test
+    public void testAdaptiveLimiterRejectsOverLimit() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(2, 2, 10, 0, 0);
+        assertTrue(limiter.acquire());
+        assertTrue(limiter.acquire());
+        assertFalse(limiter.acquire());
+        assertEquals(1, limiter.getRejected());
+        limiter.release(1_000_000);
+        assertTrue(limiter.acquire());
+        assertEquals(2, limiter.getInFlight());
+    }
+
+    @Test
+    public void testAdaptiveLimiterQueuedRequestGetsFreedSlot() throws Exception {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(1, 1, 10, 1, 5000);
+        assertTrue(limiter.acquire());
+        Future<Boolean> queued = Executors.newSingleThreadExecutor().submit(limiter::acquire);
+        while (limiter.getQueued() == 0) {
+            Thread.sleep(10);
+        }
+        // Queue of one is full: the next request is shed immediately
+        assertFalse(limiter.acquire());
+        limiter.release(1_000_000);
+        assertTrue(queued.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testAdaptiveLimiterFollowsLatency() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(20, 4, 100, 0, 0);
+        // Saturated at steady latency: the limit grows
+        for (int i = 0; i < 50; i++) {
+            for (int j = 0; j < limiter.getLimit(); j++) {
+                limiter.acquire();
+            }
+            while (limiter.getInFlight() > 0) {
+                limiter.release(1_000_000);
+            }
+        }
+        int grown = limiter.getLimit();
+        assertTrue("limit should grow, was " + grown, grown > 20);
+
+        // Latency jumps tenfold: the limit backs off
+        for (int i = 0; i < 50; i++) {
+            limiter.acquire();
+            limiter.release(10_000_000);
+        }
+        assertTrue("limit should shrink, was " + limiter.getLimit(), limiter.getLimit() < grown / 2);
+    }
+
+    @Test
+    public void testAdmissionControllerClassifiesTraffic() {
+        VersionVector version = new VersionVector("node1");
+        assertEquals(AdmissionController.TrafficClass.CONTROL,
+            AdmissionController.classify(new Request(Request.Type.HEARTBEAT, null, null)));
+        assertEquals(AdmissionController.TrafficClass.CLIENT,
+            AdmissionController.classify(new Request(Request.Type.PUT, "k", "v")));
+        assertEquals(AdmissionController.TrafficClass.REPLICA,
+            AdmissionController.classify(new Request(Request.Type.PUT, "k", "v", version)));
+        assertEquals(AdmissionController.TrafficClass.REPLICA,
+            AdmissionController.classify(new Request(Request.Type.GET, "k", null, null, true)));
+        AdmissionController controller = new AdmissionController();
+        assertNull(controller.limiterFor(new Request(Request.Type.STATS, null, null)));
+        assertNotNull(controller.limiterFor(new Request(Request.Type.GET, "k", null)));
+    }
+
+    @Test
+    public void testTimerWheelFiresDueEntriesOnly() {
+        TimerWheel wheel = new TimerWheel(10, 8);
+        long now = System.currentTimeMillis();
+        wheel.schedule("past", now - 1000);
+        wheel.schedule("soon", now + 30);
+        // More than one revolution away: stays in its slot until due
+        wheel.schedule("later", now + 500);
+
+        List<TimerWheel.Entry> due = wheel.advance(now + 5);
+        assertEquals(1, due.size());
+        assertEquals("past", due.get(0).getKey());
+        due = wheel.advance(now + 100);
+        assertEquals(1, due.size());
+        assertEquals("soon", due.get(0).getKey());
+        assertTrue(wheel.advance(now + 200).isEmpty());
+        assertEquals(1, wheel.size());
+        due = wheel.advance(now + 5000);
+        assertEquals(1, due.size());
+        assertEquals("later", due.get(0).getKey());
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testLatencyTrackerPercentiles() {
+        LatencyTracker tracker = new LatencyTracker();
+        assertEquals(-1, tracker.percentile(0.95));
+        for (int i = 1; i <= 100; i++) {
+            tracker.record(i);
+        }
+        assertEquals(100, tracker.size());
+        assertEquals(50, tracker.percentile(0.5));
+        assertEquals(95, tracker.percentile(0.95));
+        assertEquals(100, tracker.percentile(1.0));
+        // Old samples age out of the window
+        for (int i = 0; i < LatencyTracker.WINDOW_SIZE; i++) {
+            tracker.record(1000);
+        }
+        assertEquals(LatencyTracker.WINDOW_SIZE, tracker.size());
+        assertEquals(1000, tracker.percentile(0.5));
+    }
+
+    @Test
+    public void testReplicaSelectorPrefersFastIdleReplicas() {
+        ReplicaSelector selector = new ReplicaSelector("self");
+        List<String> ring = Arrays.asList("slow", "busy", "fast", "self");
+        selector.onSend("slow");
+        selector.onReply("slow", 20_000_000, 0);
+        selector.onSend("busy");
+        selector.onReply("busy", 1_000_000, 8);
+        selector.onSend("fast");
+        selector.onReply("fast", 1_000_000, 0);
+        // Local reads first, then by latency with a cubic penalty on queue depth
+        assertEquals(Arrays.asList("self", "fast", "slow", "busy"), selector.rank(ring));
+
+        // Reads in flight count towards the expected queue
+        for (int i = 0; i < 3; i++) {
+            selector.onSend("fast");
+        }
+        assertTrue(selector.score("fast") > selector.score("slow"));
+        // A peer that never answered is avoided once reads to it are outstanding
+        assertEquals(0, selector.score("new"), 0);
+        selector.onSend("new");
+        assertEquals(Double.MAX_VALUE, selector.score("new"), 0);
+    }
+
+    @Test
+    public void testHotKeyTrackerFindsHeavyHitters() throws InterruptedException {
+        HotKeyTracker tracker = new HotKeyTracker(4, 200);
+        for (int i = 0; i < 2000; i++) {
+            tracker.record("key_" + (i % 500));
+            if (i % 2 == 0) {
+                tracker.record("celebrity");
+            }
+        }
+        assertTrue(tracker.isHot("celebrity"));
+        assertFalse(tracker.isHot("key_1"));
+        assertEquals("celebrity", tracker.getTopKeys().get(0).getKey());
+        assertTrue(tracker.getTopKeys().get(0).getValue() >= 1000);
+        assertEquals(4, tracker.getTopKeys().size());
+
+        // Counts halve every window, so a key that cools down is no longer hot
+        for (int window = 0; window < 6; window++) {
+            Thread.sleep(210);
+            tracker.record("key_1");
+        }
+        assertFalse(tracker.isHot("celebrity"));
+    }
+
+    @Test(timeout = 10000)
+    public void testHotKeyReadsAreCachedUntilWritten() throws Exception {
+        node = startNode(7108);
+        try (Client client = new Client("localhost", 7108)) {
+            client.connect();
+            assertTrue(client.sendRequest(new Request(Request.Type.PUT, "hot", "v1")).isSuccess());
+            for (int i = 0; i < 200; i++) {
+                assertEquals("v1", client.sendRequest(new Request(Request.Type.GET, "hot", null)).getMessage());
+            }
+            assertEquals(1L, (long) node.getStats().get("hotKeys"));
+            assertTrue(node.getStats().get("hotKeyCacheHits") > 0);
+            Response topKeys = client.sendRequest(new Request(Request.Type.TOP_KEYS, null, null));
+            assertTrue(topKeys.getMessage().startsWith("[hot="));
+
+            // A write through this coordinator is visible to the very next read
+            assertTrue(client.sendRequest(new Request(Request.Type.PUT, "hot", "v2")).isSuccess());
+            assertEquals("v2", client.sendRequest(new Request(Request.Type.GET, "hot", null)).getMessage());
+        }
+    }
+
+    @Test
+    public void testReadCacheSegmentsAndInvalidation() throws InterruptedException {
+        ReadCache cache = new ReadCache(2000, 10_000);
+        List<Storage.Value> values = Collections.singletonList(new Storage.Value("v", new VersionVector("n")));
+        cache.put("popular", values, 1, cache.startRead());
+        assertNull("Cached with R=1, so not good enough for R=2", cache.get("popular", 2));
+        assertSame(values, cache.get("popular", 1));
+
+        // A scan of keys read once evicts its own entries, not the popular one
+        for (int i = 0; i < 100; i++) {
+            cache.put("scan_" + i, values, 1, cache.startRead());
+        }
+        assertTrue(cache.getBytes() <= 2000);
+        assertTrue(cache.getEvictions() > 0);
+        assertSame(values, cache.get("popular", 1));
+
+        // A read that was in flight while its key was invalidated is not cached
+        long ticket = cache.startRead();
+        cache.invalidate("popular");
+        assertEquals(1, cache.getInvalidations());
+        cache.put("popular", values, 1, ticket);
+        assertNull(cache.get("popular", 1));
+
+        ReadCache shortLived = new ReadCache(2000, 50);
+        shortLived.put("k", values, 1, shortLived.startRead());
+        Thread.sleep(80);
+        assertNull("Entries expire after the staleness bound", shortLived.get("k", 1));
+    }
+
+    @Test(timeout = 10000)
+    public void testShardedStorageSavesPerShardAndRedistributesOnLoad() {
+        String dir = testDataDir + "/storage_sharded";
+        Storage storage = new Storage(dir, 4);
+        for (int i = 0; i < 40; i++) {
+            storage.put("key" + i, "v" + i, new VersionVector("n1"));
+        }
+        VersionVector deleted = new VersionVector("n1");
+        deleted.increment();
+        storage.delete("key0", deleted);
+        storage.close();
+        assertEquals(4, new File(dir).list((d, name) -> name.matches("storage-\\d-of-4\\.dat")).length);
+
+        // A new layout that can not be saved leaves the old files in place
+        File blocker = new File(dir, "storage-0-of-3.dat/blocker");
+        assertTrue(blocker.mkdirs());
+        Storage blocked = new Storage(dir, 3);
+        assertEquals(40, blocked.size());
+        blocked.close();
+        assertEquals(4, new File(dir).list((d, name) -> name.matches("storage-\\d-of-4\\.dat")).length);
+        assertTrue(blocker.delete() && blocker.getParentFile().delete());
+
+        // Reopened with another layout, every entry moves to its new shard
+        Storage resharded = new Storage(dir, 3);
+        assertEquals(3, resharded.getShardCount());
+        assertEquals(40, resharded.size());
+        assertEquals(1, resharded.getTombstoneCount());
+        assertEquals("v17", resharded.get("key17").getData());
+        assertEquals(Arrays.asList("key1", "key10", "key11"),
+            new ArrayList<>(resharded.scan("key1", "key12", 10).keySet()));
+        assertArrayEquals(new String[] {"changes.offset", "storage-0-of-3.dat", "storage-1-of-3.dat",
+            "storage-2-of-3.dat"}, Arrays.stream(new File(dir).list()).sorted().toArray());
+        assertEquals(storage.getChangeLog().getNextOffset(), resharded.getChangeLog().getNextOffset());
+        resharded.close();
+
+        // And back to a single file
+        assertEquals(40, new Storage(dir).size());
+        assertArrayEquals(new String[] {"changes.offset", "storage.dat"},
+            Arrays.stream(new File(dir).list()).sorted().toArray());
+    }
+
+    @Test(timeout = 10000)
+    public void testPersistenceQueueCoalescesWritesWithinMaxDirtyTime() throws Exception {
+        Map<String, Integer> writes = new ConcurrentHashMap<>();
+        CountDownLatch flushed = new CountDownLatch(2);
+        PersistenceQueue<String> queue = new PersistenceQueue<>("test-flusher", target -> {
+            writes.merge(target, 1, Integer::sum);
+            flushed.countDown();
+        });
+        queue.setMaxDirtyMs(200);
+        for (int i = 0; i < 100; i++) {
+            queue.markDirty(i % 2 == 0 ? "a" : "b");
+        }
+        assertEquals("At most one pending flush per target", 2, queue.getQueueDepth());
+        assertEquals(98, queue.getCoalesced());
+        assertTrue("Flushed within the max dirty time", flushed.await(2, TimeUnit.SECONDS));
+        assertEquals(Integer.valueOf(1), writes.get("a"));
+        assertEquals(Integer.valueOf(1), writes.get("b"));
+        assertEquals(0, queue.getQueueDepth());
+        assertTrue(queue.getObservedMaxDirtyMs() >= 200);
+
+        // Marks made since are written by flush(), and inline once closed
+        queue.markDirty("a");
+        queue.flush();
+        assertEquals(Integer.valueOf(2), writes.get("a"));
+        queue.close();
+        queue.markDirty("b");
+        assertEquals(Integer.valueOf(2), writes.get("b"));
+        assertEquals(4, queue.getFlushes());
+    }
+
+    @Test(timeout = 10000)
+    public void testChangeLogOrderRetentionAndOffsets() throws Exception {
+        ChangeLog log = new ChangeLog(4, 10);
+        assertEquals(10, log.getFirstOffset());
+        assertTrue("Nothing to read yet", log.read(10, 100, 20).isEmpty());
+        for (int i = 0; i < 3; i++) {
+            log.append("k" + i, new Storage.Value("v" + i, new VersionVector("n")));
+        }
+        log.append("k0", null);
+        List<ChangeLog.Change> changes = log.read(10, 3, 0);
+        assertEquals(3, changes.size());
+        assertEquals("k0", changes.get(0).getKey());
+        assertEquals(12, changes.get(2).getOffset());
+        assertTrue(log.read(13, 10, 0).get(0).isDelete());
+
+        // Appending never waits for readers: the oldest changes are overwritten
+        log.append("k1", Storage.Value.tombstone(new VersionVector("n")));
+        assertEquals(11, log.getFirstOffset());
+        assertNull("Offset 10 is gone", log.read(10, 10, 0));
+
+        // A waiting reader wakes up for the next change
+        Future<List<ChangeLog.Change>> waiting =
+            Executors.newSingleThreadExecutor().submit(() -> log.read(15, 10, 5000));
+        Thread.sleep(50);
+        log.append("k2", null);
+        assertEquals(15, waiting.get().get(0).getOffset());
+
+        // Offsets carry on after a restart
+        Storage storage = new Storage(testDataDir);
+        VersionVector version = new VersionVector("n");
+        version.increment();
+        storage.put("a", "1", version);
+        VersionVector newer = new VersionVector("n");
+        newer.update(version);
+        newer.increment();
+        storage.delete("a", newer);
+        assertEquals(2, storage.getChangeLog().getNextOffset());
+        storage.close();
+        Storage restarted = new Storage(testDataDir);
+        assertEquals(2, restarted.getChangeLog().getNextOffset());
+
+        // After a crash (no close), offsets skip ahead rather than repeat
+        restarted.put("b", "1", version);
+        assertEquals(3, restarted.getChangeLog().getNextOffset());
+        long afterCrash = new Storage(testDataDir).getChangeLog().getNextOffset();
+        assertEquals(2 + ChangeLog.RESERVE_BLOCK, afterCrash);
+        restarted.close();
+
+        // Offsets are reserved a block at a time, before they are handed out
+        List<Long> reserved = new ArrayList<>();
+        ChangeLog reserving = new ChangeLog(4, 0, reserved::add, null);
+        for (int i = 0; i <= ChangeLog.RESERVE_BLOCK; i++) {
+            reserving.append("k", null);
+        }
+        assertEquals(Arrays.asList(ChangeLog.RESERVE_BLOCK, 2 * ChangeLog.RESERVE_BLOCK), reserved);
+        reserving.release();
+        assertEquals(Long.valueOf(ChangeLog.RESERVE_BLOCK + 1), reserved.get(2));
+
+        // With a requester, the next block is asked for once half the block is used,
+        // and appends past the old limit do not reserve by themselves
+        List<Long> ahead = new ArrayList<>();
+        AtomicInteger requests = new AtomicInteger();
+        ChangeLog early = new ChangeLog(4, 0, ahead::add, requests::incrementAndGet);
+        early.reserveAhead();
+        for (int i = 0; i < ChangeLog.RESERVE_BLOCK / 2; i++) {
+            early.append("k", null);
+        }
+        assertEquals(0, requests.get());
+        early.append("k", null);
+        early.append("k", null);
+        assertEquals("Asked for once", 1, requests.get());
+        early.reserveAhead();
+        for (int i = 0; i < ChangeLog.RESERVE_BLOCK; i++) {
+            early.append("k", null);
+        }
+        assertEquals(Arrays.asList(ChangeLog.RESERVE_BLOCK, 2 * ChangeLog.RESERVE_BLOCK), ahead);
+        assertEquals(2, requests.get());
+    }
+
+    @Test(timeout = 10000)
+    public void testChangeLogAppendsConcurrentlyWithoutLosingChanges() throws Exception {
+        ChangeLog log = new ChangeLog(8192, 0);
+        int writers = 8;
+        int perWriter = 500;
+        // A follower reads while the writers append, waiting whenever it catches up
+        Future<List<ChangeLog.Change>> follower = Executors.newSingleThreadExecutor().submit(() -> {
+            List<ChangeLog.Change> seen = new ArrayList<>();
+            while (seen.size() < writers * perWriter) {
+                seen.addAll(log.read(seen.size(), 100, 1000));
+            }
+            return seen;
+        });
+        ExecutorService pool = Executors.newFixedThreadPool(writers);
+        for (int w = 0; w < writers; w++) {
+            String key = "k" + w;
+            pool.submit(() -> {
+                for (int i = 0; i < perWriter; i++) {
+                    log.append(key, new Storage.Value(String.valueOf(i), new VersionVector("n")));
+                }
+            });
+        }
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+
+        List<ChangeLog.Change> seen = follower.get();
+        assertEquals(writers * perWriter, log.getNextOffset());
+        Map<String, Integer> last = new ConcurrentHashMap<>();
+        for (int i = 0; i < seen.size(); i++) {
+            ChangeLog.Change change = seen.get(i);
+            assertEquals(i, change.getOffset());
+            int value = Integer.parseInt(change.getValue().getData());
+            assertEquals("Each key's changes in order", last.getOrDefault(change.getKey(), -1) + 1, value);
+            last.put(change.getKey(), value);
+        }
+    }
+
+    @Test
+    public void testBulkLoaderParsesCsvAndJsonLines() {
+        assertEquals(Arrays.asList("k", "a, \"quoted\" value", ""),
+            BulkLoader.csvFields("k,\"a, \"\"quoted\"\" value\","));
+        Map<String, String> fields = BulkLoader.jsonFields(
+            "{\"request_id\": \"user-001\", \"n\": 42, \"tags\": [\"a\", {\"b\": 1}], "
+                + "\"body\": \"line\\nnext \\\"q\\\" \\u00e9\"}");
+        assertEquals("user-001", fields.get("request_id"));
+        assertEquals("42", fields.get("n"));
+        assertEquals("[\"a\", {\"b\": 1}]", fields.get("tags"));
+        assertEquals("line\nnext \"q\" \u00e9", fields.get("body"));
+    }
+
+    @Test
+    public void testBulkLoaderMergesSpilledRunsWithLaterRecordsWinning() throws Exception {
+        Path dir = Files.createDirectories(Paths.get(testDataDir, "bulk"));
+        Path input = dir.resolve("input.csv");
+        List<String> lines = new ArrayList<>(Arrays.asList("value,key"));
+        for (int i = 0; i < 25; i++) {
+            lines.add("v" + i + ",k" + (i % 10));
+        }
+        lines.add(",");
+        Files.write(input, lines);
+
+        BulkLoader loader = new BulkLoader(Collections.singleton("n1"), 1, "key", "value");
+        loader.setRunRecords(4);
+        Path file = loader.build(input, dir.resolve("out")).get("n1");
+        assertEquals("The record without a key is skipped", 25, loader.getRecordsRead());
+        assertArrayEquals("Runs are removed once merged", new String[] {file.getFileName().toString()},
+            file.getParent().toFile().list());
+
+        // The streamed file seeds a stopped node and attaches to a running one
+        Files.copy(file, Paths.get(testDataDir, "storage.dat"), StandardCopyOption.REPLACE_EXISTING);
+        Storage seeded = new Storage(testDataDir);
+        assertEquals(10, seeded.size());
+        assertEquals("v20", seeded.get("k0").getData());
+        assertEquals("v19", seeded.get("k9").getData());
+        Storage live = new Storage(testDataDir + "/live");
+        live.setPersistenceEnabled(false);
+        assertEquals(10, live.attach(file.toFile()));
+        assertEquals("v24", live.get("k4").getData());
+    }
+
+    @Test(timeout = 10000)
+    public void testReplicaBatcherCoalescesWritesToAPeer() throws Exception {
+        AtomicInteger frames = new AtomicInteger();
+        ReplicaBatcher batcher = new ReplicaBatcher((peer, request) -> {
+            frames.incrementAndGet();
+            // A slow peer, so writes pile up behind the frame in flight
+            LockSupport.parkNanos(20_000_000L);
+            if (request.getType() != Request.Type.REPLICA_BATCH) {
+                return new Response(Response.Status.SUCCESS, request.getKey());
+            }
+            List<Response> answers = new ArrayList<>();
+            for (Request write : request.getBatch()) {
+                answers.add(write.getKey().equals("bad")
+                    ? new Response(Response.Status.ERROR, write.getKey())
+                    : new Response(Response.Status.SUCCESS, write.getKey()));
+            }
+            return new Response(Response.Status.SUCCESS, "batch").withBatch(answers);
+        }, 8, ReplicaBatcher.DEFAULT_MAX_BYTES, 200);
+
+        ExecutorService writers = Executors.newFixedThreadPool(20);
+        List<Future<Response>> results = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            String key = i == 7 ? "bad" : "k" + i;
+            results.add(writers.submit(() -> batcher.send("peer", new Request(Request.Type.PUT, key, "v"))));
+        }
+        for (int i = 0; i < 20; i++) {
+            Response response = results.get(i).get();
+            assertEquals("Every write gets its own answer", i == 7 ? "bad" : "k" + i, response.getMessage());
+            assertEquals(i != 7, response.isSuccess());
+        }
+        writers.shutdown();
+        assertEquals(20, batcher.getWritesSent());
+        assertEquals(frames.get(), batcher.getFramesSent());
+        assertTrue("Writes should share frames, sent " + frames.get(), frames.get() < 20);
+
+        // A frame that cannot be sent fails each write in it
+        ReplicaBatcher broken = new ReplicaBatcher((peer, request) -> {
+            throw new IOException("down");
+        }, 8, ReplicaBatcher.DEFAULT_MAX_BYTES, 0);
+        try {
+            broken.send("peer", new Request(Request.Type.PUT, "k", "v"));
+            fail("Expected the send to fail");
+        } catch (IOException expected) {
+            assertEquals("down", expected.getMessage());
+        }
+    }
+
+    @Test
+    public void testStorageExpiresValues() throws InterruptedException {
+        Storage storage = new Storage(testDataDir + "/storage_ttl");
+        storage.setPersistenceEnabled(false);
+        VersionVector older = new VersionVector("node1");
+        VersionVector version = older.copy();
+        version.increment();
+        long expiresAt = System.currentTimeMillis() + 50;
+        storage.put("ttl", "v1", version, expiresAt);
+        storage.put("rewritten", "v1", version, expiresAt);
+        VersionVector newer = version.copy();
+        newer.increment();
+        storage.put("rewritten", "v2", newer);
+        assertFalse(storage.get("ttl").isExpired());
+        assertEquals(expiresAt, storage.get("ttl").getExpiresAt());
+
+        Thread.sleep(Storage.EXPIRY_TICK_MS + 100);
+        assertTrue(storage.get("ttl").isExpired());
+        assertEquals(1, storage.expireEntries());
+        assertTrue("Reclaimed into a tombstone", storage.get("ttl").isTombstone());
+        assertEquals(1, storage.getTombstoneCount());
+        assertEquals("v2", storage.get("rewritten").getData());
+        assertEquals(1, storage.getExpiredCount());
+
+        // An older copy without a TTL from a lagging replica stays deleted
+        storage.put("ttl", "v0", older);
+        assertTrue(storage.get("ttl").isTombstone());
+        assertEquals(1, storage.purgeTombstones(0));
+        assertNull(storage.get("ttl"));
+
+        // A new write after expiry replaces the expired value instead of becoming its sibling
+        storage.put("gone", "old", new VersionVector("node1"), System.currentTimeMillis() - 1);
+        storage.put("gone", "new", new VersionVector("node2"));
+        assertFalse(storage.get("gone").hasSiblings());
+        assertEquals("new", storage.get("gone").getData());
+    }
+
+    @Test
+    public void testStoragePurgeTombstonesAfterGracePeriod() {
+        Storage storage = new Storage(testDataDir + "/storage_purge");
+        VersionVector version = new VersionVector("node1");
+        version.increment();
+        storage.delete("key1", version);
+        storage.delete("key2", version);
+
+        assertEquals(0, storage.purgeTombstones(60_000));
+        assertEquals(2, storage.getTombstoneCount());
+
+        assertEquals(2, storage.purgeTombstones(-1));
+        assertNull(storage.get("key1"));
+        assertEquals(0, storage.getTombstoneCount());
+        assertEquals(2, storage.getPurgedTombstoneCount());
+    }
+
+    @Test
+    public void testVersionVectorAdvance() {
+        VersionVector v = new VersionVector("node1");
+        v.advance(100);
+        VersionVector older = new VersionVector("node1");
+        older.advance(50);
+        assertTrue(v.compare(older) > 0);
+
+        // Always moves forward by at least one, even for a lower counter
+        VersionVector copy = new VersionVector("node1");
+        copy.update(v);
+        copy.advance(1);
+        assertTrue(copy.compare(v) > 0);
+    }
+
+    // ========================================
+    // CRDTs
+    // ========================================
+
+    @Test
+    public void testPNCounterMergeIsCommutativeAndIdempotent() {
+        PNCounter a = new PNCounter().add("node1", 5).add("node1", -2);
+        PNCounter b = new PNCounter().add("node2", 10);
+        assertEquals(3, a.value());
+
+        Crdt ab = a.merge(b);
+        Crdt ba = b.merge(a);
+        assertEquals("13", ab.render());
+        assertEquals(ab.render(), ba.render());
+        assertEquals("13", ab.merge(a).merge(b).render());
+    }
+
+    @Test
+    public void testORSetAddWinsOverConcurrentRemove() {
+        ORSet base = new ORSet().add("x", "node1:1");
+        ORSet removed = base.remove("x");
+        ORSet readded = base.add("x", "node2:1");
+
+        assertFalse(removed.contains("x"));
+        ORSet merged = (ORSet) removed.merge(readded);
+        assertTrue("concurrent add survives the remove", merged.contains("x"));
+        assertEquals(merged.render(), readded.merge(removed).render());
+
+        ORSet gone = (ORSet) merged.merge(merged.remove("x"));
+        assertFalse(gone.contains("x"));
+        assertEquals("[]", gone.render());
+    }
+
+    @Test
+    public void testStorageUpdateCrdt() {
+        Storage storage = new Storage(testDataDir + "/storage_crdt");
+        storage.updateCrdt("counter", new PNCounter(), c -> ((PNCounter) c).add("node1", 2));
+        storage.updateCrdt("counter", new PNCounter(), c -> ((PNCounter) c).add("node1", 3));
+        assertEquals("5", storage.get("counter").getData());
+
+        // A replica merge with another node's state adds up without conflict
+        PNCounter remote = new PNCounter().add("node2", 4);
+        storage.updateCrdt("counter", remote, c -> c.merge(remote));
+        assertEquals("9", storage.get("counter").getData());
+
+        storage.put("plain", "value", new VersionVector("node1"));
+        try {
+            storage.updateCrdt("plain", new PNCounter(), c -> ((PNCounter) c).add("node1", 1));
+            fail("Should reject a CRDT update on a plain value");
+        } catch (IllegalArgumentException e) {
+            assertEquals("value", storage.get("plain").getData());
+        }
+    }
+
+    @Test
+    public void testDeletedCrdtIgnoresStateFromBeforeTheDelete() {
+        Storage storage = new Storage(testDataDir + "/storage_crdt_delete");
+        storage.setPersistenceEnabled(false);
+        PNCounter stale = new PNCounter().add("node1", 5).add("node2", 3);
+        storage.updateCrdt("counter", stale, c -> c.merge(stale));
+        ORSet staleSet = new ORSet().add("a", "node1:1");
+        storage.updateCrdt("set", staleSet, c -> c.merge(staleSet));
+        VersionVector version = new VersionVector("node1");
+        version.increment();
+        storage.delete("counter", version);
+        storage.delete("set", version);
+
+        // A replica or hint that missed the delete sends its old state
+        storage.updateCrdt("counter", stale, c -> c.merge(stale));
+        storage.updateCrdt("set", staleSet, c -> c.merge(staleSet));
+        assertTrue(storage.get("counter").isTombstone());
+        assertTrue(storage.get("set").isTombstone());
+
+        // New updates count from the delete, and old state still adds nothing
+        storage.updateCrdt("counter", new PNCounter(), c -> ((PNCounter) c).add("node1", 2));
+        storage.updateCrdt("counter", stale, c -> c.merge(stale));
+        assertEquals("2", storage.get("counter").getData());
+        storage.updateCrdt("set", new ORSet(), c -> ((ORSet) c).add("b", "node1:2"));
+        storage.updateCrdt("set", staleSet, c -> c.merge(staleSet));
+        assertEquals("[b]", storage.get("set").getData());
+
+        // A replica that never held the counter gets the watermark with the delete
+        Storage fresh = new Storage(testDataDir + "/storage_crdt_delete_fresh");
+        fresh.setPersistenceEnabled(false);
+        fresh.delete("counter", version, stale.clear());
+        fresh.updateCrdt("counter", stale, c -> c.merge(stale));
+        assertTrue(fresh.get("counter").isTombstone());
+    }
+
+    @Test
+    public void testRepeatedDeleteDoesNotRemoveARecreatedCrdt() {
+        Storage storage = new Storage(testDataDir + "/storage_crdt_redelete");
+        storage.setPersistenceEnabled(false);
+        PNCounter before = new PNCounter().add("A", 5);
+        storage.updateCrdt("counter", before, c -> c.merge(before));
+        VersionVector version = new VersionVector("A");
+        version.increment();
+        Crdt watermark = before.clear();
+        storage.delete("counter", version, watermark);
+
+        // Re-created after the delete, then the same delete is delivered again
+        storage.updateCrdt("counter", new PNCounter(), c -> ((PNCounter) c).add("A", 1));
+        storage.delete("counter", version, watermark);
+        assertFalse(storage.get("counter").isTombstone());
+        assertEquals("1", storage.get("counter").getData());
+
+        // A peer's later state still merges in
+        PNCounter peer = ((PNCounter) watermark).add("A", 1);
+        storage.updateCrdt("counter", peer, c -> c.merge(peer));
+        assertEquals("1", storage.get("counter").getData());
+        PNCounter peerLater = peer.add("B", 5);
+        storage.updateCrdt("counter", peerLater, c -> c.merge(peerLater));
+        assertEquals("6", storage.get("counter").getData());
+
+        // Seen from the tombstone's side, as a replica that still holds it would
+        Storage.Value tombstone = Storage.Value.tombstone(version).withDeletedCrdt(watermark);
+        Storage.Value recreated = storage.get("counter");
+        assertSame(recreated, Storage.merge(tombstone, recreated));
+        assertSame(recreated, Storage.merge(recreated, tombstone));
+        // State from before the delete is still covered by it
+        assertTrue(Storage.merge(tombstone, Storage.Value.ofCrdt(before)).isTombstone());
+    }
+
+    // ========================================
+    // HintedHandoff
+    // ========================================
+
+    @Test
+    public void testHintedHandoffPersistsAcrossRestart() {
+        String dir = testDataDir + "/hints";
+        HintedHandoff handoff = new HintedHandoff(dir);
+        VersionVector version = new VersionVector("node1");
+        version.increment();
+        handoff.addHint("node2", "key1", new Storage.Value("value1", version));
+        handoff.addHint("node2", "key2", new Storage.Value("value2", version));
+        handoff.addHint("node3", "key3", new Storage.Value("value3", version));
+        handoff.close(); // saved by a background thread until then
+
+        HintedHandoff reloaded = new HintedHandoff(dir);
+        assertEquals(2, reloaded.pendingHints("node2"));
+        assertEquals(1, reloaded.pendingHints("node3"));
+        assertEquals(3, reloaded.totalPendingHints());
+        assertTrue(reloaded.getHintedNodes().contains("node2"));
+        assertEquals(0, reloaded.pendingHints("node4"));
+        assertArrayEquals("Saved through a temporary file", new String[] {"node2.hints", "node3.hints"},
+            Arrays.stream(new File(dir, "hints").list()).sorted().toArray());
+    }
+
+    @Test
+    public void testHintedHandoffBoundsEachOwnersQueue() {
+        HintedHandoff handoff = new HintedHandoff(testDataDir + "/bounded");
+        handoff.setPersistenceEnabled(false);
+        handoff.setMaxHintsPerOwner(3);
+        VersionVector version = new VersionVector("node1");
+        version.increment();
+        for (int i = 0; i < 5; i++) {
+            boolean accepted = handoff.addHint("node2", "key" + i, new Storage.Value("v" + i, version));
+            assertEquals(i < 3, accepted);
+        }
+        assertTrue("Other owners are unaffected", handoff.addHint("node3", "key", new Storage.Value("v", version)));
+        assertEquals(3, handoff.pendingHints("node2"));
+        assertEquals(2, handoff.getDroppedHints());
+    }
+
+    @Test(timeout = 5000)
+    public void testHintedHandoffReplayToOwner() throws Exception {
+        node = startNode(7107);
+        HintedHandoff handoff = new HintedHandoff(testDataDir + "/replay");
+        VersionVector version = new VersionVector("node1");
+        version.increment();
+        for (int i = 0; i < HintedHandoff.REPLAY_BATCH_SIZE + 5; i++) {
+            handoff.addHint(node.getNodeId(), "key" + i, new Storage.Value("value" + i, version));
+        }
+
+        NodeConnection conn = new NodeConnection(node.getNodeId(), 7107);
+        int delivered = handoff.replay(node.getNodeId(), conn);
+        conn.close();
+
+        assertEquals(HintedHandoff.REPLAY_BATCH_SIZE + 5, delivered);
+        assertEquals(0, handoff.pendingHints(node.getNodeId()));
+        assertEquals("value0", node.getStorage().get("key0").getData());
+    }
+
     // ========================================
     // VersionVector Edge Cases
     // ========================================
@@ -223,6 +1284,26 @@ public class CoverageBoostTest {
         assertNotNull(ring.getNode("test-key"));
     }
 
+    @Test
+    public void testHashRingCoveringNodes() {
+        ConsistentHashRing ring = new ConsistentHashRing();
+        for (int i = 1; i <= 5; i++) {
+            ring.addNode("node" + i);
+        }
+        // Without replication every node owns a range
+        assertEquals(5, ring.getCoveringNodes(1, null, Collections.emptySet()).size());
+
+        Set<String> cover = ring.getCoveringNodes(3, "node1", Collections.singleton("node2"));
+        assertTrue(cover.contains("node1"));
+        assertFalse(cover.contains("node2"));
+        assertTrue(cover.size() < 5);
+        // Every key has a replica in the cover
+        for (int i = 0; i < 200; i++) {
+            List<String> owners = ring.getNodes("key" + i, 3);
+            assertTrue(owners.stream().anyMatch(cover::contains));
+        }
+    }
+
     @Test
     public void testHashRingGetAllNodes() {
         ConsistentHashRing ring = new ConsistentHashRing();
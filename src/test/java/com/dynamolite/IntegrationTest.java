@@ -4,8 +4,24 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.*;
 
@@ -109,7 +125,9 @@ public class IntegrationTest {
 
             try (Client c = new Client(HOST, 5002)) {
                 c.connect();
-                Response getResponse = c.sendRequest(new Request(Request.Type.GET, "key1", null));
+                // node1 may hold one of key1's two copies, so the surviving copy is read at ONE
+                Response getResponse = c.sendRequest(new Request(Request.Type.GET, "key1", null)
+                    .withConsistency(Request.Consistency.ONE));
                 assertTrue("GET after failure should succeed", getResponse.isSuccess());
                 assertNotNull(getResponse.getMessage());
                 assertTrue("Should read value1", getResponse.getMessage().contains("value1"));
@@ -119,6 +137,821 @@ public class IntegrationTest {
         }
     }
 
+    @Test(timeout = 20000)
+    public void testDeleteReplicatesTombstone() {
+        try {
+            node1 = startNode(5001);
+            node2 = startNode(5002);
+            node3 = startNode(5003);
+
+            node1.addPeer(node2.getNodeId(), 5002);
+            node1.addPeer(node3.getNodeId(), 5003);
+            node2.addPeer(node1.getNodeId(), 5001);
+            node2.addPeer(node3.getNodeId(), 5003);
+            node3.addPeer(node1.getNodeId(), 5001);
+            node3.addPeer(node2.getNodeId(), 5002);
+
+            client = new Client(HOST, 5001);
+            client.connect();
+            assertTrue(client.sendRequest(new Request(Request.Type.PUT, "delKey", "v1")).isSuccess());
+            assertTrue(client.sendRequest(new Request(Request.Type.DELETE, "delKey", null)).isSuccess());
+
+            Response getResponse = client.sendRequest(new Request(Request.Type.GET, "delKey", null));
+            assertEquals(Response.Status.NOT_FOUND, getResponse.getStatus());
+
+            // Every replica holds a tombstone rather than nothing
+            long tombstones = node1.getStats().get("tombstones")
+                + node2.getStats().get("tombstones")
+                + node3.getStats().get("tombstones");
+            assertEquals(2, tombstones);
+
+            // Writing again after the delete makes the key visible
+            assertTrue(client.sendRequest(new Request(Request.Type.PUT, "delKey", "v2")).isSuccess());
+            Response reread = client.sendRequest(new Request(Request.Type.GET, "delKey", null));
+            assertTrue(reread.isSuccess());
+            assertEquals("v2", reread.getMessage());
+
+            Response stats = client.sendRequest(new Request(Request.Type.STATS, null, null));
+            assertTrue(stats.isSuccess());
+            assertTrue(stats.getMessage().contains("tombstones"));
+        } catch (Exception e) {
+            fail("Test failed: " + e.getMessage());
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void testConditionalWrites() {
+        try {
+            node1 = startNode(5001);
+            node2 = startNode(5002);
+            node1.addPeer(node2.getNodeId(), 5002);
+            node2.addPeer(node1.getNodeId(), 5001);
+
+            client = new Client(HOST, 5001);
+            client.connect();
+            Response created = client.sendRequest(new Request(Request.Type.PUT_IF_ABSENT, "casKey", "v1"));
+            assertTrue("PUT_IF_ABSENT on a new key should succeed", created.isSuccess());
+            Response duplicate = client.sendRequest(new Request(Request.Type.PUT_IF_ABSENT, "casKey", "other"));
+            assertEquals(Response.Status.CONFLICT, duplicate.getStatus());
+            assertEquals("v1", duplicate.getValue().getData());
+
+            // Update with the version returned by the write — no GET needed
+            VersionVector seen = created.getVersion();
+            Response updated = client.sendRequest(
+                new Request(Request.Type.PUT_IF_VERSION, "casKey", "v2").withExpectedVersion(seen));
+            assertTrue("PUT_IF_VERSION with the current version should succeed", updated.isSuccess());
+
+            // Reusing the old version conflicts and returns the current version for a retry
+            Response stale = client.sendRequest(
+                new Request(Request.Type.PUT_IF_VERSION, "casKey", "v3").withExpectedVersion(seen));
+            assertEquals(Response.Status.CONFLICT, stale.getStatus());
+            assertEquals(updated.getVersion(), stale.getVersion());
+            Response retried = client.sendRequest(
+                new Request(Request.Type.PUT_IF_VERSION, "casKey", "v3").withExpectedVersion(stale.getVersion()));
+            assertTrue(retried.isSuccess());
+
+            Response getResponse = client.sendRequest(new Request(Request.Type.GET, "casKey", null));
+            assertEquals("v3", getResponse.getMessage());
+
+            // Creating the key again after a delete supersedes the delete
+            assertTrue(client.sendRequest(new Request(Request.Type.DELETE, "casKey", null)).isSuccess());
+            assertTrue(client.sendRequest(new Request(Request.Type.PUT_IF_ABSENT, "casKey", "v4")).isSuccess());
+            for (Node node : new Node[] {node1, node2}) {
+                Storage.Value stored = node.getStorage().get("casKey");
+                assertFalse("No sibling of the delete", stored.hasSiblings());
+                assertEquals("v4", stored.getData());
+            }
+
+            // A conflict on a replica leaves the coordinator's copy alone
+            VersionVector theirs = new VersionVector(node2.getNodeId());
+            theirs.increment();
+            node2.getStorage().put("casOnly", "theirs", theirs);
+            Response rejected = client.sendRequest(new Request(Request.Type.PUT_IF_ABSENT, "casOnly", "mine"));
+            assertEquals(Response.Status.CONFLICT, rejected.getStatus());
+            assertNull(node1.getStorage().get("casOnly"));
+        } catch (Exception e) {
+            fail("Test failed: " + e.getMessage());
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void testTtlExpiry() {
+        try {
+            node1 = startNode(5001);
+            node2 = startNode(5002);
+            node1.addPeer(node2.getNodeId(), 5002);
+            node2.addPeer(node1.getNodeId(), 5001);
+
+            client = new Client(HOST, 5001);
+            client.connect();
+            assertTrue(client.sendRequest(new Request(Request.Type.PUT, "session", "s1").withTtl(500)).isSuccess());
+            assertTrue(client.sendRequest(new Request(Request.Type.PUT, "durable", "d1")).isSuccess());
+            assertEquals("s1", client.sendRequest(new Request(Request.Type.GET, "session", null)).getMessage());
+
+            Thread.sleep(1000);
+            assertEquals(Response.Status.NOT_FOUND,
+                client.sendRequest(new Request(Request.Type.GET, "session", null)).getStatus());
+            assertEquals("d1", client.sendRequest(new Request(Request.Type.GET, "durable", null)).getMessage());
+            // Both replicas reclaimed the entry on their own, from the same expiry time
+            assertTrue(node1.getStorage().get("session").isTombstone());
+            assertTrue(node2.getStorage().get("session").isTombstone());
+            assertEquals(Long.valueOf(1), node2.getStats().get("expired"));
+        } catch (Exception e) {
+            fail("Test failed: " + e.getMessage());
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void testCrdtCounterAndSet() {
+        try {
+            node1 = startNode(5001);
+            node2 = startNode(5002);
+            node3 = startNode(5003);
+
+            node1.addPeer(node2.getNodeId(), 5002);
+            node1.addPeer(node3.getNodeId(), 5003);
+            node2.addPeer(node1.getNodeId(), 5001);
+            node2.addPeer(node3.getNodeId(), 5003);
+            node3.addPeer(node1.getNodeId(), 5001);
+            node3.addPeer(node2.getNodeId(), 5002);
+
+            // Increments through every node, owners and non-owners alike
+            int[] ports = {5001, 5002, 5003};
+            for (int port : ports) {
+                try (Client c = new Client(HOST, port)) {
+                    c.connect();
+                    for (int i = 0; i < 5; i++) {
+                        assertTrue(c.sendRequest(new Request(Request.Type.INCREMENT, "counter", "2")).isSuccess());
+                    }
+                    assertTrue(c.sendRequest(new Request(Request.Type.INCREMENT, "counter", "-1")).isSuccess());
+                }
+            }
+
+            client = new Client(HOST, 5001);
+            client.connect();
+            Response count = client.sendRequest(new Request(Request.Type.GET, "counter", null));
+            assertTrue(count.isSuccess());
+            assertEquals("27", count.getMessage());
+
+            assertTrue(client.sendRequest(new Request(Request.Type.SET_ADD, "set", "a")).isSuccess());
+            assertTrue(client.sendRequest(new Request(Request.Type.SET_ADD, "set", "b")).isSuccess());
+            assertTrue(client.sendRequest(new Request(Request.Type.SET_REMOVE, "set", "a")).isSuccess());
+            assertEquals("[b]", client.sendRequest(new Request(Request.Type.GET, "set", null)).getMessage());
+
+            Response wrongType = client.sendRequest(new Request(Request.Type.SET_ADD, "counter", "x"));
+            assertEquals(Response.Status.ERROR, wrongType.getStatus());
+        } catch (Exception e) {
+            fail("Test failed: " + e.getMessage());
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testPaginatedScan() {
+        try {
+            node1 = startNode(5001);
+            node2 = startNode(5002);
+            node3 = startNode(5003);
+
+            node1.addPeer(node2.getNodeId(), 5002);
+            node1.addPeer(node3.getNodeId(), 5003);
+            node2.addPeer(node1.getNodeId(), 5001);
+            node2.addPeer(node3.getNodeId(), 5003);
+            node3.addPeer(node1.getNodeId(), 5001);
+            node3.addPeer(node2.getNodeId(), 5002);
+
+            client = new Client(HOST, 5001);
+            client.connect();
+            for (int i = 0; i < 120; i++) {
+                String key = String.format("scan_%03d", i);
+                assertTrue(client.sendRequest(new Request(Request.Type.PUT, key, "v" + i)).isSuccess());
+            }
+            assertTrue(client.sendRequest(new Request(Request.Type.DELETE, "scan_050", null)).isSuccess());
+            assertTrue(client.sendRequest(new Request(Request.Type.PUT, "other", "x")).isSuccess());
+
+            // A single page is capped and hands back a continuation token
+            Response page = client.sendRequest(Request.scan("scan_", "scan_~", 25));
+            assertEquals(25, page.getEntries().size());
+            assertNotNull(page.getContinuationToken());
+
+            // Streaming through all pages yields every live key once, in order
+            List<String> keys = new ArrayList<>();
+            Iterator<Map.Entry<String, String>> it = client.scan("scan_", "scan_~", 25);
+            while (it.hasNext()) {
+                keys.add(it.next().getKey());
+            }
+            assertEquals(119, keys.size());
+            assertEquals("scan_000", keys.get(0));
+            assertEquals("scan_119", keys.get(118));
+            assertFalse(keys.contains("scan_050"));
+            List<String> sorted = new ArrayList<>(keys);
+            Collections.sort(sorted);
+            assertEquals(sorted, keys);
+        } catch (Exception e) {
+            fail("Test failed: " + e.getMessage());
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testGossipSpreadsMembershipFromOneSeed() {
+        try {
+            Node.setHealthCheckEnabled(true);
+            node1 = startNode(5001);
+            node2 = startNode(5002);
+            node3 = startNode(5003);
+            // Each node is only told about node1; gossip does the rest
+            node2.addPeer(node1.getNodeId(), 5001);
+            node3.addPeer(node1.getNodeId(), 5001);
+
+            long deadline = System.currentTimeMillis() + 15000;
+            Node[] nodes = {node1, node2, node3};
+            boolean converged = false;
+            while (!converged && System.currentTimeMillis() < deadline) {
+                Thread.sleep(200);
+                converged = true;
+                for (Node n : nodes) {
+                    converged &= n.getHashRing().size() == 3
+                        && n.getStats().get("membershipDigest").equals(node1.getStats().get("membershipDigest"));
+                }
+            }
+            assertTrue("Membership views should converge", converged);
+            assertTrue(node2.getHashRing().containsNode(node3.getNodeId()));
+
+            // Writes now replicate between nodes that were never introduced
+            client = new Client(HOST, 5002);
+            client.connect();
+            assertTrue(client.sendRequest(new Request(Request.Type.PUT, "gossipKey", "v")).isSuccess());
+        } catch (Exception e) {
+            fail("Test failed: " + e.getMessage());
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testPhiDetectorEvictsStoppedNode() {
+        try {
+            Node.setHealthCheckEnabled(true);
+            node1 = startNode(5001);
+            node2 = startNode(5002);
+            node1.addPeer(node2.getNodeId(), 5002);
+            node2.addPeer(node1.getNodeId(), 5001);
+
+            // Build up some heartbeat history, with replica traffic piggybacking liveness
+            client = new Client(HOST, 5001);
+            client.connect();
+            for (int i = 0; i < 20; i++) {
+                assertTrue(client.sendRequest(new Request(Request.Type.PUT, "phi_" + i, "v")).isSuccess());
+                Thread.sleep(150);
+            }
+            assertTrue(node1.getHashRing().containsNode(node2.getNodeId()));
+
+            String node2Id = node2.getNodeId();
+            long stoppedAt = System.currentTimeMillis();
+            node2.stop();
+            node2 = null;
+            while (node1.getHashRing().containsNode(node2Id) && System.currentTimeMillis() - stoppedAt < 10000) {
+                Thread.sleep(100);
+            }
+            long detectionMs = System.currentTimeMillis() - stoppedAt;
+            assertFalse("Stopped node should be evicted", node1.getHashRing().containsNode(node2Id));
+            assertTrue("Detection took " + detectionMs + "ms", detectionMs < 6000);
+        } catch (Exception e) {
+            fail("Test failed: " + e.getMessage());
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testHintedHandoffReplay() {
+        try {
+            Node.setHealthCheckEnabled(true);
+            node1 = startNode(5001);
+            node2 = startNode(5002);
+            String node3Id = "node3-fixed-id";
+            node3 = startNode(node3Id, 5003);
+
+            node1.addPeer(node2.getNodeId(), 5002);
+            node1.addPeer(node3Id, 5003);
+
+            // Find a key whose preference list is node3 + node2, so node1 is the next node on the ring
+            ConsistentHashRing ring = new ConsistentHashRing();
+            ring.addNode(node1.getNodeId());
+            ring.addNode(node2.getNodeId());
+            ring.addNode(node3Id);
+            String key = null;
+            for (int i = 0; key == null; i++) {
+                List<String> owners = ring.getNodes("hinted_" + i, 2);
+                if (owners.contains(node3Id) && !owners.contains(node1.getNodeId())) {
+                    key = "hinted_" + i;
+                }
+            }
+
+            node3.stop();
+            node3 = null;
+
+            client = new Client(HOST, 5001);
+            client.connect();
+            Response putResponse = client.sendRequest(new Request(Request.Type.PUT, key, "hintedValue"));
+            assertTrue("PUT should meet the write quorum through a hinted replica", putResponse.isSuccess());
+            assertTrue("node1 should hold a hint for node3", node1.getHintedNodes().contains(node3Id));
+
+            // Bring node3 back with the same identity; the next heartbeat triggers the replay
+            node3 = startNode(node3Id, 5003);
+            long deadline = System.currentTimeMillis() + 10000;
+            while (node3.getStorage().get(key) == null && System.currentTimeMillis() < deadline) {
+                Thread.sleep(200);
+            }
+            assertNotNull("Hint should be replayed to node3", node3.getStorage().get(key));
+            assertEquals("hintedValue", node3.getStorage().get(key).getData());
+            // The hint is dropped once node3's acknowledgement reaches node1
+            while (node1.getHintedNodes().contains(node3Id) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertFalse(node1.getHintedNodes().contains(node3Id));
+        } catch (Exception e) {
+            fail("Test failed: " + e.getMessage());
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void testPerRequestConsistency() throws Exception {
+        node1 = startNode(5001);
+        node2 = startNode(5002);
+        node1.addPeer(node2.getNodeId(), 5002);
+        node2.addPeer(node1.getNodeId(), 5001);
+
+        client = new Client(HOST, 5001);
+        client.connect();
+        assertTrue(client.sendRequest(new Request(Request.Type.PUT, "level", "v1")
+            .withConsistency(Request.Consistency.ALL)).isSuccess());
+        Response tooMany = client.sendRequest(new Request(Request.Type.PUT, "level", "v2").withQuorum(0, 3));
+        assertEquals(Response.Status.ERROR, tooMany.getStatus());
+        assertTrue(tooMany.getMessage().contains("replication factor"));
+        Response tooManyCas = client.sendRequest(new Request(Request.Type.PUT_IF_ABSENT, "levelCas", "c0")
+            .withQuorum(0, 3));
+        assertEquals(Response.Status.ERROR, tooManyCas.getStatus());
+        assertTrue(tooManyCas.getMessage().contains("replication factor"));
+
+        // With one of the two replicas gone, only writes that need a single ack succeed
+        node2.stop();
+        node2 = null;
+        Response quorum = client.sendRequest(new Request(Request.Type.PUT, "level", "v3"));
+        assertFalse("Default W=2 should fail with one replica", quorum.isSuccess());
+        Response one = client.sendRequest(new Request(Request.Type.PUT, "level", "v4")
+            .withConsistency(Request.Consistency.ONE));
+        assertTrue("W=ONE should succeed on the coordinator's replica", one.isSuccess());
+        Response cas = client.sendRequest(new Request(Request.Type.PUT_IF_ABSENT, "levelCas", "c1")
+            .withConsistency(Request.Consistency.ONE));
+        assertTrue("Conditional writes honour the level too", cas.isSuccess());
+        Response read = client.sendRequest(new Request(Request.Type.GET, "level", null).withQuorum(1, 0));
+        assertTrue(read.isSuccess());
+        assertEquals("v4", read.getMessage());
+    }
+
+    @Test(timeout = 20000)
+    public void testReadAtAllFailsWithAReplicaDown() throws Exception {
+        node1 = startNode(5001);
+        node2 = startNode(5002);
+        node1.addPeer(node2.getNodeId(), 5002);
+        node2.addPeer(node1.getNodeId(), 5001);
+
+        client = new Client(HOST, 5001);
+        client.connect();
+        assertTrue(client.sendRequest(new Request(Request.Type.PUT, "strict", "v1")).isSuccess());
+        node2.stop();
+        node2 = null;
+
+        // One answer is not ALL: the read fails rather than passing as a weaker one
+        Response all = client.sendRequest(new Request(Request.Type.GET, "strict", null)
+            .withConsistency(Request.Consistency.ALL));
+        assertEquals(Response.Status.ERROR, all.getStatus());
+        assertTrue(all.getMessage().contains("read quorum"));
+        Response one = client.sendRequest(new Request(Request.Type.GET, "strict", null)
+            .withConsistency(Request.Consistency.ONE));
+        assertEquals("v1", one.getMessage());
+    }
+
+    @Test(timeout = 30000)
+    public void testReadCacheInvalidatedByReplicas() throws Exception {
+        node1 = startNode(5001);
+        node2 = startNode(5002);
+        node3 = startNode(5003);
+        Node[] nodes = {node1, node2, node3};
+        for (int a = 0; a < nodes.length; a++) {
+            for (int b = 0; b < nodes.length; b++) {
+                if (a != b) {
+                    nodes[a].addPeer(nodes[b].getNodeId(), 5001 + b);
+                }
+            }
+        }
+        node1.setReadCache(1 << 20, 10_000);
+
+        // A key node1 does not hold, so every uncached read is remote
+        String key = null;
+        for (int i = 0; key == null; i++) {
+            if (!node1.getHashRing().getNodes("cached_" + i, 2).contains(node1.getNodeId())) {
+                key = "cached_" + i;
+            }
+        }
+        client = new Client(HOST, 5001);
+        client.connect();
+        assertTrue(client.sendRequest(new Request(Request.Type.PUT, key, "v1")).isSuccess());
+        assertEquals("v1", client.sendRequest(new Request(Request.Type.GET, key, null)).getMessage());
+        assertEquals("v1", client.sendRequest(new Request(Request.Type.GET, key, null)).getMessage());
+        assertEquals(1L, (long) node1.getStats().get("readCacheHits"));
+
+        // A write through another coordinator reaches node1 as an invalidation
+        try (Client other = new Client(HOST, 5002)) {
+            other.connect();
+            assertTrue(other.sendRequest(new Request(Request.Type.PUT, key, "v2")).isSuccess());
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (node1.getStats().get("readCacheInvalidations") == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertTrue("node1 should have been told of the write", node1.getStats().get("readCacheInvalidations") > 0);
+        assertEquals("v2", client.sendRequest(new Request(Request.Type.GET, key, null)).getMessage());
+    }
+
+    @Test(timeout = 30000)
+    public void testNearCacheInvalidatedByServerPush() throws Exception {
+        node1 = startNode(5001);
+        node2 = startNode(5002);
+        node1.addPeer(node2.getNodeId(), 5002);
+        node2.addPeer(node1.getNodeId(), 5001);
+
+        client = new Client(HOST, 5001).withNearCache(1 << 20, 10_000);
+        client.connect();
+        assertTrue(client.sendRequest(new Request(Request.Type.PUT, "near", "v1")).isSuccess());
+        assertEquals("v1", client.sendRequest(new Request(Request.Type.GET, "near", null)).getMessage());
+        long coordinated = node1.getStats().get("coordinatedReads");
+        for (int i = 0; i < 5; i++) {
+            assertEquals("v1", client.sendRequest(new Request(Request.Type.GET, "near", null)).getMessage());
+        }
+        assertEquals(5, client.getNearCacheHits());
+        assertEquals("Cached reads should not reach the node",
+            coordinated, (long) node1.getStats().get("coordinatedReads"));
+        assertEquals(1L, (long) node1.getStats().get("nearCacheClients"));
+
+        // A write through the other node is pushed to this client
+        try (Client other = new Client(HOST, 5002)) {
+            other.connect();
+            assertTrue(other.sendRequest(new Request(Request.Type.PUT, "near", "v2")).isSuccess());
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (client.getInvalidationsReceived() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertTrue("The write should have been pushed", client.getInvalidationsReceived() > 0);
+        assertEquals("v2", client.sendRequest(new Request(Request.Type.GET, "near", null)).getMessage());
+
+        // Our own writes drop the cached value straight away
+        assertTrue(client.sendRequest(new Request(Request.Type.DELETE, "near", null)).isSuccess());
+        assertEquals(Response.Status.NOT_FOUND,
+            client.sendRequest(new Request(Request.Type.GET, "near", null)).getStatus());
+    }
+
+    @Test(timeout = 30000)
+    public void testAsyncReplicationAcksAfterOneCopy() throws Exception {
+        node1 = startNode(5001);
+        node2 = startNode(5002);
+        node1.addPeer(node2.getNodeId(), 5002);
+        node2.addPeer(node1.getNodeId(), 5001);
+        node1.setAsyncReplication(true);
+
+        client = new Client(HOST, 5001);
+        client.connect();
+        assertTrue(client.sendRequest(new Request(Request.Type.PUT, "async", "v1")).isSuccess());
+        long deadline = System.currentTimeMillis() + 5000;
+        while (node1.getStats().get("asyncReplicationPropagated") == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(1L, (long) node1.getStats().get("asyncReplicationPropagated"));
+        assertEquals("v1", node2.getStorage().get("async").getData());
+
+        // With the other replica down, writes are still acknowledged, and its lag grows
+        String lagging = node2.getNodeId();
+        node2.stop();
+        node2 = null;
+        assertTrue(client.sendRequest(new Request(Request.Type.PUT, "async", "v2")).isSuccess());
+        assertEquals("v2", node1.getStorage().get("async").getData());
+        assertEquals(1L, (long) node1.getStats().get("asyncReplicationPending"));
+        deadline = System.currentTimeMillis() + 5000;
+        while (!node1.getReplicationLag().containsKey(lagging) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue(node1.getReplicationLag().containsKey(lagging));
+
+        // After its retries the write is kept as a hint for the replica
+        deadline = System.currentTimeMillis() + 10000;
+        while (node1.getStats().get("asyncReplicationFailures") == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(1L, (long) node1.getStats().get("asyncReplicationFailures"));
+        assertTrue(node1.getStats().get("asyncReplicationRetries") > 0);
+        assertEquals(0L, (long) node1.getStats().get("asyncReplicationPending"));
+    }
+
+    @Test(timeout = 30000)
+    public void testChangeFeedIsOrderedAndResumable() throws Exception {
+        node1 = new Node(5001, "target/test_data/node_5001_" + System.currentTimeMillis(), 1, 1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.submit(node1::start);
+        executor.shutdown();
+        Thread.sleep(500);
+        client = new Client(HOST, 5001);
+        client.connect();
+        assertTrue(client.sendRequest(new Request(Request.Type.PUT, "feed", "v1")).isSuccess());
+        assertTrue(client.sendRequest(new Request(Request.Type.PUT, "feed", "v2")).isSuccess());
+        assertTrue(client.sendRequest(new Request(Request.Type.DELETE, "feed", null)).isSuccess());
+
+        long resumeFrom;
+        try (Client consumer = new Client(HOST, 5001)) {
+            consumer.connect();
+            Iterator<ChangeLog.Change> feed = consumer.followChanges(-1, 2);
+            ChangeLog.Change first = feed.next();
+            ChangeLog.Change second = feed.next();
+            assertEquals("v1", first.getValue().getData());
+            assertEquals("v2", second.getValue().getData());
+            assertTrue("Versions ride along", second.getValue().getVersion().compare(first.getValue().getVersion()) > 0);
+            assertTrue(feed.next().isDelete());
+            resumeFrom = second.getOffset() + 1;
+
+            // The consumer waits for writes made while it follows the feed
+            assertTrue(client.sendRequest(new Request(Request.Type.PUT, "later", "v3")).isSuccess());
+            assertEquals("later", feed.next().getKey());
+        }
+
+        // A new consumer resumes from a saved offset
+        Response response = client.sendRequest(Request.changes(resumeFrom, 10, 0));
+        assertTrue(response.isSuccess());
+        assertEquals(2, response.getChanges().size());
+        assertTrue(response.getChanges().get(0).isDelete());
+        assertEquals(resumeFrom + 2, response.getNextOffset());
+    }
+
+    @Test(timeout = 30000)
+    public void testBootstrapStreamsSnapshotToNewNode() throws Exception {
+        node1 = startNode(5001);
+        node2 = startNode(5002);
+        node1.addPeer(node2.getNodeId(), 5002);
+        node2.addPeer(node1.getNodeId(), 5001);
+        VersionVector version = new VersionVector(node1.getNodeId());
+        version.increment();
+        for (int i = 0; i < 300; i++) {
+            node1.getStorage().put("boot_" + i, "value_" + i, version);
+            node2.getStorage().put("boot_" + i, "value_" + i, version);
+        }
+
+        // A new node joins the ring and pulls its share in bulk from node1,
+        // while node1 keeps taking writes
+        node3 = startNode(5003);
+        Node[] nodes = {node1, node2, node3};
+        for (int a = 0; a < nodes.length; a++) {
+            for (int b = 0; b < nodes.length; b++) {
+                if (a != b) {
+                    nodes[a].addPeer(nodes[b].getNodeId(), 5001 + b);
+                }
+            }
+        }
+        ExecutorService writer = Executors.newSingleThreadExecutor();
+        Future<?> writes = writer.submit(() -> {
+            for (int i = 0; i < 100; i++) {
+                node1.getStorage().put("late_" + i, "value_" + i, version);
+            }
+        });
+        long loaded = node3.bootstrapFrom(node1.getNodeId());
+        writes.get();
+        writer.shutdown();
+
+        int owned = 0;
+        for (int i = 0; i < 300; i++) {
+            String key = "boot_" + i;
+            if (node1.getHashRing().getNodes(key, 2).contains(node3.getNodeId())) {
+                owned++;
+                assertEquals("value_" + i, node3.getStorage().get(key).getData());
+            } else {
+                assertNull("Only owned keys are sent", node3.getStorage().get(key));
+            }
+        }
+        assertTrue(owned > 0);
+        assertTrue(loaded >= owned);
+        Map<String, Long> stats = node3.getStats();
+        assertTrue(stats.get("bootstrapBytes") > 0);
+        assertEquals(stats.get("bootstrapEntries").longValue(), loaded);
+        assertEquals(1L, (long) node1.getStats().get("snapshotsServed"));
+    }
+
+    @Test(timeout = 30000)
+    public void testBulkLoaderAttachesFilesToRunningNodes() throws Exception {
+        node1 = startNode(5001);
+        node2 = startNode(5002);
+        node3 = startNode(5003);
+        Node[] nodes = {node1, node2, node3};
+        for (int a = 0; a < nodes.length; a++) {
+            for (int b = 0; b < nodes.length; b++) {
+                if (a != b) {
+                    nodes[a].addPeer(nodes[b].getNodeId(), 5001 + b);
+                }
+            }
+        }
+
+        Path dir = Files.createDirectories(Paths.get("target/test_data/bulk_" + System.currentTimeMillis()));
+        Path input = dir.resolve("input.jsonl");
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            lines.add("{\"id\": \"bulk_" + i + "\", \"body\": \"value \\\"" + i + "\\\"\"}");
+        }
+        Files.write(input, lines);
+
+        // Nodes given by port alone report their ids
+        String id2 = BulkLoader.nodeIdAt(HOST, 5002);
+        assertEquals(node2.getNodeId(), id2);
+        List<String> ids = Arrays.asList(node1.getNodeId(), id2, node3.getNodeId());
+        BulkLoader loader = new BulkLoader(ids, 2, "id", "body");
+        loader.setRunRecords(128); // spill sorted runs to disk and merge them
+        Map<String, Path> files = loader.build(input, dir.resolve("out"));
+        assertEquals(500, loader.getRecordsRead());
+
+        // Nodes only attach files from their import directory
+        assertFalse(BulkLoader.attach(HOST, 5001, files.get(node1.getNodeId())).isSuccess());
+        long attached = 0;
+        for (int n = 0; n < nodes.length; n++) {
+            nodes[n].setBulkImportDir(dir.resolve("out").toString());
+            assertFalse(BulkLoader.attach(HOST, 5001 + n, dir.resolve("out").resolve("..").resolve("input.jsonl"))
+                .isSuccess());
+            Path file = files.get(nodes[n].getNodeId());
+            assertTrue(Files.exists(file));
+            assertTrue(BulkLoader.attach(HOST, 5001 + n, file).isSuccess());
+            attached += nodes[n].getStats().get("bulkLoadedEntries");
+        }
+        assertEquals("Each key lands on its two replicas", 1000, attached);
+
+        client = new Client(HOST, 5001);
+        client.connect();
+        for (int i = 0; i < 500; i += 50) {
+            assertEquals("value \"" + i + "\"",
+                client.sendRequest(new Request(Request.Type.GET, "bulk_" + i, null)).getMessage());
+        }
+        // A later write supersedes the loaded version
+        assertTrue(client.sendRequest(new Request(Request.Type.PUT, "bulk_0", "updated")).isSuccess());
+        assertEquals("updated", client.sendRequest(new Request(Request.Type.GET, "bulk_0", null)).getMessage());
+    }
+
+    @Test(timeout = 30000)
+    public void testHedgedReadBypassesSlowReplica() throws Exception {
+        String slowId = "slow-replica";
+        try (SlowReplica slow = new SlowReplica(5003)) {
+            String dataDir = "target/test_data/node_5001_" + System.currentTimeMillis();
+            node1 = new Node(5001, dataDir, 1, 2);
+            // Keep reading the slow replica first, to hedge against it
+            node1.setAdaptiveReplicaSelection(false);
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            executor.submit(node1::start);
+            executor.shutdown();
+            node2 = startNode(5002);
+            node1.addPeer(node2.getNodeId(), 5002);
+            node1.addPeer(slowId, 5003);
+
+            // A key read from the slow replica first; the other replica is the spare
+            String key = null;
+            for (int i = 0; key == null; i++) {
+                if (node1.getHashRing().getNodes("hedge_" + i, 2).get(0).equals(slowId)) {
+                    key = "hedge_" + i;
+                }
+            }
+            VersionVector version = new VersionVector(node2.getNodeId());
+            version.increment();
+            node1.getStorage().put(key, "hedgedValue", version);
+            node2.getStorage().put(key, "hedgedValue", version);
+
+            client = new Client(HOST, 5001);
+            client.connect();
+            // Build up a latency history while the replica is fast
+            for (int i = 0; i < Node.MIN_HEDGE_SAMPLES + 10; i++) {
+                client.sendRequest(new Request(Request.Type.GET, key, null));
+            }
+            // Scheduling jitter may already have hedged the odd read
+            long hedgedBefore = node1.getStats().get("hedgedReads");
+            long winsBefore = node1.getStats().get("hedgeWins");
+
+            slow.delayMs = 2000;
+            long start = System.currentTimeMillis();
+            Response response = client.sendRequest(new Request(Request.Type.GET, key, null));
+            long elapsed = System.currentTimeMillis() - start;
+            assertTrue("Hedged read should succeed from the spare", response.isSuccess());
+            assertEquals("hedgedValue", response.getMessage());
+            assertTrue("Read took " + elapsed + "ms", elapsed < 1000);
+            assertEquals(hedgedBefore + 1, (long) node1.getStats().get("hedgedReads"));
+            assertEquals(winsBefore + 1, (long) node1.getStats().get("hedgeWins"));
+
+            // With replica selection the slow replica is passed over altogether
+            node1.setAdaptiveReplicaSelection(true);
+            start = System.currentTimeMillis();
+            for (int i = 0; i < 5; i++) {
+                assertTrue(client.sendRequest(new Request(Request.Type.GET, key, null)).isSuccess());
+            }
+            elapsed = System.currentTimeMillis() - start;
+            assertTrue("Reads took " + elapsed + "ms", elapsed < 1000);
+            assertEquals(5L, (long) node1.getStats().get("reorderedReads"));
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testConcurrentReadsOfOneKeyAreCoalesced() throws Exception {
+        String slowId = "slow-replica";
+        try (SlowReplica slow = new SlowReplica(5003)) {
+            slow.delayMs = 500;
+            String dataDir = "target/test_data/node_5001_" + System.currentTimeMillis();
+            node1 = new Node(5001, dataDir, 1, 2);
+            node1.setAdaptiveReplicaSelection(false);
+            node1.setHedgedReads(false, Node.DEFAULT_HEDGE_PERCENTILE);
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            executor.submit(node1::start);
+            executor.shutdown();
+            Thread.sleep(500);
+            node1.addPeer(slowId, 5003);
+
+            String key = null;
+            for (int i = 0; key == null; i++) {
+                if (node1.getHashRing().getNodes("flash_" + i, 2).get(0).equals(slowId)) {
+                    key = "flash_" + i;
+                }
+            }
+            String hotKey = key;
+            int readers = 10;
+            ExecutorService clients = Executors.newFixedThreadPool(readers);
+            List<Future<Response>> results = new ArrayList<>();
+            for (int i = 0; i < readers; i++) {
+                results.add(clients.submit(() -> {
+                    try (Client reader = new Client(HOST, 5001)) {
+                        reader.connect();
+                        return reader.sendRequest(new Request(Request.Type.GET, hotKey, null));
+                    }
+                }));
+            }
+            for (Future<Response> result : results) {
+                assertEquals(Response.Status.NOT_FOUND, result.get().getStatus());
+            }
+            clients.shutdown();
+
+            long coalesced = node1.getStats().get("coalescedReads");
+            assertEquals(readers, coalesced + slow.reads.get());
+            assertTrue("Replica saw " + slow.reads.get() + " reads", slow.reads.get() <= 3);
+        }
+    }
+
+    /**
+     * A stand-in replica that answers every replica read with NOT_FOUND after a
+     * configurable delay.
+     */
+    private static class SlowReplica implements AutoCloseable {
+        private final ServerSocket serverSocket;
+        final AtomicInteger reads = new AtomicInteger();
+        volatile long delayMs;
+
+        SlowReplica(int port) throws IOException {
+            serverSocket = new ServerSocket(port);
+            Thread acceptor = new Thread(() -> {
+                while (!serverSocket.isClosed()) {
+                    try {
+                        Socket socket = serverSocket.accept();
+                        Thread handler = new Thread(() -> serve(socket));
+                        handler.setDaemon(true);
+                        handler.start();
+                    } catch (IOException e) {
+                        return;
+                    }
+                }
+            });
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        private void serve(Socket socket) {
+            try (Socket s = socket) {
+                ObjectOutputStream out = new ObjectOutputStream(s.getOutputStream());
+                out.flush();
+                ObjectInputStream in = new ObjectInputStream(s.getInputStream());
+                while (true) {
+                    Request request = (Request) in.readObject();
+                    if (request.getType() == Request.Type.GET) {
+                        reads.incrementAndGet();
+                        Thread.sleep(delayMs);
+                        out.writeObject(new Response(Response.Status.NOT_FOUND, "Key not found"));
+                    } else {
+                        out.writeObject(new Response(Response.Status.SUCCESS, "PONG"));
+                    }
+                    out.flush();
+                }
+            } catch (IOException | ClassNotFoundException | InterruptedException e) {
+                // Connection closed
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            serverSocket.close();
+        }
+    }
+
     private Node startNode(int port) throws InterruptedException {
         String dataDir = "target/test_data/node_" + port + "_" + System.currentTimeMillis();
         Node node = new Node(port, dataDir, 2, 2);
@@ -128,4 +961,14 @@ public class IntegrationTest {
         Thread.sleep(500);
         return node;
     }
+
+    private Node startNode(String nodeId, int port) throws InterruptedException {
+        String dataDir = "target/test_data/node_" + port + "_" + System.currentTimeMillis();
+        Node node = new Node(nodeId, port, dataDir, 2, 2);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.submit(node::start);
+        executor.shutdown();
+        Thread.sleep(500);
+        return node;
+    }
 }
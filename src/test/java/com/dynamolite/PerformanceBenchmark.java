@@ -8,8 +8,9 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.Executors;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.junit.Assert.*;
 
@@ -149,6 +150,149 @@ public class PerformanceBenchmark {
         }
     }
 
+    @Test(timeout = 60000)
+    public void benchmarkStoragePutContention() throws Exception {
+        Storage storage = new Storage("target/test_data/bench_contention_" + System.currentTimeMillis());
+        storage.setPersistenceEnabled(false);
+        int threads = 8;
+        int writesPerThread = 50_000;
+
+        double uncontendedOps = runPutWorkload(storage, threads, writesPerThread, false);
+        double contendedOps = runPutWorkload(storage, threads, writesPerThread, true);
+
+        System.out.println("========================================");
+        System.out.println("STORAGE PUT CONTENTION BENCHMARK");
+        System.out.println("========================================");
+        System.out.println("Threads: " + threads + " x " + writesPerThread + " puts");
+        System.out.println("Distinct keys (uncontended): " + String.format("%.0f", uncontendedOps) + " ops/s");
+        System.out.println("Single hot key (contended):  " + String.format("%.0f", contendedOps) + " ops/s");
+        System.out.println("========================================");
+
+        assertEquals(threads, storage.get("hot").getSiblings().size());
+        assertTrue("Uncontended puts should exceed 100k ops/s, got " + uncontendedOps, uncontendedOps > 100_000);
+    }
+
+    @Test(timeout = 120000)
+    public void benchmarkShardedStoragePersistedPuts() throws Exception {
+        int threads = 8;
+        int writesPerThread = 5000;
+        String dir = "target/test_data/bench_shards_" + System.currentTimeMillis();
+        Storage unshardedStorage = new Storage(dir + "/1");
+        Storage shardedStorage = new Storage(dir + "/8", threads);
+        double unsharded = runPutWorkload(unshardedStorage, threads, writesPerThread, false);
+        double sharded = runPutWorkload(shardedStorage, threads, writesPerThread, false);
+        unshardedStorage.close();
+        shardedStorage.close();
+        PersistenceQueue<?> unshardedFlushes = unshardedStorage.getPersistenceQueue();
+        PersistenceQueue<?> shardedFlushes = shardedStorage.getPersistenceQueue();
+
+        System.out.println("========================================");
+        System.out.println("SHARDED STORAGE PERSISTED PUT BENCHMARK");
+        System.out.println("========================================");
+        System.out.println("Threads: " + threads + " x " + writesPerThread + " puts, saved in the background");
+        System.out.println("1 shard:  " + String.format("%.0f", unsharded) + " ops/s, "
+            + unshardedFlushes.getFlushes() + " flushes, avg " + unshardedFlushes.getAvgFlushMicros() + "us");
+        System.out.println(threads + " shards: " + String.format("%.0f", sharded) + " ops/s, "
+            + shardedFlushes.getFlushes() + " flushes, avg " + shardedFlushes.getAvgFlushMicros() + "us");
+        System.out.println("========================================");
+
+        assertEquals(threads * writesPerThread, new Storage(dir + "/8", threads).size());
+        assertTrue("A shard's flush should be cheaper than a whole-map flush",
+            shardedFlushes.getAvgFlushMicros() < unshardedFlushes.getAvgFlushMicros());
+    }
+
+    @Test(timeout = 60000)
+    public void benchmarkGoodputUnderOverload() throws Exception {
+        node = new Node(7003, "target/test_data/bench_node_7003_" + System.currentTimeMillis(), 1, 1);
+        node.setPersistenceEnabled(false);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.submit(node::start);
+        executor.shutdown();
+        Thread.sleep(500);
+
+        long[] nominal = runClosedLoad(7003, 8, 2000);
+        long[] overloaded = runClosedLoad(7003, 64, 2000);
+        double nominalRps = nominal[0] / 2.0;
+        double overloadedRps = overloaded[0] / 2.0;
+
+        System.out.println("========================================");
+        System.out.println("GOODPUT UNDER OVERLOAD BENCHMARK");
+        System.out.println("========================================");
+        System.out.println("8 clients:  " + String.format("%.0f", nominalRps) + " successful RPS, "
+            + nominal[1] + " rejected");
+        System.out.println("64 clients: " + String.format("%.0f", overloadedRps) + " successful RPS, "
+            + overloaded[1] + " rejected");
+        System.out.println("Stats: " + node.getStats());
+        System.out.println("========================================");
+
+        assertTrue("Goodput should hold up under overload, got " + overloadedRps + " vs " + nominalRps,
+            overloadedRps > nominalRps * 0.5);
+    }
+
+    /**
+     * Runs closed-loop PUT clients against a node for the given duration and
+     * returns {successes, rejections}. Rejected clients back off briefly.
+     */
+    private long[] runClosedLoad(int port, int clients, long durationMs) throws InterruptedException {
+        AtomicLong successes = new AtomicLong();
+        AtomicLong rejections = new AtomicLong();
+        long deadline = System.currentTimeMillis() + durationMs;
+        Thread[] workers = new Thread[clients];
+        for (int t = 0; t < clients; t++) {
+            final int id = t;
+            workers[t] = new Thread(() -> {
+                try (Client client = new Client(HOST, port)) {
+                    client.connect();
+                    for (int i = 0; System.currentTimeMillis() < deadline; i++) {
+                        Response response = client.sendRequest(
+                            new Request(Request.Type.PUT, "load_" + id + "_" + i, "value"));
+                        if (response.isSuccess()) {
+                            successes.incrementAndGet();
+                        } else if (response.getStatus() == Response.Status.OVERLOADED) {
+                            rejections.incrementAndGet();
+                            Thread.sleep(5);
+                        }
+                    }
+                } catch (IOException | InterruptedException e) {
+                    // Counted as lost work
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return new long[] {successes.get(), rejections.get()};
+    }
+
+    /**
+     * Runs causal per-thread write streams against storage and returns ops/s.
+     * With {@code sameKey} every thread writes the one hot key, otherwise each
+     * write goes to its own key.
+     */
+    private double runPutWorkload(Storage storage, int threads, int writesPerThread, boolean sameKey)
+            throws InterruptedException {
+        Thread[] workers = new Thread[threads];
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            final String writer = "writer" + t;
+            workers[t] = new Thread(() -> {
+                VersionVector version = new VersionVector(writer);
+                for (int i = 0; i < writesPerThread; i++) {
+                    version.increment();
+                    String key = sameKey ? "hot" : writer + "_" + i;
+                    storage.put(key, "value_" + i, version.copy());
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+        return threads * writesPerThread / seconds;
+    }
+
     private long measureLatency(Client client, Request req) throws IOException {
         long start = System.nanoTime();
         client.sendRequest(req);